@@ -0,0 +1,192 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.memory.AbstractMemoryContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares table-driven decoding of an 8080 subset with a hand-written switch-based decoder.
+ * <p>
+ * Run with <code>./gradlew jmh</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TableDecoderBenchmark {
+    private final static int MEMORY_SIZE = 64 * 1024;
+    private final static String I8080_SUBSET = String.join("\n",
+            "table reg B C D E H L M A",
+            "01110110          \"HLT\"",
+            "01dddsss          \"MOV {d:reg},{s:reg}\"",
+            "00ddd110 iiiiiiii \"MVI {d:reg},{i:X2}\"",
+            "11000011 llllllll hhhhhhhh \"JMP {h:X2}{l:X2}\"",
+            "00000000          \"NOP\""
+    );
+
+    private MemoryStub memory;
+    private TableDecoder tableDecoder;
+    private HandWrittenDecoder handWrittenDecoder;
+
+    @Setup
+    public void setUp() {
+        InstructionSet instructionSet = InstructionSet.parse(I8080_SUBSET);
+        memory = new MemoryStub();
+        Random random = new Random(1);
+        int[] opcodes = {0x00, 0x3E, 0x78, 0x41, 0xC3};
+        int position = 0;
+        while (position < MEMORY_SIZE - 3) {
+            int opcode = opcodes[random.nextInt(opcodes.length)];
+            memory.memory[position] = (byte) opcode;
+            memory.memory[position + 1] = (byte) random.nextInt();
+            memory.memory[position + 2] = (byte) random.nextInt();
+            position += (opcode == 0x3E) ? 2 : ((opcode == 0xC3) ? 3 : 1);
+        }
+        tableDecoder = new TableDecoder(instructionSet, memory);
+        handWrittenDecoder = new HandWrittenDecoder(memory, instructionSet);
+    }
+
+    @Benchmark
+    public void tableDriven(Blackhole blackhole) throws InvalidInstructionException {
+        decodeAll(tableDecoder, blackhole);
+    }
+
+    @Benchmark
+    public void handWritten(Blackhole blackhole) throws InvalidInstructionException {
+        decodeAll(handWrittenDecoder, blackhole);
+    }
+
+    private void decodeAll(Decoder decoder, Blackhole blackhole) throws InvalidInstructionException {
+        int position = 0;
+        while (position < MEMORY_SIZE - 3) {
+            DecodedInstruction instruction = decoder.decode(position);
+            blackhole.consume(instruction.get(InstructionSet.INSTRUCTION_KEY));
+            position += instruction.getLength();
+        }
+    }
+
+    // typical hand-written decoder: nested switches, a new instruction on each call
+    private static class HandWrittenDecoder implements Decoder {
+        private final MemoryStub memory;
+        private final int keyD;
+        private final int keyS;
+        private final int keyI;
+        private final int keyL;
+        private final int keyH;
+
+        HandWrittenDecoder(MemoryStub memory, InstructionSet instructionSet) {
+            this.memory = memory;
+            this.keyD = instructionSet.getFieldKey('d');
+            this.keyS = instructionSet.getFieldKey('s');
+            this.keyI = instructionSet.getFieldKey('i');
+            this.keyL = instructionSet.getFieldKey('l');
+            this.keyH = instructionSet.getFieldKey('h');
+        }
+
+        @Override
+        public DecodedInstruction decode(int memoryPosition) throws InvalidInstructionException {
+            DecodedInstruction instruction = new DecodedInstruction();
+            int opcode = memory.read(memoryPosition) & 0xFF;
+            switch (opcode >>> 6) {
+                case 0:
+                    if (opcode == 0) {
+                        instruction.add(InstructionSet.INSTRUCTION_KEY, "NOP", 4);
+                        instruction.setImage(new byte[]{(byte) opcode});
+                        return instruction;
+                    }
+                    if ((opcode & 7) == 6) {
+                        byte operand = memory.read(memoryPosition + 1);
+                        instruction.add(InstructionSet.INSTRUCTION_KEY, "MVI", 2);
+                        instruction.add(keyD, (opcode >>> 3) & 7, 3);
+                        instruction.add(keyI, operand & 0xFF, 8);
+                        instruction.setImage(new byte[]{(byte) opcode, operand});
+                        return instruction;
+                    }
+                    break;
+                case 1:
+                    if (opcode == 0x76) {
+                        instruction.add(InstructionSet.INSTRUCTION_KEY, "HLT", 0);
+                    } else {
+                        instruction.add(InstructionSet.INSTRUCTION_KEY, "MOV", 1);
+                        instruction.add(keyD, (opcode >>> 3) & 7, 3);
+                        instruction.add(keyS, opcode & 7, 3);
+                    }
+                    instruction.setImage(new byte[]{(byte) opcode});
+                    return instruction;
+                case 3:
+                    if (opcode == 0xC3) {
+                        byte low = memory.read(memoryPosition + 1);
+                        byte high = memory.read(memoryPosition + 2);
+                        instruction.add(InstructionSet.INSTRUCTION_KEY, "JMP", 3);
+                        instruction.add(keyL, low & 0xFF, 8);
+                        instruction.add(keyH, high & 0xFF, 8);
+                        instruction.setImage(new byte[]{(byte) opcode, low, high});
+                        return instruction;
+                    }
+                    break;
+            }
+            throw new InvalidInstructionException();
+        }
+    }
+
+    private static class MemoryStub extends AbstractMemoryContext<Byte> {
+        final byte[] memory = new byte[MEMORY_SIZE];
+
+        @Override
+        public Byte read(int memoryPosition) {
+            return memory[memoryPosition];
+        }
+
+        @Override
+        public Byte[] read(int memoryPosition, int count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void write(int memoryPosition, Byte value) {
+            memory[memoryPosition] = value;
+        }
+
+        @Override
+        public void write(int memoryPosition, Byte[] values, int count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Class<Byte> getDataType() {
+            return Byte.class;
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public int getSize() {
+            return memory.length;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sequential and parallel parsing of a big Intel HEX file.
+ * <p>
+ * Run with <code>./gradlew jmh</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IntelHEXBenchmark {
+    private final static int LINES = 1_000_000;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private File file;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("emulib-benchmark", ".hex");
+        Random random = new Random(1);
+        try (Writer writer = Files.newBufferedWriter(file.toPath())) {
+            for (int line = 0; line < LINES; line++) {
+                StringBuilder data = new StringBuilder();
+                for (int i = 0; i < 16; i++) {
+                    data.append(String.format("%02X", random.nextInt(256)));
+                }
+                writer.write(String.format(":10%04X00%s00\n", (line * 16) & 0xFFFF, data));
+            }
+            writer.write(":00000001FF\n");
+        }
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        file.delete();
+    }
+
+    @Benchmark
+    public ProgramImage sequential() throws Exception {
+        return IntelHEX.parse(file).toProgramImage();
+    }
+
+    @Benchmark
+    public ProgramImage parallel() throws Exception {
+        return IntelHEX.parseParallel(file, pool);
+    }
+}
@@ -21,6 +21,9 @@ package net.emustudio.emulib.plugins;
 import net.emustudio.emulib.runtime.ApplicationApi;
 
 import javax.swing.*;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Plugin main interface. This interface is available only to emuStudio, not to other plugins. Plugins communicate
@@ -150,5 +153,60 @@ public interface Plugin {
      * @return true if the plugin supports emulation automation; false otherwise
      */
     boolean isAutomationSupported();
-}
 
+    /**
+     * Determines if this plugin supports saving and loading of its state (snapshots).
+     * <p>
+     * Snapshots of all plugins together form a machine snapshot, which allows to pause an emulated machine and
+     * resume it later, possibly on another computer.
+     *
+     * @return true if the plugin supports snapshots; false otherwise
+     * @see net.emustudio.emulib.runtime.io.MachineSnapshot
+     */
+    default boolean isSnapshotSupported() {
+        return false;
+    }
+
+    /**
+     * Get version of the snapshot format produced by {@link #saveSnapshot(WritableByteChannel)}.
+     * <p>
+     * The version is stored in the snapshot and given back to {@link #loadSnapshot(ReadableByteChannel, int)},
+     * so the plugin can load snapshots made by older versions of itself.
+     *
+     * @return snapshot format version
+     */
+    default int getSnapshotVersion() {
+        return 1;
+    }
+
+    /**
+     * Saves plugin state into the channel.
+     * <p>
+     * It is called only when the emulation is paused or stopped. The plugin should not close the channel. Memory
+     * plugins can use {@link net.emustudio.emulib.runtime.io.MemoryDump} for storing memory content.
+     *
+     * @param channel output channel
+     * @throws IOException                   if the state cannot be written
+     * @throws UnsupportedOperationException if snapshots are not supported
+     * @see #isSnapshotSupported()
+     */
+    default void saveSnapshot(WritableByteChannel channel) throws IOException {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+
+    /**
+     * Loads plugin state from the channel.
+     * <p>
+     * It is called only when the emulation is paused or stopped. The channel contains exactly the data written
+     * by {@link #saveSnapshot(WritableByteChannel)}. The plugin should not close the channel.
+     *
+     * @param channel input channel
+     * @param version snapshot format version, as returned by {@link #getSnapshotVersion()} when the snapshot was saved
+     * @throws IOException                   if the state cannot be read or the version is not supported
+     * @throws UnsupportedOperationException if snapshots are not supported
+     * @see #isSnapshotSupported()
+     */
+    default void loadSnapshot(ReadableByteChannel channel, int version) throws IOException {
+        throw new UnsupportedOperationException("Snapshots are not supported");
+    }
+}
@@ -26,9 +26,12 @@ import net.emustudio.emulib.runtime.settings.PluginSettings;
 import net.jcip.annotations.NotThreadSafe;
 
 import javax.swing.*;
+import java.nio.file.Path;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 
 /**
  * Implements fundamental functionality useful for most of the compiler plugins.
@@ -59,6 +62,9 @@ public abstract class AbstractCompiler implements Compiler {
      */
     private final Set<CompilerListener> compilerListeners = new CopyOnWriteArraySet<>();
 
+    private volatile CompilationCache compilationCache;
+    private volatile MessageBatcher messageBatcher;
+
     /**
      * Creates new instance.
      *
@@ -114,6 +120,51 @@ public abstract class AbstractCompiler implements Compiler {
         return false;
     }
 
+    /**
+     * Set cache of intermediate compilation results, enabling incremental compilation.
+     *
+     * @param compilationCache compilation cache; or null to disable caching
+     */
+    public void setCompilationCache(CompilationCache compilationCache) {
+        this.compilationCache = compilationCache;
+    }
+
+    /**
+     * Get cache of intermediate compilation results.
+     *
+     * @return compilation cache; or null if caching is disabled
+     */
+    public CompilationCache getCompilationCache() {
+        return compilationCache;
+    }
+
+    /**
+     * Get an intermediate compilation result (e.g. parsed AST of a source file) from the compilation cache, or
+     * compute it.
+     * <p>
+     * If no compilation cache is set, the result is always computed. Otherwise, it is recomputed only if the source
+     * file or any of the recorded dependencies (e.g. included files) has changed.
+     *
+     * @param kind        kind of the result (e.g. "ast")
+     * @param source      source file
+     * @param codec       serializer of the result
+     * @param computation computation of the result
+     * @param <T>         type of the result
+     * @param <E>         type of the exception the computation can throw
+     * @return cached or computed result
+     * @throws E if the computation fails
+     * @see CompilationCache#get(String, Path, CompilationCache.Codec, CompilationCache.Computation)
+     */
+    protected <T, E extends Exception> T compileCached(String kind, Path source, CompilationCache.Codec<T> codec,
+                                                       CompilationCache.Computation<T, E> computation) throws E {
+        CompilationCache cache = compilationCache;
+        if (cache == null) {
+            return computation.compute(file -> {
+            });
+        }
+        return cache.get(kind, source, codec, computation);
+    }
+
     /**
      * Adds a listener onto compilerListeners list
      *
@@ -141,7 +192,12 @@ public abstract class AbstractCompiler implements Compiler {
      * This method should be called whenever the compiler begins to run.
      */
     protected void notifyCompileStart() {
-        compilerListeners.forEach(CompilerListener::onStart);
+        MessageBatcher batcher = messageBatcher;
+        if (batcher != null) {
+            batcher.start();
+        } else {
+            compilerListeners.forEach(CompilerListener::onStart);
+        }
     }
 
     /**
@@ -151,7 +207,12 @@ public abstract class AbstractCompiler implements Compiler {
      * This method should be called whenever the compiler ends the execution.
      */
     protected void notifyCompileFinish() {
-        compilerListeners.forEach(CompilerListener::onFinish);
+        MessageBatcher batcher = messageBatcher;
+        if (batcher != null) {
+            batcher.finish();
+        } else {
+            compilerListeners.forEach(CompilerListener::onFinish);
+        }
     }
 
     /**
@@ -165,7 +226,59 @@ public abstract class AbstractCompiler implements Compiler {
      * @param compilerMessage The message
      */
     public void notifyOnMessage(CompilerMessage compilerMessage) {
-        compilerListeners.forEach(listener -> listener.onMessage(compilerMessage));
+        MessageBatcher batcher = messageBatcher;
+        if (batcher == null) {
+            compilerListeners.forEach(listener -> listener.onMessage(compilerMessage));
+        } else if (batcher.admit(compilerMessage.getMessageType(), compilerMessage.getMessage())) {
+            batcher.add(compilerMessage);
+        }
+    }
+
+    /**
+     * Enables batched asynchronous delivery of compiler events.
+     * <p>
+     * Messages are accumulated and delivered to listeners in batches by
+     * {@link CompilerListener#onMessages(java.util.List)}, on the given executor. Start, messages and finish events
+     * are still delivered in the order they were reported. Messages still pending are delivered when compilation
+     * finishes (see {@link #notifyCompileFinish()}).
+     * <p>
+     * Messages exceeding the caps are dropped before they are allocated; the number of dropped messages is reported
+     * as an information message when compilation finishes.
+     *
+     * @param executor    executor delivering events to listeners
+     * @param batchSize   number of messages in a batch (must be &gt; 0)
+     * @param maxRepeats  maximal number of messages with the same type and text in one compilation; 0 for unlimited
+     * @param maxMessages maximal number of messages in one compilation; 0 for unlimited
+     */
+    public void setBatchedMessageDelivery(Executor executor, int batchSize, int maxRepeats, int maxMessages) {
+        MessageBatcher oldBatcher = messageBatcher;
+        messageBatcher = new MessageBatcher(compilerListeners, executor, batchSize, maxRepeats, maxMessages);
+        if (oldBatcher != null) {
+            oldBatcher.flush();
+        }
+    }
+
+    /**
+     * Get a future completed when all compiler events reported so far have been delivered to listeners.
+     * <p>
+     * With synchronous delivery, the future is already completed.
+     *
+     * @return future completed after delivery of all previous events
+     */
+    CompletableFuture<Void> messagesDelivered() {
+        MessageBatcher batcher = messageBatcher;
+        return (batcher == null) ? CompletableFuture.completedFuture(null) : batcher.delivered();
+    }
+
+    /**
+     * Disables batched message delivery (default). Pending messages are delivered first.
+     */
+    public void setSynchronousMessageDelivery() {
+        MessageBatcher oldBatcher = messageBatcher;
+        messageBatcher = null;
+        if (oldBatcher != null) {
+            oldBatcher.flush();
+        }
     }
 
     /**
@@ -174,7 +287,7 @@ public abstract class AbstractCompiler implements Compiler {
      * @param msg text of the message
      */
     public void notifyError(String msg) {
-        notifyOnMessage(new CompilerMessage(MessageType.TYPE_ERROR, msg));
+        notifyMessage(MessageType.TYPE_ERROR, msg, -1, -1);
     }
 
     /**
@@ -185,7 +298,7 @@ public abstract class AbstractCompiler implements Compiler {
      * @param msg text of the message
      */
     public void notifyError(int line, int column, String msg) {
-        notifyOnMessage(new CompilerMessage(MessageType.TYPE_ERROR, msg, line, column));
+        notifyMessage(MessageType.TYPE_ERROR, msg, line, column);
     }
 
     /**
@@ -194,7 +307,7 @@ public abstract class AbstractCompiler implements Compiler {
      * @param msg text of the message
      */
     public void notifyInfo(String msg) {
-        notifyOnMessage(new CompilerMessage(MessageType.TYPE_INFO, msg));
+        notifyMessage(MessageType.TYPE_INFO, msg, -1, -1);
     }
 
     /**
@@ -205,7 +318,7 @@ public abstract class AbstractCompiler implements Compiler {
      * @param msg text of the message
      */
     public void notifyInfo(int line, int column, String msg) {
-        notifyOnMessage(new CompilerMessage(MessageType.TYPE_INFO, msg, line, column));
+        notifyMessage(MessageType.TYPE_INFO, msg, line, column);
     }
 
     /**
@@ -214,7 +327,7 @@ public abstract class AbstractCompiler implements Compiler {
      * @param msg text of the message
      */
     public void notifyWarning(String msg) {
-        notifyOnMessage(new CompilerMessage(MessageType.TYPE_WARNING, msg));
+        notifyMessage(MessageType.TYPE_WARNING, msg, -1, -1);
     }
 
     /**
@@ -225,7 +338,16 @@ public abstract class AbstractCompiler implements Compiler {
      * @param msg text of the message
      */
     public void notifyWarning(int line, int column, String msg) {
-        notifyOnMessage(new CompilerMessage(MessageType.TYPE_WARNING, msg, line, column));
+        notifyMessage(MessageType.TYPE_WARNING, msg, line, column);
+    }
+
+    private void notifyMessage(MessageType type, String msg, int line, int column) {
+        MessageBatcher batcher = messageBatcher;
+        if (batcher == null) {
+            notifyOnMessage(new CompilerMessage(type, msg, line, column));
+        } else if (batcher.admit(type, msg)) {
+            batcher.add(new CompilerMessage(type, msg, line, column));
+        }
     }
 
     /**
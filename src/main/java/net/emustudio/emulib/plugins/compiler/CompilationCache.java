@@ -0,0 +1,395 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of intermediate compilation results, for incremental compilation.
+ * <p>
+ * A result (e.g. parsed AST of a source file, expanded macros, symbol table) is identified by its kind and a source
+ * file. When it is computed, the computation records all files it depends on (e.g. included files). The result is
+ * cached together with content hashes (SHA-256) of the source and all dependencies; it is reused as long as none of
+ * them changes. File hashes are memoized by file size and modification time, so checking an unchanged project does
+ * not read the files again.
+ * <p>
+ * The source is hashed before the computation starts and each dependency when it is recorded. If any of them
+ * changes until the computation finishes, the result is returned but not cached.
+ * <p>
+ * Results are kept in memory and, if a cache directory is given, also on disk (serialized by a {@link Codec}), so
+ * they survive restarts. The cache is best-effort: errors of reading or writing the cache are logged and the result
+ * is just computed again.
+ */
+@ThreadSafe
+public class CompilationCache {
+    private final static Logger LOGGER = LoggerFactory.getLogger(CompilationCache.class);
+    private final static int MAGIC = 0x454D5543; // "EMUC"
+    private final static int VERSION = 1;
+    private final static long RACY_MODIFICATION_MILLIS = 2000;
+
+    private final Path directory;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Path, FileHash> fileHashes = new ConcurrentHashMap<>();
+
+    /**
+     * Serializer of cached results.
+     *
+     * @param <T> type of the result
+     */
+    public interface Codec<T> {
+
+        /**
+         * Get version of the serialized form. Cached results with other version are ignored.
+         *
+         * @return serialized form version
+         */
+        default int getVersion() {
+            return 1;
+        }
+
+        /**
+         * Serialize a result.
+         *
+         * @param value  result
+         * @param output output
+         * @throws IOException if the result cannot be written
+         */
+        void write(T value, DataOutput output) throws IOException;
+
+        /**
+         * Deserialize a result.
+         *
+         * @param input input
+         * @return result
+         * @throws IOException if the result cannot be read
+         */
+        T read(DataInput input) throws IOException;
+    }
+
+    /**
+     * Recorder of files the computation depends on.
+     */
+    @FunctionalInterface
+    public interface Dependencies {
+
+        /**
+         * Records a file the computation depends on (e.g. included file).
+         * <p>
+         * The file content is hashed when it is recorded, so it should be recorded before the computation reads it.
+         *
+         * @param file file
+         */
+        void add(Path file);
+    }
+
+    /**
+     * Computation of a result.
+     *
+     * @param <T> type of the result
+     * @param <E> type of the exception the computation can throw
+     */
+    @FunctionalInterface
+    public interface Computation<T, E extends Exception> {
+
+        /**
+         * Computes the result.
+         *
+         * @param dependencies recorder of files the computation depends on (besides the source file)
+         * @return result
+         * @throws E if the computation fails; nothing is cached
+         */
+        T compute(Dependencies dependencies) throws E;
+    }
+
+    /**
+     * Creates new in-memory compilation cache.
+     */
+    public CompilationCache() {
+        this.directory = null;
+    }
+
+    /**
+     * Creates new compilation cache which also stores results on disk.
+     *
+     * @param directory cache directory; created if it does not exist
+     */
+    public CompilationCache(Path directory) {
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    /**
+     * Get a cached result, or compute and cache it if the source or any dependency has changed.
+     *
+     * @param kind        kind of the result (e.g. "ast", "macros"); results of different kinds are cached separately
+     * @param source      source file
+     * @param codec       serializer of the result
+     * @param computation computation of the result
+     * @param <T>         type of the result
+     * @param <E>         type of the exception the computation can throw
+     * @return cached or computed result
+     * @throws E if the computation fails
+     */
+    public <T, E extends Exception> T get(String kind, Path source, Codec<T> codec,
+                                          Computation<T, E> computation) throws E {
+        Path normalizedSource = source.toAbsolutePath().normalize();
+        String key = kind + '\u0000' + normalizedSource;
+
+        Entry entry = entries.get(key);
+        if (entry == null || entry.codecVersion != codec.getVersion()) {
+            entry = load(key, codec);
+        }
+        if (entry != null && isUpToDate(entry)) {
+            @SuppressWarnings("unchecked")
+            T value = (T) entry.value;
+            return value;
+        }
+
+        // hashes are taken before the files are read, so a file saved during the computation is never cached
+        // under its new content
+        Map<Path, Optional<byte[]>> dependencies = new LinkedHashMap<>();
+        dependencies.put(normalizedSource, Optional.ofNullable(hash(normalizedSource)));
+        T value = computation.compute(file -> {
+            Path normalizedFile = file.toAbsolutePath().normalize();
+            synchronized (dependencies) {
+                if (!dependencies.containsKey(normalizedFile)) {
+                    dependencies.put(normalizedFile, Optional.ofNullable(hash(normalizedFile)));
+                }
+            }
+        });
+
+        List<Path> files = new ArrayList<>();
+        List<byte[]> hashes = new ArrayList<>();
+        synchronized (dependencies) {
+            for (Map.Entry<Path, Optional<byte[]>> dependency : dependencies.entrySet()) {
+                files.add(dependency.getKey());
+                hashes.add(dependency.getValue().orElse(null));
+            }
+        }
+        for (int i = 0; i < files.size(); i++) {
+            byte[] hash = hashes.get(i);
+            if (hash == null || !Arrays.equals(hash, hash(files.get(i)))) {
+                return value; // a dependency cannot be read or has changed meanwhile; do not cache
+            }
+        }
+        Entry newEntry = new Entry(files, hashes.toArray(new byte[0][]), codec.getVersion(), value);
+        entries.put(key, newEntry);
+        store(key, newEntry, codec);
+        return value;
+    }
+
+    /**
+     * Removes all cached results, from memory and disk.
+     */
+    public void clear() {
+        entries.clear();
+        fileHashes.clear();
+        if (directory != null && Files.isDirectory(directory)) {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (file.getFileName().toString().endsWith(".cache")) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Could not clear compilation cache {}", directory, e);
+            }
+        }
+    }
+
+    private boolean isUpToDate(Entry entry) {
+        for (int i = 0; i < entry.files.size(); i++) {
+            byte[] hash = hash(entry.files.get(i));
+            if (hash == null || !Arrays.equals(hash, entry.hashes[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // returns null if the file cannot be read
+    private byte[] hash(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long modified = attributes.lastModifiedTime().toMillis();
+            long size = attributes.size();
+
+            FileHash fileHash = fileHashes.get(file);
+            if (fileHash != null && fileHash.modified == modified && fileHash.size == size) {
+                return fileHash.hash;
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream input = Files.newInputStream(file)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = input.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            byte[] hash = digest.digest();
+            if (System.currentTimeMillis() - modified > RACY_MODIFICATION_MILLIS) {
+                // a file modified just now can be modified again without changing its time stamp or size
+                fileHashes.put(file, new FileHash(modified, size, hash));
+            }
+            return hash;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.debug("Could not hash file {}", file, e);
+            return null;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private Path cacheFile(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", hash[i]));
+            }
+            return directory.resolve(name.append(".cache").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private <T> Entry load(String key, Codec<T> codec) {
+        if (directory == null) {
+            return null;
+        }
+        Path file = cacheFile(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !input.readUTF().equals(key)
+                    || input.readInt() != codec.getVersion()) {
+                return null;
+            }
+            int count = input.readInt();
+            List<Path> files = new ArrayList<>(count);
+            byte[][] hashes = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                files.add(Path.of(input.readUTF()));
+                hashes[i] = new byte[input.readUnsignedByte()];
+                input.readFully(hashes[i]);
+            }
+            Entry entry = new Entry(files, hashes, codec.getVersion(), codec.read(input));
+            entries.put(key, entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Could not read compilation cache file {}", file, e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void store(String key, Entry entry, Codec<T> codec) {
+        if (directory == null) {
+            return;
+        }
+        Path file = cacheFile(key);
+        try {
+            Files.createDirectories(directory);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(key);
+            output.writeInt(entry.codecVersion);
+            output.writeInt(entry.files.size());
+            for (int i = 0; i < entry.files.size(); i++) {
+                output.writeUTF(entry.files.get(i).toString());
+                output.writeByte(entry.hashes[i].length);
+                output.write(entry.hashes[i]);
+            }
+            codec.write((T) entry.value, output);
+            output.flush();
+
+            // write and rename, so concurrent readers never see a partial file
+            Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                    bytes.writeTo(out);
+                }
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not write compilation cache file {}", file, e);
+        }
+    }
+
+    private static final class Entry {
+        private final List<Path> files;
+        private final byte[][] hashes;
+        private final int codecVersion;
+        private final Object value;
+
+        private Entry(List<Path> files, byte[][] hashes, int codecVersion, Object value) {
+            this.files = files;
+            this.hashes = hashes;
+            this.codecVersion = codecVersion;
+            this.value = value;
+        }
+    }
+
+    private static final class FileHash {
+        private final long modified;
+        private final long size;
+        private final byte[] hash;
+
+        private FileHash(long modified, long size, byte[] hash) {
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.emustudio.emulib.plugins.compiler.CompilerMessage.MessageType;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Parallel multi-module compilation pipeline.
+ * <p>
+ * Compilation runs in three phases:
+ * <ol>
+ *     <li>parsing - each input (e.g. source file) is lexed and parsed into a module, in parallel,</li>
+ *     <li>symbol resolution - all modules are merged, symbols are resolved and the program is split into sections,
+ *     on one thread,</li>
+ *     <li>code generation - code of each section is generated, in parallel.</li>
+ * </ol>
+ * Parallel phases run on a fork-join pool. Each task reports messages into its own {@link Messages} collector;
+ * the messages are delivered after the phase finishes, ordered by input (or section) and then by emission order.
+ * So the messages are always delivered in the same order, regardless of thread scheduling.
+ * <p>
+ * If a phase reports any error, following phases are not run. An exception thrown by a task is reported as an error.
+ *
+ * @param <I> type of input (e.g. source file name)
+ * @param <M> type of parsed module (e.g. AST)
+ * @param <X> type of section
+ * @param <C> type of generated code of a section
+ */
+@ThreadSafe
+public class CompilationPipeline<I, M, X, C> {
+    private final Parser<I, M> parser;
+    private final Resolver<M, X> resolver;
+    private final Generator<X, C> generator;
+    private final ForkJoinPool pool;
+
+    /**
+     * Parser of one input.
+     *
+     * @param <I> type of input
+     * @param <M> type of parsed module
+     */
+    @FunctionalInterface
+    public interface Parser<I, M> {
+
+        /**
+         * Lex and parse an input. Called in parallel for different inputs.
+         *
+         * @param input    input
+         * @param messages collector of messages
+         * @return parsed module
+         * @throws Exception if the input cannot be parsed; reported as an error
+         */
+        M parse(I input, Messages messages) throws Exception;
+    }
+
+    /**
+     * Symbol resolution of all modules.
+     *
+     * @param <M> type of parsed module
+     * @param <X> type of section
+     */
+    @FunctionalInterface
+    public interface Resolver<M, X> {
+
+        /**
+         * Resolve symbols of all modules and split the program into sections.
+         *
+         * @param modules  parsed modules, in the order of inputs
+         * @param messages collector of messages
+         * @return sections, for which code will be generated
+         * @throws Exception if symbols cannot be resolved; reported as an error
+         */
+        List<X> resolve(List<M> modules, Messages messages) throws Exception;
+    }
+
+    /**
+     * Code generator of one section.
+     *
+     * @param <X> type of section
+     * @param <C> type of generated code
+     */
+    @FunctionalInterface
+    public interface Generator<X, C> {
+
+        /**
+         * Generate code of a section. Called in parallel for different sections.
+         *
+         * @param section  section
+         * @param messages collector of messages
+         * @return generated code
+         * @throws Exception if the code cannot be generated; reported as an error
+         */
+        C generate(X section, Messages messages) throws Exception;
+    }
+
+    /**
+     * Collector of compiler messages of one task.
+     */
+    @NotThreadSafe
+    public static final class Messages {
+        private final List<CompilerMessage> messages = new ArrayList<>();
+        private boolean hasErrors;
+
+        /**
+         * Adds a message.
+         *
+         * @param message compiler message
+         */
+        public void add(CompilerMessage message) {
+            messages.add(Objects.requireNonNull(message));
+            hasErrors |= (message.getMessageType() == MessageType.TYPE_ERROR);
+        }
+
+        /**
+         * Adds an error message.
+         *
+         * @param line   line in the source code
+         * @param column column in the source code
+         * @param msg    text of the message
+         */
+        public void error(int line, int column, String msg) {
+            add(new CompilerMessage(MessageType.TYPE_ERROR, msg, line, column));
+        }
+
+        /**
+         * Adds a warning message.
+         *
+         * @param line   line in the source code
+         * @param column column in the source code
+         * @param msg    text of the message
+         */
+        public void warning(int line, int column, String msg) {
+            add(new CompilerMessage(MessageType.TYPE_WARNING, msg, line, column));
+        }
+
+        /**
+         * Adds an information message.
+         *
+         * @param line   line in the source code
+         * @param column column in the source code
+         * @param msg    text of the message
+         */
+        public void info(int line, int column, String msg) {
+            add(new CompilerMessage(MessageType.TYPE_INFO, msg, line, column));
+        }
+
+        /**
+         * Determines if an error message was added.
+         *
+         * @return true if there is an error message
+         */
+        public boolean hasErrors() {
+            return hasErrors;
+        }
+
+        /**
+         * Get collected messages.
+         *
+         * @return messages, in the order they were added
+         */
+        public List<CompilerMessage> getMessages() {
+            return Collections.unmodifiableList(messages);
+        }
+    }
+
+    /**
+     * Creates new compilation pipeline running on the common fork-join pool.
+     *
+     * @param parser    parser of one input
+     * @param resolver  symbol resolution of all modules
+     * @param generator code generator of one section
+     */
+    public CompilationPipeline(Parser<I, M> parser, Resolver<M, X> resolver, Generator<X, C> generator) {
+        this(parser, resolver, generator, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates new compilation pipeline.
+     *
+     * @param parser    parser of one input
+     * @param resolver  symbol resolution of all modules
+     * @param generator code generator of one section
+     * @param pool      fork-join pool for parallel phases
+     */
+    public CompilationPipeline(Parser<I, M> parser, Resolver<M, X> resolver, Generator<X, C> generator,
+                               ForkJoinPool pool) {
+        this.parser = Objects.requireNonNull(parser);
+        this.resolver = Objects.requireNonNull(resolver);
+        this.generator = Objects.requireNonNull(generator);
+        this.pool = Objects.requireNonNull(pool);
+    }
+
+    /**
+     * Compiles inputs.
+     * <p>
+     * Messages are delivered to the consumer on the calling thread, e.g.
+     * {@link AbstractCompiler#notifyOnMessage(CompilerMessage)}.
+     *
+     * @param inputs   inputs (e.g. source file names)
+     * @param messages consumer of compiler messages
+     * @return generated code of sections in the order returned by the resolver; or empty if any error was reported
+     */
+    public Optional<List<C>> compile(List<I> inputs, Consumer<CompilerMessage> messages) {
+        Objects.requireNonNull(messages);
+        Optional<List<M>> modules = runParallel(inputs, parser::parse, messages);
+        if (modules.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Messages resolveMessages = new Messages();
+        List<X> sections = null;
+        try {
+            sections = resolver.resolve(modules.get(), resolveMessages);
+        } catch (Exception e) {
+            resolveMessages.add(errorOf(e));
+        }
+        resolveMessages.messages.forEach(messages);
+        if (resolveMessages.hasErrors() || sections == null) {
+            return Optional.empty();
+        }
+        return runParallel(sections, generator::generate, messages);
+    }
+
+    private <T, R> Optional<List<R>> runParallel(List<T> items, Task<T, R> task, Consumer<CompilerMessage> messages) {
+        List<ForkJoinTask<R>> tasks = new ArrayList<>(items.size());
+        List<Messages> taskMessages = new ArrayList<>(items.size());
+        for (T item : items) {
+            Messages itemMessages = new Messages();
+            taskMessages.add(itemMessages);
+            tasks.add(pool.submit(() -> {
+                try {
+                    return task.run(item, itemMessages);
+                } catch (Exception e) {
+                    itemMessages.add(errorOf(e));
+                    return null;
+                }
+            }));
+        }
+
+        List<R> results = new ArrayList<>(items.size());
+        boolean hasErrors = false;
+        for (int i = 0; i < tasks.size(); i++) {
+            results.add(tasks.get(i).join());
+            Messages itemMessages = taskMessages.get(i);
+            itemMessages.messages.forEach(messages);
+            hasErrors |= itemMessages.hasErrors();
+        }
+        return hasErrors ? Optional.empty() : Optional.of(results);
+    }
+
+    private static CompilerMessage errorOf(Exception e) {
+        String message = (e.getMessage() == null) ? e.getClass().getSimpleName() : e.getMessage();
+        return new CompilerMessage(MessageType.TYPE_ERROR, message);
+    }
+
+    @FunctionalInterface
+    private interface Task<T, R> {
+        R run(T item, Messages messages) throws Exception;
+    }
+}
@@ -19,8 +19,13 @@
 package net.emustudio.emulib.plugins.compiler;
 
 import net.emustudio.emulib.plugins.Plugin;
+import net.emustudio.emulib.runtime.io.ProgramImage;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * Compiler plugin root interface.
@@ -72,6 +77,52 @@ public interface Compiler extends Plugin {
      */
     boolean compile(String inputFileName);
 
+    /**
+     * Determines if this compiler can compile a source into memory, without touching the filesystem
+     * (see {@link #compileToImage(Reader)}).
+     *
+     * @return true if in-memory compilation is supported; false otherwise
+     */
+    default boolean isInMemoryCompileSupported() {
+        return false;
+    }
+
+    /**
+     * Compile a source into a program image in memory, without reading or writing any files (besides the ones
+     * the source refers to, e.g. includes).
+     * <p>
+     * The image can be loaded directly into memory by
+     * {@link ProgramImage#loadIntoMemory(net.emustudio.emulib.plugins.memory.MemoryContext, java.util.function.Function)}.
+     * Compiler messages are reported to compiler listeners, as usual.
+     *
+     * @param source program source code
+     * @return compiled program image; or empty if the compilation failed
+     * @throws IOException                   if the source cannot be read
+     * @throws UnsupportedOperationException if in-memory compilation is not supported
+     * @see #isInMemoryCompileSupported()
+     */
+    default Optional<ProgramImage> compileToImage(Reader source) throws IOException {
+        throw new UnsupportedOperationException("In-memory compilation is not supported");
+    }
+
+    /**
+     * Compile a source into a program image in memory, without reading or writing any files (besides the ones
+     * the source refers to, e.g. includes).
+     *
+     * @param source program source code
+     * @return compiled program image; or empty if the compilation failed
+     * @throws UnsupportedOperationException if in-memory compilation is not supported
+     * @see #compileToImage(Reader)
+     */
+    default Optional<ProgramImage> compileToImage(CharSequence source) {
+        try {
+            return compileToImage(new StringReader(source.toString()));
+        } catch (IOException e) {
+            // StringReader does not throw
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Creates a lexical analyzer.
      *
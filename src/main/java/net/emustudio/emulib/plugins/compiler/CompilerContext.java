@@ -21,6 +21,8 @@ package net.emustudio.emulib.plugins.compiler;
 import net.emustudio.emulib.plugins.annotations.PluginContext;
 import net.emustudio.emulib.plugins.Context;
 
+import java.util.Optional;
+
 /**
  * Compiler context can be used to provide additional meta-information for runtime, which can be used by other plugins.
  * <p>
@@ -29,5 +31,15 @@ import net.emustudio.emulib.plugins.Context;
 @PluginContext
 public interface CompilerContext extends Context {
 
+    /**
+     * Get debug information of the last successfully compiled program.
+     * <p>
+     * Debuggers use it for showing source lines of the executed code and for setting breakpoints by source line.
+     *
+     * @return debug map of the last compiled program; or empty if it is not available
+     */
+    default Optional<DebugMap> getDebugMap() {
+        return Optional.empty();
+    }
 }
 
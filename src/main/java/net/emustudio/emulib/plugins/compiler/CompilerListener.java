@@ -18,6 +18,8 @@
  */
 package net.emustudio.emulib.plugins.compiler;
 
+import java.util.List;
+
 /**
  * This is an interface that should be implemented by the emuStudio,
  * and/or other plugins that want to process the output of the compiler.
@@ -35,6 +37,19 @@ public interface CompilerListener {
      */
     void onMessage(CompilerMessage compilerMessage);
 
+    /**
+     * Method will be invoked when compiler delivers messages in batches
+     * (see {@link AbstractCompiler#setBatchedMessageDelivery}).
+     * <p>
+     * By default, {@link #onMessage(CompilerMessage)} is called for each message. Listeners which do expensive work
+     * per message (e.g. GUI updates) should override it.
+     *
+     * @param compilerMessages messages from the compiler, in the order they were reported
+     */
+    default void onMessages(List<CompilerMessage> compilerMessages) {
+        compilerMessages.forEach(this::onMessage);
+    }
+
     /**
      * This method is called whenever the compiler finishes the compilation.
      */
@@ -0,0 +1,305 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Compile server, keeping a compiler resident (and warm) between compile requests.
+ * <p>
+ * Clients talk to the server over a simple line-based UTF-8 text protocol, either on standard input/output
+ * ({@link #serve(InputStream, OutputStream)}) or on a Unix domain socket ({@link #start()}). Requests:
+ * <ul>
+ *     <li><code>COMPILE &lt;input file&gt;</code> - compile the file, output file name is derived by the compiler,</li>
+ *     <li><code>COMPILE &lt;input file&gt;\t&lt;output file&gt;</code> - compile the file into the output file,</li>
+ *     <li><code>PING</code> - replies <code>PONG</code>,</li>
+ *     <li><code>QUIT</code> - ends the session.</li>
+ * </ul>
+ * For each <code>COMPILE</code> request, the server replies with compiler messages, one per line prefixed with
+ * <code>MESSAGE </code>, followed by a final line <code>OK</code> or <code>FAILED</code>. Unknown requests are
+ * answered by <code>ERROR &lt;description&gt;</code>.
+ * <p>
+ * The compiler is not required to be thread-safe: requests from concurrent clients are compiled one at a time.
+ * Lexer, parser and caches kept by the compiler instance are reused between requests. If the compiler is
+ * an {@link AbstractCompiler} with batched message delivery, the reply is written after all messages of the
+ * compilation have been delivered.
+ * <p>
+ * Trust model: a client can make the compiler read and write any file the server process can access, so only
+ * the user running the server may connect. There is no authentication in the protocol itself; access is restricted
+ * by the file system instead. The socket is created in a new directory readable and writable by its owner only
+ * (on file systems supporting POSIX permissions; elsewhere in the user's temporary directory), so other local users
+ * cannot reach it. The server is never reachable over the network.
+ */
+@ThreadSafe
+public class CompilerServer implements AutoCloseable {
+    private final static Logger LOGGER = LoggerFactory.getLogger(CompilerServer.class);
+    private final static long MESSAGES_TIMEOUT_SECONDS = 30;
+
+    private final Compiler compiler;
+    private final Object compileLock = new Object();
+    private final Set<SocketChannel> clients = ConcurrentHashMap.newKeySet();
+    private ServerSocketChannel serverChannel; // guarded by "this"
+    private Path socketFile; // guarded by "this"
+    private ExecutorService sessions; // guarded by "this"
+
+    /**
+     * Creates new compile server.
+     *
+     * @param compiler resident compiler
+     */
+    public CompilerServer(Compiler compiler) {
+        this.compiler = Objects.requireNonNull(compiler);
+    }
+
+    /**
+     * Serves requests from a stream (e.g. standard input) until end of the stream or <code>QUIT</code> request.
+     *
+     * @param input  input stream of requests
+     * @param output output stream of responses; flushed after each response
+     * @throws IOException if the streams cannot be read or written
+     */
+    public void serve(InputStream input, OutputStream output) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+
+        String request;
+        while ((request = reader.readLine()) != null) {
+            request = request.strip();
+            if (request.isEmpty()) {
+                continue;
+            }
+            if (request.equals("QUIT")) {
+                break;
+            } else if (request.equals("PING")) {
+                writer.write("PONG\n");
+            } else if (request.startsWith("COMPILE ")) {
+                compile(request.substring("COMPILE ".length()), writer);
+            } else {
+                writer.write("ERROR Unknown request\n");
+            }
+            writer.flush();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Starts serving requests on a Unix domain socket. Each connection is one session.
+     * <p>
+     * The socket is created in a new private directory (see the trust model in the class description); both are
+     * deleted when the server is closed. The server can be started again after it was closed.
+     *
+     * @return path of the socket the server listens on
+     * @throws IOException           if the socket cannot be opened
+     * @throws IllegalStateException if the server is already started
+     */
+    public synchronized Path start() throws IOException {
+        if (serverChannel != null) {
+            throw new IllegalStateException("Compile server is already started");
+        }
+        Path directory = createPrivateDirectory();
+        Path socketFile = directory.resolve("compiler.sock");
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.bind(UnixDomainSocketAddress.of(socketFile));
+        } catch (IOException e) {
+            closeQuietly(channel);
+            Files.deleteIfExists(directory);
+            throw e;
+        }
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "CompilerServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        serverChannel = channel;
+        this.socketFile = socketFile;
+        sessions = executor;
+        executor.execute(() -> acceptConnections(channel, executor));
+        return socketFile;
+    }
+
+    /**
+     * Stops the server. Connections of running sessions are closed; a compilation in progress is finished, but its
+     * reply is not delivered.
+     */
+    @Override
+    public synchronized void close() {
+        if (serverChannel == null) {
+            return;
+        }
+        closeQuietly(serverChannel);
+        sessions.shutdownNow();
+        try {
+            Files.deleteIfExists(socketFile);
+            Files.deleteIfExists(socketFile.getParent());
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete compile server socket", e);
+        }
+        serverChannel = null;
+        socketFile = null;
+        sessions = null;
+        // closing the channel ends the session blocked in reading
+        for (SocketChannel client : clients) {
+            closeQuietly(client);
+        }
+    }
+
+    private static Path createPrivateDirectory() throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return Files.createTempDirectory("emulib-compiler",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        }
+        return Files.createTempDirectory("emulib-compiler");
+    }
+
+    private void acceptConnections(ServerSocketChannel channel, ExecutorService executor) {
+        while (channel.isOpen()) {
+            try {
+                SocketChannel client = channel.accept();
+                clients.add(client);
+                try {
+                    executor.execute(() -> serveClient(client));
+                } catch (RejectedExecutionException e) {
+                    clients.remove(client);
+                    closeQuietly(client); // closed meanwhile
+                }
+            } catch (IOException e) {
+                if (channel.isOpen()) {
+                    LOGGER.error("Could not accept compile server connection", e);
+                }
+            }
+        }
+    }
+
+    private void serveClient(SocketChannel client) {
+        try (client) {
+            serve(Channels.newInputStream(client), Channels.newOutputStream(client));
+        } catch (IOException e) {
+            LOGGER.debug("Compile server session ended", e);
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            LOGGER.warn("Could not close compile server socket", e);
+        }
+    }
+
+    private void compile(String arguments, Writer writer) throws IOException {
+        int separator = arguments.indexOf('\t');
+        String inputFileName = (separator < 0) ? arguments : arguments.substring(0, separator);
+        String outputFileName = (separator < 0) ? null : arguments.substring(separator + 1);
+
+        List<CompilerMessage> messages = new ArrayList<>();
+        CompilerListener listener = new CompilerListener() {
+            @Override
+            public void onStart() {
+            }
+
+            @Override
+            public void onMessage(CompilerMessage compilerMessage) {
+                synchronized (messages) {
+                    messages.add(compilerMessage);
+                }
+            }
+
+            @Override
+            public void onFinish() {
+            }
+        };
+
+        boolean result;
+        synchronized (compileLock) {
+            compiler.addCompilerListener(listener);
+            try {
+                result = (outputFileName == null)
+                        ? compiler.compile(inputFileName)
+                        : compiler.compile(inputFileName, outputFileName);
+            } catch (RuntimeException e) {
+                LOGGER.error("Unexpected compiler error", e);
+                listener.onMessage(new CompilerMessage(CompilerMessage.MessageType.TYPE_ERROR, String.valueOf(e)));
+                result = false;
+            } finally {
+                awaitMessages();
+                compiler.removeCompilerListener(listener);
+            }
+        }
+
+        synchronized (messages) {
+            for (CompilerMessage message : messages) {
+                String text = message.getFormattedMessage().replace('\n', ' ').replace('\r', ' ');
+                writer.write("MESSAGE " + text + "\n");
+            }
+        }
+        writer.write(result ? "OK\n" : "FAILED\n");
+    }
+
+    // batched messages are delivered asynchronously, possibly after compile() has returned
+    private void awaitMessages() {
+        if (compiler instanceof AbstractCompiler) {
+            try {
+                ((AbstractCompiler) compiler).messagesDelivered().get(MESSAGES_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                LOGGER.error("Could not deliver compiler messages", e);
+            } catch (TimeoutException e) {
+                // e.g. a stuck listener; reply with the messages delivered so far rather than blocking the server
+                LOGGER.warn("Compiler messages were not delivered in {} seconds", MESSAGES_TIMEOUT_SECONDS);
+            }
+        }
+    }
+}
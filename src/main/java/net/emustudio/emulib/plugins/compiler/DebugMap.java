@@ -0,0 +1,367 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Debug information mapping compiled code addresses to source lines and back.
+ * <p>
+ * Each entry maps an address range (usually one instruction) to a source file and line. Entries are kept in sorted
+ * primitive arrays - by address for address-to-line lookups and by (file, line) for line-to-address lookups - so
+ * both lookups are O(log n) binary searches.
+ * <p>
+ * Compilers create the map with a {@link Builder}, can save it next to the output file (see {@link #pathFor(Path)})
+ * and provide it through {@link CompilerContext#getDebugMap()}.
+ */
+@Immutable
+public class DebugMap {
+    private final static int MAGIC = 0x454D5544; // "EMUD"
+    private final static int VERSION = 1;
+
+    private final List<String> files;
+    // sorted by address
+    private final int[] addresses;
+    private final int[] ends;
+    private final int[] fileIndices;
+    private final int[] lines;
+    // entry indices sorted by (file, line, address)
+    private final int[] byLine;
+
+    private DebugMap(List<String> files, int[] addresses, int[] ends, int[] fileIndices, int[] lines) {
+        this.files = Collections.unmodifiableList(files);
+        this.addresses = addresses;
+        this.ends = ends;
+        this.fileIndices = fileIndices;
+        this.lines = lines;
+
+        Integer[] order = new Integer[addresses.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int result = Integer.compare(fileIndices[a], fileIndices[b]);
+            if (result == 0) {
+                result = Integer.compare(lines[a], lines[b]);
+            }
+            return (result == 0) ? Integer.compare(addresses[a], addresses[b]) : result;
+        });
+        this.byLine = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            byLine[i] = order[i];
+        }
+    }
+
+    /**
+     * Get number of entries.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return addresses.length;
+    }
+
+    /**
+     * Get source files referenced by the map.
+     *
+     * @return source file names
+     */
+    public List<String> getFiles() {
+        return files;
+    }
+
+    /**
+     * Find source location of code at given address.
+     *
+     * @param address code address
+     * @return source location of the entry containing the address; or empty if no entry contains it
+     */
+    public Optional<SourceLocation> findSource(int address) {
+        int index = Arrays.binarySearch(addresses, address);
+        if (index < 0) {
+            index = -index - 2; // the last entry starting before the address
+        }
+        if (index < 0 || address >= ends[index]) {
+            return Optional.empty();
+        }
+        return Optional.of(new SourceLocation(files.get(fileIndices[index]), lines[index]));
+    }
+
+    /**
+     * Find address of code generated from given source line.
+     * <p>
+     * If the line has no code (e.g. it is empty or a comment), the nearest following line of the same file with
+     * code is used - as debuggers do when setting a breakpoint by source line.
+     *
+     * @param file source file name
+     * @param line source line
+     * @return lowest address of code of the line; or -1 if there is no code on the line or after it
+     */
+    public int findAddress(String file, int line) {
+        int fileIndex = files.indexOf(file);
+        if (fileIndex < 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = byLine.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int entry = byLine[middle];
+            if (fileIndices[entry] < fileIndex || (fileIndices[entry] == fileIndex && lines[entry] < line)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (low == byLine.length || fileIndices[byLine[low]] != fileIndex) {
+            return -1;
+        }
+        return addresses[byLine[low]];
+    }
+
+    /**
+     * Get path of a debug map file belonging to an output file (the output file name with ".dbg" appended).
+     *
+     * @param outputFile compiled output file
+     * @return debug map file path
+     */
+    public static Path pathFor(Path outputFile) {
+        return outputFile.resolveSibling(outputFile.getFileName() + ".dbg");
+    }
+
+    /**
+     * Saves the map into a file.
+     *
+     * @param file output file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path file) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(files.size());
+            for (String name : files) {
+                output.writeUTF(name);
+            }
+            output.writeInt(addresses.length);
+            for (int i = 0; i < addresses.length; i++) {
+                output.writeInt(addresses[i]);
+                output.writeInt(ends[i] - addresses[i]);
+                output.writeInt(fileIndices[i]);
+                output.writeInt(lines[i]);
+            }
+        }
+    }
+
+    /**
+     * Loads a map from a file.
+     *
+     * @param file debug map file
+     * @return debug map
+     * @throws IOException if the file cannot be read or it is not a debug map file
+     */
+    public static DebugMap load(Path file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a debug map file");
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported debug map version: " + version);
+            }
+            int fileCount = input.readInt();
+            if (fileCount < 0) {
+                throw new IOException("Invalid number of files: " + fileCount);
+            }
+            List<String> files = new ArrayList<>();
+            for (int i = 0; i < fileCount; i++) {
+                files.add(input.readUTF());
+            }
+            int count = input.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid number of entries: " + count);
+            }
+            Builder builder = new Builder();
+            for (int i = 0; i < count; i++) {
+                int address = input.readInt();
+                int length = input.readInt();
+                int fileIndex = input.readInt();
+                int line = input.readInt();
+                if (fileIndex < 0 || fileIndex >= files.size()) {
+                    throw new IOException("Invalid file index: " + fileIndex);
+                }
+                builder.add(address, length, files.get(fileIndex), line);
+            }
+            return builder.build();
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid debug map entry: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Source file and line.
+     */
+    @Immutable
+    public static final class SourceLocation {
+        private final String file;
+        private final int line;
+
+        /**
+         * Creates new source location.
+         *
+         * @param file source file name
+         * @param line source line
+         */
+        public SourceLocation(String file, int line) {
+            this.file = Objects.requireNonNull(file);
+            this.line = line;
+        }
+
+        /**
+         * Get source file name.
+         *
+         * @return source file name
+         */
+        public String getFile() {
+            return file;
+        }
+
+        /**
+         * Get source line.
+         *
+         * @return source line
+         */
+        public int getLine() {
+            return line;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SourceLocation that = (SourceLocation) o;
+            return line == that.line && file.equals(that.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(file, line);
+        }
+
+        @Override
+        public String toString() {
+            return file + ":" + line;
+        }
+    }
+
+    /**
+     * Builder of debug map. Entries can be added in any order; they must not overlap.
+     */
+    @NotThreadSafe
+    public static class Builder {
+        private final List<String> files = new ArrayList<>();
+        private final Map<String, Integer> fileIndices = new HashMap<>();
+        private int[] addresses = new int[64];
+        private int[] lengths = new int[64];
+        private int[] entryFiles = new int[64];
+        private int[] lines = new int[64];
+        private int size;
+
+        /**
+         * Adds new entry.
+         *
+         * @param address start address of the code
+         * @param length  code length (must be &gt; 0; the end address must not exceed {@link Integer#MAX_VALUE})
+         * @param file    source file name
+         * @param line    source line
+         * @return this builder
+         */
+        public Builder add(int address, int length, String file, int line) {
+            if (length <= 0) {
+                throw new IllegalArgumentException("Code length must be > 0");
+            }
+            if ((long) address + length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(String.format("Entry at %04X is too long: %d", address, length));
+            }
+            int fileIndex = fileIndices.computeIfAbsent(Objects.requireNonNull(file), f -> {
+                files.add(f);
+                return files.size() - 1;
+            });
+            if (size == addresses.length) {
+                addresses = Arrays.copyOf(addresses, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                entryFiles = Arrays.copyOf(entryFiles, size * 2);
+                lines = Arrays.copyOf(lines, size * 2);
+            }
+            addresses[size] = address;
+            lengths[size] = length;
+            entryFiles[size] = fileIndex;
+            lines[size] = line;
+            size++;
+            return this;
+        }
+
+        /**
+         * Builds the debug map.
+         *
+         * @return new debug map
+         * @throws IllegalArgumentException if some entries overlap
+         */
+        public DebugMap build() {
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) addresses[i] << 32) | i;
+            }
+            Arrays.sort(order);
+
+            int[] sortedAddresses = new int[size];
+            int[] sortedEnds = new int[size];
+            int[] sortedFiles = new int[size];
+            int[] sortedLines = new int[size];
+            for (int i = 0; i < size; i++) {
+                int entry = (int) order[i];
+                sortedAddresses[i] = addresses[entry];
+                sortedEnds[i] = addresses[entry] + lengths[entry];
+                sortedFiles[i] = entryFiles[entry];
+                sortedLines[i] = lines[entry];
+                if (i > 0 && sortedAddresses[i] < sortedEnds[i - 1]) {
+                    throw new IllegalArgumentException(String.format("Entry at %04X overlaps", sortedAddresses[i]));
+                }
+            }
+            return new DebugMap(new ArrayList<>(files), sortedAddresses, sortedEnds, sortedFiles, sortedLines);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Incremental lexing helper, e.g. for editor syntax highlighting.
+ * <p>
+ * Keeps tokens of a document in a {@link TokenBuffer}, together with lexer state checkpoints - at most one per line
+ * (at the first token boundary after a new line). After an edit, lexing restarts from the nearest checkpoint before
+ * the edit and stops as soon as it reaches a checkpoint after the edit with the same lexer state as before; the rest
+ * of the tokens is reused, only shifted.
+ * <p>
+ * The lexer must support incremental lexing (see {@link LexicalAnalyzer#isIncrementalSupported()}), and tokens must
+ * not depend on text beyond the next line break.
+ */
+@NotThreadSafe
+public class IncrementalLexer {
+    private final LexicalAnalyzer lexer;
+
+    private String text = "";
+    private TokenBuffer tokens = new TokenBuffer("", 0);
+    private Checkpoints checkpoints = new Checkpoints(0);
+    private int relexedStart;
+    private int relexedEnd;
+    private int relexedTokens;
+
+    /**
+     * Creates new incremental lexer.
+     *
+     * @param lexer lexer supporting incremental lexing
+     */
+    public IncrementalLexer(LexicalAnalyzer lexer) {
+        this.lexer = Objects.requireNonNull(lexer);
+        if (!lexer.isIncrementalSupported()) {
+            throw new IllegalArgumentException("Lexer does not support incremental lexing");
+        }
+    }
+
+    /**
+     * Lexes whole document.
+     *
+     * @param text document text
+     * @return tokens of the document
+     */
+    public TokenBuffer lex(String text) {
+        this.text = Objects.requireNonNull(text);
+        lexer.reset(text);
+        Checkpoints initial = new Checkpoints(16);
+        initial.add(0, lexer.getState(), 0);
+        relex(text, initial, 0, new TokenBuffer(text), Integer.MAX_VALUE, 0);
+        return tokens;
+    }
+
+    /**
+     * Re-lexes the document after an edit.
+     *
+     * @param newText        document text after the edit
+     * @param offset         offset where the edit starts
+     * @param removedLength  number of removed characters (from the old text)
+     * @param insertedLength number of inserted characters (into the new text)
+     * @return tokens of the new document
+     */
+    public TokenBuffer edit(String newText, int offset, int removedLength, int insertedLength) {
+        Objects.requireNonNull(newText);
+        if (offset < 0 || removedLength < 0 || insertedLength < 0 || offset + removedLength > text.length()
+                || text.length() - removedLength + insertedLength != newText.length()) {
+            throw new IllegalArgumentException("Edit does not match the document");
+        }
+        int start = checkpoints.lastBefore(offset);
+        int startOffset = checkpoints.offsets[start];
+
+        TokenBuffer newTokens = new TokenBuffer(newText, tokens.size() + 16);
+        for (int i = 0; i < checkpoints.tokens[start]; i++) {
+            newTokens.add(tokens.getType(i), tokens.getOffset(i), tokens.getLength(i));
+        }
+        Checkpoints newCheckpoints = new Checkpoints(checkpoints.size + 16);
+        for (int i = 0; i <= start; i++) {
+            newCheckpoints.add(checkpoints.offsets[i], checkpoints.states[i], checkpoints.tokens[i]);
+        }
+
+        text = newText;
+        lexer.reset(newText, startOffset, checkpoints.states[start]);
+        relex(newText, newCheckpoints, startOffset, newTokens, offset + insertedLength, insertedLength - removedLength);
+        return tokens;
+    }
+
+    /**
+     * Get current tokens.
+     *
+     * @return tokens of the document
+     */
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Get start of the region re-lexed by the last operation.
+     *
+     * @return start offset in the current text
+     */
+    public int getRelexedStart() {
+        return relexedStart;
+    }
+
+    /**
+     * Get end of the region re-lexed by the last operation. Tokens after it were reused.
+     *
+     * @return end offset (exclusive) in the current text
+     */
+    public int getRelexedEnd() {
+        return relexedEnd;
+    }
+
+    /**
+     * Get number of tokens produced by the lexer in the last operation.
+     *
+     * @return number of re-lexed tokens
+     */
+    public int getRelexedTokens() {
+        return relexedTokens;
+    }
+
+    // lexer is already positioned at startOffset; resync is possible at boundaries >= editEnd (in the new text)
+    private void relex(String newText, Checkpoints newCheckpoints, int startOffset, TokenBuffer newTokens,
+                       int editEnd, int delta) {
+        int scanned = startOffset;
+        boolean newLine = false;
+        int lexed = 0;
+
+        while (lexer.hasNext()) {
+            Token token = lexer.next();
+            if (token.getType() == Token.EOF) {
+                break;
+            }
+            lexed++;
+            int end = token.getOffset() + token.getText().length();
+            newTokens.add(token.getType(), token.getOffset(), token.getText().length());
+            for (; scanned < end; scanned++) {
+                newLine |= (newText.charAt(scanned) == '\n');
+            }
+            if (!newLine) {
+                continue;
+            }
+            newLine = false;
+            int state = lexer.getState();
+            if (end >= editEnd) {
+                int old = checkpoints.find(end - delta);
+                if (old >= 0 && checkpoints.states[old] == state) {
+                    reuse(old, newCheckpoints, newTokens, delta);
+                    finish(newTokens, newCheckpoints, startOffset, end, lexed);
+                    return;
+                }
+            }
+            newCheckpoints.add(end, state, newTokens.size());
+        }
+        finish(newTokens, newCheckpoints, startOffset, newText.length(), lexed);
+    }
+
+    private void reuse(int old, Checkpoints newCheckpoints, TokenBuffer newTokens, int delta) {
+        int tokenShift = newTokens.size() - checkpoints.tokens[old];
+        for (int i = old; i < checkpoints.size; i++) {
+            newCheckpoints.add(checkpoints.offsets[i] + delta, checkpoints.states[i], checkpoints.tokens[i] + tokenShift);
+        }
+        for (int i = checkpoints.tokens[old]; i < tokens.size(); i++) {
+            newTokens.add(tokens.getType(i), tokens.getOffset(i) + delta, tokens.getLength(i));
+        }
+    }
+
+    private void finish(TokenBuffer newTokens, Checkpoints newCheckpoints, int start, int end, int lexed) {
+        tokens = newTokens;
+        checkpoints = newCheckpoints;
+        relexedStart = start;
+        relexedEnd = end;
+        relexedTokens = lexed;
+    }
+
+    private static final class Checkpoints {
+        private int[] offsets;
+        private int[] states;
+        private int[] tokens;
+        private int size;
+
+        Checkpoints(int capacity) {
+            offsets = new int[Math.max(1, capacity)];
+            states = new int[offsets.length];
+            tokens = new int[offsets.length];
+        }
+
+        void add(int offset, int state, int token) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                states = Arrays.copyOf(states, size * 2);
+                tokens = Arrays.copyOf(tokens, size * 2);
+            }
+            offsets[size] = offset;
+            states[size] = state;
+            tokens[size] = token;
+            size++;
+        }
+
+        // index of the checkpoint at exactly given offset, or -1
+        int find(int offset) {
+            int index = Arrays.binarySearch(offsets, 0, size, offset);
+            return (index >= 0) ? index : -1;
+        }
+
+        // index of the last checkpoint before given offset; the first checkpoint (at offset 0) if none
+        int lastBefore(int offset) {
+            int index = Arrays.binarySearch(offsets, 0, size, offset);
+            int insertion = (index >= 0) ? index : -index - 1;
+            return Math.max(0, insertion - 1);
+        }
+    }
+}
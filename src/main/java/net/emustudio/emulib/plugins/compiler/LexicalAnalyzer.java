@@ -22,9 +22,12 @@ import net.jcip.annotations.NotThreadSafe;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Lexical analyzer.
@@ -65,12 +68,96 @@ public interface LexicalAnalyzer extends Iterable<Token> {
      */
     void reset(String input);
 
+    /**
+     * Determines if this lexer supports incremental lexing, i.e. it can save its state and resume lexing from
+     * a saved state (see {@link #getState()} and {@link #reset(String, int, int)}).
+     * <p>
+     * Incremental lexing is used by editors for re-lexing only the edited part of a document. A helper
+     * implementation is {@link IncrementalLexer}.
+     *
+     * @return true if incremental lexing is supported; false by default
+     */
+    default boolean isIncrementalSupported() {
+        return false;
+    }
+
+    /**
+     * Get lexer state at the current position, right after the last returned token.
+     * <p>
+     * The state encodes everything the lexer needs to resume at this position (e.g. "inside multi-line comment"
+     * or "inside macro definition"). States are compared by value: two equal states at the same position of the same
+     * text must produce the same tokens.
+     *
+     * @return lexer state; the initial state (after {@link #reset(String)}) is implementation-specific
+     * @throws UnsupportedOperationException if incremental lexing is not supported
+     */
+    default int getState() {
+        throw new UnsupportedOperationException("Incremental lexing is not supported");
+    }
+
+    /**
+     * Reset this lexical analyzer with new input and resume lexing at given position in given state.
+     * <p>
+     * Offsets of returned tokens are relative to the beginning of the input.
+     *
+     * @param input  program source code
+     * @param offset position where lexing resumes
+     * @param state  lexer state at the position, as previously returned by {@link #getState()}
+     * @throws UnsupportedOperationException if incremental lexing is not supported
+     */
+    default void reset(String input, int offset, int state) {
+        throw new UnsupportedOperationException("Incremental lexing is not supported");
+    }
+
+    /**
+     * Get lazy iterator of the remaining tokens.
+     * <p>
+     * Tokens are pulled from this lexer on demand, so the iterator shares position with the lexer: calling
+     * {@link #next()} or {@link #reset(String)} directly affects the iteration.
+     *
+     * @return iterator of the remaining tokens
+     */
     @Override
     default Iterator<Token> iterator() {
-        List<Token> tokens = new ArrayList<>();
-        while (hasNext()) {
-            tokens.add(next());
-        }
-        return tokens.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return LexicalAnalyzer.this.hasNext();
+            }
+
+            @Override
+            public Token next() {
+                if (!LexicalAnalyzer.this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return LexicalAnalyzer.this.next();
+            }
+        };
+    }
+
+    /**
+     * Get lazy spliterator of the remaining tokens.
+     * <p>
+     * The spliterator is ordered, does not know its size and does not split well (the lexer is sequential).
+     *
+     * @return spliterator of the remaining tokens
+     * @see #iterator()
+     */
+    @Override
+    default Spliterator<Token> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * Get lazy sequential stream of the remaining tokens.
+     * <p>
+     * Tokens are pulled from this lexer on demand, so short-circuiting operations (e.g.
+     * {@link Stream#findFirst()}, {@link Stream#limit(long)}) do not lex the rest of the input.
+     *
+     * @return stream of the remaining tokens
+     * @see #iterator()
+     */
+    default Stream<Token> stream() {
+        return StreamSupport.stream(spliterator(), false);
     }
 }
@@ -0,0 +1,205 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.emustudio.emulib.plugins.compiler.CompilerMessage.MessageType;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Batched asynchronous delivery of compiler events, used by {@link AbstractCompiler}.
+ * <p>
+ * Messages are accumulated and delivered to listeners in batches on an executor. Events (start, batches, finish)
+ * are delivered one at a time in the order they were reported, even if the executor has multiple threads.
+ * Repeated messages (the same type and text) and the total number of messages can be capped; the number of
+ * suppressed messages is reported at the end of compilation. If the executor rejects the delivery, events are
+ * delivered on the reporting thread.
+ */
+@ThreadSafe
+class MessageBatcher {
+    private final static Logger LOGGER = LoggerFactory.getLogger(MessageBatcher.class);
+
+    private final Set<CompilerListener> listeners;
+    private final Executor executor;
+    private final int batchSize;
+    private final int maxRepeats;
+    private final int maxMessages;
+
+    private final Queue<Runnable> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Map<String, AtomicInteger> repeats = new ConcurrentHashMap<>();
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicInteger suppressed = new AtomicInteger();
+
+    // guarded by "this"; events are added under the same lock, so batches keep their order
+    private List<CompilerMessage> pending = new ArrayList<>();
+
+    /**
+     * Creates new message batcher.
+     *
+     * @param listeners   compiler listeners
+     * @param executor    executor delivering events
+     * @param batchSize   number of messages in a batch
+     * @param maxRepeats  maximal number of messages with the same type and text; 0 for unlimited
+     * @param maxMessages maximal number of messages in one compilation; 0 for unlimited
+     */
+    MessageBatcher(Set<CompilerListener> listeners, Executor executor, int batchSize, int maxRepeats,
+                   int maxMessages) {
+        if (batchSize <= 0 || maxRepeats < 0 || maxMessages < 0) {
+            throw new IllegalArgumentException("Invalid batching limits");
+        }
+        this.listeners = Objects.requireNonNull(listeners);
+        this.executor = Objects.requireNonNull(executor);
+        this.batchSize = batchSize;
+        this.maxRepeats = maxRepeats;
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Determines if a message passes the caps. Must be called exactly once per message, before {@link #add}.
+     *
+     * @param type    message type
+     * @param message message text
+     * @return true if the message should be delivered; false if it is suppressed
+     */
+    boolean admit(MessageType type, String message) {
+        if (maxRepeats > 0) {
+            String key = type.ordinal() + ":" + message;
+            if (repeats.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet() > maxRepeats) {
+                suppressed.incrementAndGet();
+                return false;
+            }
+        }
+        if (maxMessages > 0 && admitted.incrementAndGet() > maxMessages) {
+            suppressed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    void start() {
+        repeats.clear();
+        admitted.set(0);
+        suppressed.set(0);
+        enqueue(() -> forEachListener(CompilerListener::onStart));
+    }
+
+    void add(CompilerMessage message) {
+        synchronized (this) {
+            pending.add(message);
+            if (pending.size() < batchSize) {
+                return;
+            }
+            events.add(batchEvent());
+        }
+        scheduleDrain();
+    }
+
+    void flush() {
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            events.add(batchEvent());
+        }
+        scheduleDrain();
+    }
+
+    void finish() {
+        int count = suppressed.getAndSet(0);
+        if (count > 0) {
+            add(new CompilerMessage(MessageType.TYPE_INFO, count + " similar or excessive message(s) suppressed"));
+        }
+        flush();
+        enqueue(() -> forEachListener(CompilerListener::onFinish));
+    }
+
+    /**
+     * Get a future completed when all events reported so far have been delivered.
+     *
+     * @return future completed after delivery of all previous events
+     */
+    CompletableFuture<Void> delivered() {
+        CompletableFuture<Void> delivered = new CompletableFuture<>();
+        enqueue(() -> delivered.complete(null));
+        return delivered;
+    }
+
+    // guarded by "this"
+    private Runnable batchEvent() {
+        List<CompilerMessage> batch = List.copyOf(pending);
+        pending = new ArrayList<>(batchSize);
+        return () -> forEachListener(listener -> listener.onMessages(batch));
+    }
+
+    private void forEachListener(Consumer<CompilerListener> action) {
+        for (CompilerListener listener : listeners) {
+            try {
+                action.accept(listener);
+            } catch (RuntimeException e) {
+                LOGGER.error("Compiler listener error", e);
+            }
+        }
+    }
+
+    private void enqueue(Runnable event) {
+        synchronized (this) {
+            events.add(event);
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // executor was shut down; deliver on the caller's thread rather than keeping events forever
+                drain();
+            }
+        }
+    }
+
+    private void drain() {
+        Runnable event;
+        while ((event = events.poll()) != null) {
+            event.run();
+        }
+        draining.set(false);
+        if (!events.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Reusable preprocessing stage working on token streams of a {@link LexicalAnalyzer}.
+ * <p>
+ * The preprocessor expands includes and macros. Language-specific parts - recognizing directives (tokens of type
+ * {@link Token#PREPROCESSOR}) and parsing macro arguments - are provided by the compiler as a {@link Syntax}.
+ * A macro is invoked by an {@link Token#IDENTIFIER} token with the macro name; in its body, identifiers equal to
+ * parameter names are replaced by the arguments, and the result is preprocessed again (so macros can use other
+ * macros).
+ * <p>
+ * Work is memoized: included files are lexed once per distinct content (by SHA-256 hash), and expansions of a macro
+ * with the same arguments (types and texts of their tokens) are computed once (until any macro is defined again).
+ * A memoized expansion is a template; each call fills it with its own argument tokens. Recursive includes and macro
+ * expansions are detected and reported by {@link PreprocessorException}.
+ * <p>
+ * Output tokens are the original tokens (of the source file, included files, macro bodies or arguments), so their
+ * offsets refer to the text they come from. EOF tokens are not included.
+ */
+@NotThreadSafe
+public class Preprocessor {
+    /**
+     * Maximal depth of nested includes and macro expansions.
+     */
+    public final static int MAX_DEPTH = 64;
+
+    private final Supplier<LexicalAnalyzer> lexers;
+    private final Syntax syntax;
+
+    private final Map<String, List<Token>> lexedFiles = new HashMap<>();
+    private final Map<String, Macro> macros = new HashMap<>();
+    private final Map<String, Expansion> expansions = new HashMap<>();
+
+    private final Deque<Path> includeStack = new ArrayDeque<>();
+    private final Set<String> expansionStack = new LinkedHashSet<>();
+    private final DirectivesImpl directives = new DirectivesImpl();
+
+    /**
+     * Language-specific syntax of preprocessor directives and macro calls.
+     */
+    public interface Syntax {
+
+        /**
+         * Processes a directive starting at given {@link Token#PREPROCESSOR} token.
+         *
+         * @param tokens     tokens
+         * @param index      index of the preprocessor token
+         * @param directives actions of the preprocessor (include, define)
+         * @return number of consumed tokens (the directive is removed from the output); or 0 if the token is not
+         * a directive handled by the preprocessor (it is kept in the output)
+         * @throws IOException           if an included file cannot be read
+         * @throws PreprocessorException if the directive is invalid
+         */
+        int directive(List<Token> tokens, int index, Directives directives) throws IOException, PreprocessorException;
+
+        /**
+         * Parses arguments of a macro call.
+         * <p>
+         * By default, arguments are all tokens until the end of line, separated by "," tokens. Whitespace around
+         * arguments is removed. The end of line itself is not consumed.
+         *
+         * @param tokens tokens
+         * @param index  index of the token following the macro name
+         * @return parsed arguments
+         * @throws PreprocessorException if the arguments are invalid
+         */
+        default Arguments arguments(List<Token> tokens, int index) throws PreprocessorException {
+            List<List<Token>> values = new ArrayList<>();
+            List<Token> current = new ArrayList<>();
+            int i = index;
+            for (; i < tokens.size(); i++) {
+                Token token = tokens.get(i);
+                if (token.getType() == Token.EOF || token.getText().indexOf('\n') >= 0) {
+                    break;
+                }
+                if (token.getText().equals(",")) {
+                    values.add(trim(current));
+                    current = new ArrayList<>();
+                } else {
+                    current.add(token);
+                }
+            }
+            List<Token> last = trim(current);
+            if (!last.isEmpty() || !values.isEmpty()) {
+                values.add(last);
+            }
+            return new Arguments(values, i - index);
+        }
+
+        private static List<Token> trim(List<Token> tokens) {
+            int from = 0;
+            int to = tokens.size();
+            while (from < to && tokens.get(from).getType() == Token.WHITESPACE) {
+                from++;
+            }
+            while (to > from && tokens.get(to - 1).getType() == Token.WHITESPACE) {
+                to--;
+            }
+            return tokens.subList(from, to);
+        }
+    }
+
+    /**
+     * Actions of the preprocessor, used by {@link Syntax#directive(List, int, Directives)}.
+     */
+    public interface Directives {
+
+        /**
+         * Preprocesses a file and emits its tokens in place of the directive.
+         *
+         * @param fileName file name; relative names are resolved against the directory of the current file
+         * @throws IOException           if the file cannot be read
+         * @throws PreprocessorException if the include is recursive or the file cannot be preprocessed
+         */
+        void include(String fileName) throws IOException, PreprocessorException;
+
+        /**
+         * Defines (or redefines) a macro.
+         *
+         * @param name       macro name
+         * @param parameters names of parameters
+         * @param body       macro body
+         */
+        void define(String name, List<String> parameters, List<Token> body);
+    }
+
+    /**
+     * Parsed arguments of a macro call.
+     */
+    public static final class Arguments {
+        private final List<List<Token>> values;
+        private final int consumed;
+
+        /**
+         * Creates parsed arguments.
+         *
+         * @param values   tokens of each argument
+         * @param consumed number of tokens consumed by the arguments
+         */
+        public Arguments(List<List<Token>> values, int consumed) {
+            this.values = Objects.requireNonNull(values);
+            this.consumed = consumed;
+        }
+
+        /**
+         * Get arguments.
+         *
+         * @return tokens of each argument
+         */
+        public List<List<Token>> getValues() {
+            return values;
+        }
+
+        /**
+         * Get number of consumed tokens.
+         *
+         * @return number of tokens consumed by the arguments
+         */
+        public int getConsumed() {
+            return consumed;
+        }
+    }
+
+    /**
+     * Creates new preprocessor.
+     *
+     * @param lexers factory of lexers used for lexing files (e.g. {@link Compiler#createLexer()})
+     * @param syntax language-specific syntax
+     */
+    public Preprocessor(Supplier<LexicalAnalyzer> lexers, Syntax syntax) {
+        this.lexers = Objects.requireNonNull(lexers);
+        this.syntax = Objects.requireNonNull(syntax);
+    }
+
+    /**
+     * Preprocesses a file.
+     *
+     * @param file source file
+     * @return preprocessed tokens
+     * @throws IOException           if the file or an included file cannot be read
+     * @throws PreprocessorException if preprocessing fails
+     */
+    public List<Token> process(Path file) throws IOException, PreprocessorException {
+        List<Token> output = new ArrayList<>();
+        processFile(file.toAbsolutePath().normalize(), output);
+        return output;
+    }
+
+    /**
+     * Preprocesses a source.
+     *
+     * @param source source code
+     * @param file   source file name, used for resolving relative includes
+     * @return preprocessed tokens
+     * @throws IOException           if an included file cannot be read
+     * @throws PreprocessorException if preprocessing fails
+     */
+    public List<Token> process(String source, Path file) throws IOException, PreprocessorException {
+        List<Token> output = new ArrayList<>();
+        Path normalized = file.toAbsolutePath().normalize();
+        includeStack.push(normalized);
+        try {
+            processTokens(lex(source), output);
+        } finally {
+            includeStack.pop();
+        }
+        return output;
+    }
+
+    /**
+     * Defines (or redefines) a macro.
+     *
+     * @param name       macro name
+     * @param parameters names of parameters
+     * @param body       macro body
+     */
+    public void define(String name, List<String> parameters, List<Token> body) {
+        macros.put(Objects.requireNonNull(name), new Macro(List.copyOf(parameters), List.copyOf(body)));
+        expansions.clear();
+    }
+
+    /**
+     * Determines if a macro is defined.
+     *
+     * @param name macro name
+     * @return true if the macro is defined
+     */
+    public boolean isDefined(String name) {
+        return macros.containsKey(name);
+    }
+
+    /**
+     * Removes all macro definitions and memoized expansions. Memoized lexed files are kept.
+     */
+    public void reset() {
+        macros.clear();
+        expansions.clear();
+    }
+
+    private void processFile(Path file, List<Token> output) throws IOException, PreprocessorException {
+        if (includeStack.contains(file)) {
+            throw new PreprocessorException("Recursive include: " + file);
+        }
+        checkDepth();
+        String source = Files.readString(file, StandardCharsets.UTF_8);
+        includeStack.push(file);
+        try {
+            processTokens(lex(source), output);
+        } finally {
+            includeStack.pop();
+        }
+    }
+
+    private List<Token> lex(String source) {
+        String hash = hash(source);
+        List<Token> tokens = lexedFiles.get(hash);
+        if (tokens == null) {
+            LexicalAnalyzer lexer = lexers.get();
+            lexer.reset(source);
+            List<Token> lexed = new ArrayList<>();
+            while (lexer.hasNext()) {
+                Token token = lexer.next();
+                if (token.getType() != Token.EOF) {
+                    lexed.add(token);
+                }
+            }
+            tokens = Collections.unmodifiableList(lexed);
+            lexedFiles.put(hash, tokens);
+        }
+        return tokens;
+    }
+
+    private void processTokens(List<Token> tokens, List<Token> output) throws IOException, PreprocessorException {
+        int i = 0;
+        while (i < tokens.size()) {
+            Token token = tokens.get(i);
+            int type = token.getType();
+            if (type == Token.PREPROCESSOR) {
+                List<Token> previousOutput = directives.output;
+                directives.output = output;
+                int consumed;
+                try {
+                    consumed = syntax.directive(tokens, i, directives);
+                } finally {
+                    directives.output = previousOutput;
+                }
+                if (consumed > 0) {
+                    i += consumed;
+                    continue;
+                }
+            } else if (type == Token.IDENTIFIER) {
+                Macro macro = macros.get(token.getText());
+                if (macro != null) {
+                    Arguments arguments = macro.parameters.isEmpty()
+                            ? new Arguments(List.of(), 0)
+                            : syntax.arguments(tokens, i + 1);
+                    output.addAll(expand(token.getText(), macro, arguments.getValues()));
+                    i += 1 + arguments.getConsumed();
+                    continue;
+                }
+            }
+            if (type != Token.EOF) {
+                output.add(token);
+            }
+            i++;
+        }
+    }
+
+    private List<Token> expand(String name, Macro macro, List<List<Token>> arguments)
+            throws IOException, PreprocessorException {
+        if (arguments.size() != macro.parameters.size()) {
+            throw new PreprocessorException("Macro " + name + " expects " + macro.parameters.size()
+                    + " argument(s), but got " + arguments.size());
+        }
+        // token texts are prefixed by type and length, so the key is unambiguous
+        StringBuilder key = new StringBuilder(name);
+        for (List<Token> argument : arguments) {
+            key.append('\u0000');
+            for (Token token : argument) {
+                String text = token.getText();
+                key.append(token.getType()).append(',').append(text.length()).append(':').append(text);
+            }
+        }
+        String expansionKey = key.toString();
+        Expansion expansion = expansions.get(expansionKey);
+        if (expansion != null) {
+            return expansion.instantiate(arguments);
+        }
+
+        List<Token> result = new ArrayList<>();
+        if (!expansionStack.add(name)) {
+            throw new PreprocessorException("Recursive macro expansion: " + String.join(" -> ", expansionStack)
+                    + " -> " + name);
+        }
+        try {
+            checkDepth();
+            List<Token> substituted = new ArrayList<>();
+            for (Token token : macro.body) {
+                int parameter = (token.getType() == Token.IDENTIFIER) ? macro.parameters.indexOf(token.getText()) : -1;
+                if (parameter >= 0) {
+                    substituted.addAll(arguments.get(parameter));
+                } else {
+                    substituted.add(token);
+                }
+            }
+            processTokens(substituted, result);
+            expansion = new Expansion(result, arguments);
+        } finally {
+            expansionStack.remove(name);
+        }
+        expansions.put(expansionKey, expansion);
+        return result;
+    }
+
+    private void checkDepth() throws PreprocessorException {
+        if (includeStack.size() + expansionStack.size() > MAX_DEPTH) {
+            throw new PreprocessorException("Includes or macro expansions are nested too deep");
+        }
+    }
+
+    private static String hash(String source) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static final class Macro {
+        private final List<String> parameters;
+        private final List<Token> body;
+
+        private Macro(List<String> parameters, List<Token> body) {
+            this.parameters = parameters;
+            this.body = body;
+        }
+    }
+
+    // Expanded macro, in which tokens coming from arguments are replaced by references to argument tokens
+    private static final class Expansion {
+        private final Token[] tokens;
+        private final int[] argumentIndexes; // -1 if the token does not come from an argument
+        private final int[] tokenIndexes;
+
+        private Expansion(List<Token> result, List<List<Token>> arguments) {
+            Map<Token, int[]> argumentTokens = new IdentityHashMap<>();
+            for (int i = 0; i < arguments.size(); i++) {
+                List<Token> argument = arguments.get(i);
+                for (int j = 0; j < argument.size(); j++) {
+                    argumentTokens.put(argument.get(j), new int[]{i, j});
+                }
+            }
+            this.tokens = new Token[result.size()];
+            this.argumentIndexes = new int[tokens.length];
+            this.tokenIndexes = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                int[] reference = argumentTokens.get(result.get(i));
+                if (reference == null) {
+                    tokens[i] = result.get(i);
+                    argumentIndexes[i] = -1;
+                } else {
+                    argumentIndexes[i] = reference[0];
+                    tokenIndexes[i] = reference[1];
+                }
+            }
+        }
+
+        private List<Token> instantiate(List<List<Token>> arguments) {
+            List<Token> result = new ArrayList<>(tokens.length);
+            for (int i = 0; i < tokens.length; i++) {
+                int argument = argumentIndexes[i];
+                result.add((argument < 0) ? tokens[i] : arguments.get(argument).get(tokenIndexes[i]));
+            }
+            return result;
+        }
+    }
+
+    private final class DirectivesImpl implements Directives {
+        // output of the currently processed directive
+        private List<Token> output;
+
+        @Override
+        public void include(String fileName) throws IOException, PreprocessorException {
+            Path current = includeStack.peek();
+            Path base = (current == null) ? null : current.getParent();
+            Path file = (base == null) ? Path.of(fileName) : base.resolve(fileName);
+            processFile(file.toAbsolutePath().normalize(), output);
+        }
+
+        @Override
+        public void define(String name, List<String> parameters, List<Token> body) {
+            Preprocessor.this.define(name, parameters, body);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+/**
+ * An exception representing an unsuccessful preprocessing (e.g. recursive macro expansion or include).
+ */
+@SuppressWarnings("unused")
+public class PreprocessorException extends Exception {
+
+    public PreprocessorException(String message) {
+        super(message);
+    }
+
+    public PreprocessorException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Compact columnar buffer of tokens.
+ * <p>
+ * A high-throughput alternative to {@link Token} objects. Tokens are stored in parallel <code>int</code> arrays
+ * (type, offset and length) over a shared source text; no object is allocated per token. Token text is materialized
+ * only on request by {@link #getText(int)}; it can be compared with {@link #textEquals(int, CharSequence)} without
+ * materializing.
+ * <p>
+ * Token types are the constants defined in {@link Token}. Tokens are addressed by their index in the buffer; they
+ * should be added in increasing order of offsets (as a lexer produces them), so {@link #indexOf(int)} can find
+ * them by binary search.
+ */
+@NotThreadSafe
+public class TokenBuffer {
+    private final static int DEFAULT_CAPACITY = 1024;
+
+    private CharSequence source;
+    private int[] types;
+    private int[] offsets;
+    private int[] lengths;
+    private int size;
+
+    /**
+     * Creates new empty token buffer.
+     *
+     * @param source source text the tokens refer to
+     */
+    public TokenBuffer(CharSequence source) {
+        this(source, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates new empty token buffer.
+     *
+     * @param source          source text the tokens refer to
+     * @param initialCapacity initial number of tokens the buffer can hold without growing
+     */
+    public TokenBuffer(CharSequence source, int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Initial capacity must be >= 0");
+        }
+        this.source = Objects.requireNonNull(source);
+        this.types = new int[initialCapacity];
+        this.offsets = new int[initialCapacity];
+        this.lengths = new int[initialCapacity];
+    }
+
+    /**
+     * Creates token buffer from the remaining tokens of a lexer.
+     * <p>
+     * Token lengths are taken from token texts. The EOF token is not added.
+     *
+     * @param lexer  lexer, already reset with the source
+     * @param source source text the lexer analyzes
+     * @return new token buffer
+     */
+    public static TokenBuffer of(LexicalAnalyzer lexer, CharSequence source) {
+        TokenBuffer buffer = new TokenBuffer(source);
+        while (lexer.hasNext()) {
+            Token token = lexer.next();
+            if (token.getType() != Token.EOF) {
+                buffer.add(token.getType(), token.getOffset(), token.getText().length());
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Adds new token.
+     *
+     * @param type   token type
+     * @param offset 0-based offset of the token in the source text
+     * @param length token length in characters
+     * @return index of the added token
+     */
+    public int add(int type, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > source.length()) {
+            throw new IndexOutOfBoundsException("Token out of source bounds: offset=" + offset + ", length=" + length);
+        }
+        if (size == types.length) {
+            int newCapacity = Math.max(16, size * 2);
+            types = Arrays.copyOf(types, newCapacity);
+            offsets = Arrays.copyOf(offsets, newCapacity);
+            lengths = Arrays.copyOf(lengths, newCapacity);
+        }
+        types[size] = type;
+        offsets[size] = offset;
+        lengths[size] = length;
+        return size++;
+    }
+
+    /**
+     * Removes all tokens and sets new source text. Allocated capacity is kept.
+     *
+     * @param source new source text
+     */
+    public void reset(CharSequence source) {
+        this.source = Objects.requireNonNull(source);
+        this.size = 0;
+    }
+
+    /**
+     * Get source text.
+     *
+     * @return source text
+     */
+    public CharSequence getSource() {
+        return source;
+    }
+
+    /**
+     * Get number of tokens.
+     *
+     * @return number of tokens
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get token type.
+     *
+     * @param index token index
+     * @return token type
+     */
+    public int getType(int index) {
+        return types[checkIndex(index)];
+    }
+
+    /**
+     * Get token offset.
+     *
+     * @param index token index
+     * @return 0-based offset of the token in the source text
+     */
+    public int getOffset(int index) {
+        return offsets[checkIndex(index)];
+    }
+
+    /**
+     * Get token length.
+     *
+     * @param index token index
+     * @return token length in characters
+     */
+    public int getLength(int index) {
+        return lengths[checkIndex(index)];
+    }
+
+    /**
+     * Get offset following the last character of the token.
+     *
+     * @param index token index
+     * @return end offset (exclusive)
+     */
+    public int getEndOffset(int index) {
+        return offsets[checkIndex(index)] + lengths[index];
+    }
+
+    /**
+     * Get token text. The text is materialized on every call.
+     *
+     * @param index token index
+     * @return token text
+     */
+    public String getText(int index) {
+        checkIndex(index);
+        return source.subSequence(offsets[index], offsets[index] + lengths[index]).toString();
+    }
+
+    /**
+     * Compare token text with given text, without materializing the token text.
+     *
+     * @param index token index
+     * @param text  text to compare
+     * @return true if the token text is equal to the given text
+     */
+    public boolean textEquals(int index, CharSequence text) {
+        return regionEquals(index, text, false);
+    }
+
+    /**
+     * Compare token text with given text ignoring case, without materializing the token text.
+     *
+     * @param index token index
+     * @param text  text to compare
+     * @return true if the token text is equal to the given text, ignoring case
+     */
+    public boolean textEqualsIgnoreCase(int index, CharSequence text) {
+        return regionEquals(index, text, true);
+    }
+
+    /**
+     * Find token containing given source offset.
+     *
+     * @param offset 0-based offset in the source text
+     * @return index of the token containing the offset; or -1 if no token contains it
+     */
+    public int indexOf(int offset) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (offsets[middle] > offset) {
+                high = middle - 1;
+            } else if (offsets[middle] + lengths[middle] <= offset) {
+                low = middle + 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get token as a {@link Token} object, for APIs which require it.
+     * <p>
+     * The returned object is a view, created on each call; its text is materialized when requested.
+     *
+     * @param index token index
+     * @return token view
+     */
+    public Token getToken(int index) {
+        int type = getType(index);
+        int offset = offsets[index];
+        int length = lengths[index];
+        CharSequence tokenSource = source;
+        return new Token() {
+            @Override
+            public int getType() {
+                return type;
+            }
+
+            @Override
+            public int getOffset() {
+                return offset;
+            }
+
+            @Override
+            public String getText() {
+                return tokenSource.subSequence(offset, offset + length).toString();
+            }
+        };
+    }
+
+    private boolean regionEquals(int index, CharSequence text, boolean ignoreCase) {
+        checkIndex(index);
+        int length = lengths[index];
+        if (text.length() != length) {
+            return false;
+        }
+        int offset = offsets[index];
+        for (int i = 0; i < length; i++) {
+            char a = source.charAt(offset + i);
+            char b = text.charAt(i);
+            if (a != b && (!ignoreCase || Character.toUpperCase(a) != Character.toUpperCase(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Token index out of range: " + index);
+        }
+        return index;
+    }
+}
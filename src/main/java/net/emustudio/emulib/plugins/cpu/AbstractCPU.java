@@ -26,6 +26,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -44,6 +46,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * - support of breakpoints
  * - thread safe controlling of run states
  * - managing CPU listeners
+ * - optional execution trace recording (see {@link TraceRecorder})
+ * - optional guest code profiling (see {@link GuestProfiler} and {@link SamplingProfiler})
  */
 @ThreadSafe
 @SuppressWarnings("unused")
@@ -51,6 +55,15 @@ public abstract class AbstractCPU implements CPU, Callable<CPU.RunState> {
     private final static Logger LOGGER = LoggerFactory.getLogger(AbstractCPU.class);
     private final static Runnable EMPTY_TASK = () -> {
     };
+    private final static VarHandle PUBLISHED_LOCATION;
+
+    static {
+        try {
+            PUBLISHED_LOCATION = MethodHandles.lookup().findVarHandle(AbstractCPU.class, "publishedLocation", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     private final AtomicBoolean isDestroyed = new AtomicBoolean();
     private final ExecutorService eventReceiver = Executors.newSingleThreadExecutor();
@@ -60,6 +73,11 @@ public abstract class AbstractCPU implements CPU, Callable<CPU.RunState> {
 
     private final Set<CPUListener> stateObservers = new CopyOnWriteArraySet<>();
     private final Set<Integer> breakpoints = new ConcurrentSkipListSet<>();
+    private volatile TraceRecorder traceRecorder;
+    private volatile GuestProfiler profiler;
+    // accessed only by PUBLISHED_LOCATION in "opaque" mode
+    @SuppressWarnings("FieldMayBeFinal")
+    private int publishedLocation = -1;
 
     // ** CONTRACT: set only in "eventReceiver" or "cpuWatchTask" in a non-concurrent way **
     private volatile RunState runState = RunState.STATE_STOPPED_NORMAL;
@@ -85,6 +103,7 @@ public abstract class AbstractCPU implements CPU, Callable<CPU.RunState> {
 
     private class CPUWatchTask implements Runnable {
         private final Future<RunState> cpuFuture;
+        private volatile boolean stopRequested;
 
         private CPUWatchTask(Future<RunState> cpuFuture) {
             this.cpuFuture = Objects.requireNonNull(cpuFuture);
@@ -114,11 +133,16 @@ public abstract class AbstractCPU implements CPU, Callable<CPU.RunState> {
                 runState = tmpRunState;
                 if (originalRunState != tmpRunState) {
                     notifyStateChanged(tmpRunState);
+                    // Only a run ending by itself is worth a dump; a stop requested by the user is not
+                    if (originalRunState == RunState.STATE_RUNNING && !stopRequested) {
+                        notifyTraceRecorder(tmpRunState);
+                    }
                 }
             }
         }
 
         void requestStop() {
+            stopRequested = true;
             cpuFuture.cancel(true);
         }
     }
@@ -172,12 +196,16 @@ public abstract class AbstractCPU implements CPU, Callable<CPU.RunState> {
 
     @Override
     public void setBreakpoint(int location) {
-        breakpoints.add(location);
+        if (breakpoints.add(location)) {
+            breakpointChanged(location);
+        }
     }
 
     @Override
     public void unsetBreakpoint(int location) {
-        breakpoints.remove(location);
+        if (breakpoints.remove(location)) {
+            breakpointChanged(location);
+        }
     }
 
     @Override
@@ -185,6 +213,91 @@ public abstract class AbstractCPU implements CPU, Callable<CPU.RunState> {
         return breakpoints.contains(location);
     }
 
+    /**
+     * Set execution trace recorder.
+     * <p>
+     * The recorder is used by the CPU implementation in its execution loop (see {@link #getTraceRecorder()}). It is
+     * picked up on the next start of emulation. If the recorder has a dump file, the trace is dumped there when
+     * a run of the emulation ends on a breakpoint or an error. Stepping and user-requested pauses do not dump.
+     *
+     * @param traceRecorder trace recorder; or null to disable tracing
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    /**
+     * Get execution trace recorder.
+     * <p>
+     * CPU implementations should read it once before the execution loop into a local variable and record each
+     * instruction only if it is not null. If tracing is disabled, the cost is one null check per instruction.
+     *
+     * @return trace recorder; or null if tracing is disabled
+     */
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * Set guest code profiler.
+     * <p>
+     * The profiler is fed by the CPU implementation in its execution loop (see {@link #getProfiler()}). It is
+     * picked up on the next start of emulation.
+     *
+     * @param profiler guest profiler; or null to disable profiling
+     */
+    public void setProfiler(GuestProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Get guest code profiler.
+     * <p>
+     * CPU implementations should read it once before the execution loop into a local variable and account each
+     * instruction (and calls and returns) only if it is not null.
+     *
+     * @return guest profiler; or null if profiling is disabled
+     */
+    public GuestProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Publish location of the instruction being executed, for lock-free observers (e.g. {@link SamplingProfiler}).
+     * <p>
+     * Should be called by the CPU implementation in its execution loop, once per instruction or per block. It is a
+     * single "opaque" store: it does not synchronize anything, the value just eventually becomes visible to other
+     * threads.
+     *
+     * @param location instruction location
+     */
+    protected final void publishInstructionLocation(int location) {
+        PUBLISHED_LOCATION.setOpaque(this, location);
+    }
+
+    /**
+     * Get instruction location last published by the CPU implementation.
+     * <p>
+     * Can be called from any thread without locking. The value might be slightly out of date.
+     *
+     * @return published instruction location; or -1 if nothing was published yet
+     * @see #publishInstructionLocation(int)
+     */
+    public int getPublishedInstructionLocation() {
+        return (int) PUBLISHED_LOCATION.getOpaque(this);
+    }
+
+    /**
+     * Get current run state of the CPU.
+     * <p>
+     * Can be called from any thread.
+     *
+     * @return current run state
+     */
+    public RunState getRunState() {
+        return runState;
+    }
+
     /**
      * Add new CPU listener to the list of stateObservers. CPU listener is an
      * implementation object of CPUListener interface. The methods are
@@ -263,6 +376,13 @@ public abstract class AbstractCPU implements CPU, Callable<CPU.RunState> {
         });
     }
 
+    private void notifyTraceRecorder(RunState tmpRunState) {
+        TraceRecorder tmpTraceRecorder = traceRecorder;
+        if (tmpTraceRecorder != null) {
+            tmpTraceRecorder.cpuStopped(tmpRunState);
+        }
+    }
+
     private void ensureCpuIsStopped() {
         try {
             cpuStoppedWatcher.submit(EMPTY_TASK).get();
@@ -391,6 +511,18 @@ public abstract class AbstractCPU implements CPU, Callable<CPU.RunState> {
      */
     protected abstract RunState stepInternal() throws Exception;
 
+    /**
+     * Called when a breakpoint is set or unset.
+     * <p>
+     * Does nothing by default. CPUs which execute whole blocks of instructions should invalidate blocks containing
+     * the location (e.g. by {@link BasicBlockCache#invalidate(int)}).
+     *
+     * @param location breakpoint location
+     */
+    protected void breakpointChanged(int location) {
+
+    }
+
     /**
      * Performs specific CPU reset.
      * <p>
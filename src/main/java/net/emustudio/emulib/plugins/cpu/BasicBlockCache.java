@@ -0,0 +1,458 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.cpu.CPU.RunState;
+import net.emustudio.emulib.plugins.memory.Memory;
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Cache of translated basic blocks, for interpreters which execute whole blocks of pre-decoded instructions instead
+ * of fetching and decoding one instruction at a time.
+ * <p>
+ * A basic block is a sequence of instructions which ends with an instruction marked as block end (typically a jump,
+ * call, return or halt). Each instruction is translated once by a {@link Translator} into an
+ * {@link InstructionHandler}, which performs the instruction on the CPU (including updating the program counter).
+ * Blocks are cached by their start address.
+ * <p>
+ * Blocks are also cut:
+ * <ul>
+ *     <li>before an instruction at which a breakpoint is set, so breakpoints need to be checked only at block
+ *     entries. When a breakpoint is set or unset, {@link #invalidate(int)} must be called
+ *     (see {@link AbstractCPU#breakpointChanged(int)});</li>
+ *     <li>at the end of a page of {@link #PAGE_SIZE} memory cells;</li>
+ *     <li>after the maximum number of instructions, so the CPU can check interrupts or stop requests regularly.</li>
+ * </ul>
+ * <p>
+ * The cache registers itself as a memory listener. A write into memory covered by some block invalidates all blocks
+ * of the page, so self-modifying code is handled correctly - also when a block modifies itself, because a block stops
+ * executing after the instruction which invalidated it. If memory changes without notifications, the cache must be
+ * invalidated explicitly by {@link #invalidateAll()}.
+ * <p>
+ * Each page has a stamp, incremented by every write into the page. A translated block is cached only if stamps
+ * of pages it was read from have not changed during the translation.
+ * <p>
+ * Blocks should be obtained and executed only in the CPU thread; invalidation can be called from any thread.
+ * A typical run loop:
+ * <pre>
+ * while (!Thread.currentThread().isInterrupted() &amp;&amp; runState == RunState.STATE_RUNNING) {
+ *     if (isBreakpointSet(pc) &amp;&amp; !firstInstruction) {
+ *         return RunState.STATE_STOPPED_BREAK;
+ *     }
+ *     runState = blockCache.execute(this, pc);
+ *     // handle interrupts here
+ * }
+ * </pre>
+ *
+ * @param <C> type of the CPU (or CPU state) on which handlers operate
+ */
+@ThreadSafe
+public class BasicBlockCache<C> implements Memory.MemoryListener {
+    /**
+     * Size of a page, in memory cells. Blocks do not cross page boundaries (except of the last instruction).
+     */
+    public final static int PAGE_SIZE = 256;
+    private final static int PAGE_BITS = 8;
+    private final static int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final Translator<C> translator;
+    private final MemoryContext<?> memory;
+    private final IntPredicate breakpoints;
+    private final int maxBlockInstructions;
+    private volatile AtomicReferenceArray<Page<C>> pages;
+    private volatile AtomicLongArray stamps;
+
+    /**
+     * Performs one translated instruction.
+     *
+     * @param <C> type of the CPU
+     */
+    @FunctionalInterface
+    public interface InstructionHandler<C> {
+
+        /**
+         * Performs the instruction on the CPU, including update of the program counter.
+         *
+         * @param cpu CPU
+         * @return new run state; {@link RunState#STATE_RUNNING} if the execution should continue
+         * @throws Exception the emulator is allowed to throw any exception
+         */
+        RunState execute(C cpu) throws Exception;
+    }
+
+    /**
+     * Translates instructions into handlers.
+     *
+     * @param <C> type of the CPU
+     */
+    @FunctionalInterface
+    public interface Translator<C> {
+
+        /**
+         * Translates single instruction.
+         *
+         * @param memoryPosition instruction address
+         * @return translated instruction
+         * @throws InvalidInstructionException if the instruction cannot be decoded
+         */
+        TranslatedInstruction<C> translate(int memoryPosition) throws InvalidInstructionException;
+    }
+
+    /**
+     * Instruction translated into a handler.
+     *
+     * @param <C> type of the CPU
+     */
+    public static final class TranslatedInstruction<C> {
+        private final InstructionHandler<C> handler;
+        private final int length;
+        private final boolean endsBlock;
+
+        /**
+         * Creates new translated instruction.
+         *
+         * @param handler   instruction handler
+         * @param length    instruction length in memory cells (must be &gt; 0)
+         * @param endsBlock true if the instruction can change control flow (jump, call, return, halt, ...)
+         */
+        public TranslatedInstruction(InstructionHandler<C> handler, int length, boolean endsBlock) {
+            if (length <= 0) {
+                throw new IllegalArgumentException("Instruction length must be > 0");
+            }
+            this.handler = Objects.requireNonNull(handler);
+            this.length = length;
+            this.endsBlock = endsBlock;
+        }
+    }
+
+    /**
+     * Translated basic block.
+     *
+     * @param <C> type of the CPU
+     */
+    public static final class Block<C> {
+        private final int startAddress;
+        private final int endAddress;
+        private final InstructionHandler<C>[] handlers;
+        private volatile boolean valid = true;
+
+        private Block(int startAddress, int endAddress, InstructionHandler<C>[] handlers) {
+            this.startAddress = startAddress;
+            this.endAddress = endAddress;
+            this.handlers = handlers;
+        }
+
+        /**
+         * Get address of the first instruction.
+         *
+         * @return block start address
+         */
+        public int getStartAddress() {
+            return startAddress;
+        }
+
+        /**
+         * Get address following the last instruction.
+         *
+         * @return block end address (exclusive)
+         */
+        public int getEndAddress() {
+            return endAddress;
+        }
+
+        /**
+         * Get number of instructions in the block.
+         *
+         * @return number of instructions
+         */
+        public int getInstructionsCount() {
+            return handlers.length;
+        }
+
+        /**
+         * Determine if the block is still valid (memory covered by it was not changed since translation).
+         *
+         * @return true if the block is valid; false otherwise
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Executes instructions of the block.
+         * <p>
+         * The execution stops after an instruction which returns other state than {@link RunState#STATE_RUNNING},
+         * or which invalidates the block.
+         *
+         * @param cpu CPU
+         * @return run state returned by the last executed instruction
+         * @throws Exception the emulator is allowed to throw any exception
+         */
+        public RunState execute(C cpu) throws Exception {
+            RunState state = RunState.STATE_RUNNING;
+            for (InstructionHandler<C> handler : handlers) {
+                state = handler.execute(cpu);
+                if (state != RunState.STATE_RUNNING || !valid) {
+                    break;
+                }
+            }
+            return state;
+        }
+    }
+
+    private static final class Page<C> {
+        final Block<C>[] blocks = newBlocks(PAGE_SIZE);
+        // memory cells covered by some block
+        final long[] coverage = new long[PAGE_SIZE / 64];
+        // the last instruction of some block of previous page extends into this page
+        volatile boolean coveredFromPrevious;
+
+        boolean isCovered(int offset) {
+            return (coverage[offset >>> 6] & (1L << offset)) != 0;
+        }
+
+        void cover(int from, int to) {
+            for (int i = from; i < to; i++) {
+                coverage[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    /**
+     * Creates new basic block cache and registers it as memory listener.
+     *
+     * @param translator           instruction translator
+     * @param memory               memory from which the translator reads instructions
+     * @param breakpoints          determines if a breakpoint is set at given address (e.g.
+     *                             <code>cpu::isBreakpointSet</code>)
+     * @param maxBlockInstructions maximum number of instructions in a block
+     */
+    public BasicBlockCache(Translator<C> translator, MemoryContext<?> memory, IntPredicate breakpoints,
+                           int maxBlockInstructions) {
+        if (maxBlockInstructions <= 0) {
+            throw new IllegalArgumentException("Maximum block instructions must be > 0");
+        }
+        this.translator = Objects.requireNonNull(translator);
+        this.memory = Objects.requireNonNull(memory);
+        this.breakpoints = Objects.requireNonNull(breakpoints);
+        this.maxBlockInstructions = maxBlockInstructions;
+        this.pages = createPages(memory.getSize());
+        this.stamps = new AtomicLongArray(pages.length());
+        memory.addMemoryListener(this);
+    }
+
+    /**
+     * Executes a block starting at given address. The block is translated if it is not cached.
+     *
+     * @param cpu            CPU
+     * @param memoryPosition block start address (current program counter)
+     * @return run state returned by the last executed instruction
+     * @throws Exception the emulator is allowed to throw any exception
+     */
+    public RunState execute(C cpu, int memoryPosition) throws Exception {
+        return getBlock(memoryPosition).execute(cpu);
+    }
+
+    /**
+     * Get block starting at given address. The block is translated if it is not cached.
+     *
+     * @param memoryPosition block start address
+     * @return valid block
+     * @throws InvalidInstructionException if the first instruction cannot be translated
+     */
+    public Block<C> getBlock(int memoryPosition) throws InvalidInstructionException {
+        AtomicReferenceArray<Page<C>> pages = this.pages;
+        int pageIndex = memoryPosition >>> PAGE_BITS;
+        if (pageIndex >= pages.length()) {
+            return translate(memoryPosition);
+        }
+        Page<C> page = pages.get(pageIndex);
+        if (page != null) {
+            Block<C> block = page.blocks[memoryPosition & PAGE_MASK];
+            if (block != null && block.valid) {
+                return block;
+            }
+        }
+
+        AtomicLongArray stamps = this.stamps;
+        boolean hasNextPage = pageIndex + 1 < stamps.length();
+        long stamp = stamps.get(pageIndex);
+        long nextStamp = hasNextPage ? stamps.get(pageIndex + 1) : 0;
+
+        Block<C> block = translate(memoryPosition);
+        int offset = memoryPosition & PAGE_MASK;
+        int pageEnd = (pageIndex + 1) << PAGE_BITS;
+        boolean crossesPage = block.endAddress > pageEnd && hasNextPage;
+        synchronized (this) {
+            if (this.pages != pages) {
+                return block; // invalidated meanwhile
+            }
+            page = getOrCreatePage(pages, pageIndex);
+            page.cover(offset, Math.min(block.endAddress, pageEnd) - (pageIndex << PAGE_BITS));
+            if (crossesPage) {
+                Page<C> nextPage = getOrCreatePage(pages, pageIndex + 1);
+                nextPage.cover(0, block.endAddress - pageEnd);
+                nextPage.coveredFromPrevious = true;
+                pages.set(pageIndex + 1, nextPage); // publishes coverage to memoryChanged()
+            }
+            page.blocks[offset] = block;
+            pages.set(pageIndex, page);
+
+            // memory was written during translation; the block might be translated from old content
+            if (stamps.get(pageIndex) != stamp || (crossesPage && stamps.get(pageIndex + 1) != nextStamp)) {
+                page.blocks[offset] = null;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Invalidates all blocks which could contain given address. Must be called when a breakpoint is set or unset.
+     *
+     * @param memoryPosition memory address
+     */
+    public void invalidate(int memoryPosition) {
+        invalidatePage(memoryPosition >>> PAGE_BITS);
+        // the last instruction of a block in previous page might span to this page
+        invalidatePage((memoryPosition >>> PAGE_BITS) - 1);
+    }
+
+    /**
+     * Invalidates all blocks.
+     */
+    public synchronized void invalidateAll() {
+        AtomicReferenceArray<Page<C>> oldPages = pages;
+        pages = createPages(memory.getSize());
+        stamps = new AtomicLongArray(pages.length());
+        for (int i = 0; i < oldPages.length(); i++) {
+            invalidateBlocks(oldPages.get(i));
+        }
+    }
+
+    /**
+     * Unregisters this cache from memory listeners.
+     */
+    public void detach() {
+        memory.removeMemoryListener(this);
+    }
+
+    @Override
+    public void memoryChanged(int memoryPosition) {
+        AtomicReferenceArray<Page<C>> pages = this.pages;
+        AtomicLongArray stamps = this.stamps;
+        int pageIndex = memoryPosition >>> PAGE_BITS;
+        if (pageIndex < pages.length() && pageIndex < stamps.length()) {
+            stamps.incrementAndGet(pageIndex);
+            Page<C> page = pages.get(pageIndex);
+            if (page != null && page.isCovered(memoryPosition & PAGE_MASK)) {
+                invalidatePage(pageIndex);
+            }
+        }
+    }
+
+    @Override
+    public void memorySizeChanged() {
+        invalidateAll();
+    }
+
+    private Block<C> translate(int memoryPosition) throws InvalidInstructionException {
+        List<InstructionHandler<C>> handlers = new ArrayList<>();
+        int pageIndex = memoryPosition >>> PAGE_BITS;
+        int position = memoryPosition;
+        while (true) {
+            TranslatedInstruction<C> instruction;
+            try {
+                instruction = translator.translate(position);
+            } catch (InvalidInstructionException | IndexOutOfBoundsException e) {
+                if (handlers.isEmpty()) {
+                    throw e;
+                }
+                break; // reported only when the CPU reaches the instruction
+            }
+            handlers.add(instruction.handler);
+            position += instruction.length;
+            if (instruction.endsBlock || handlers.size() >= maxBlockInstructions
+                    || (position >>> PAGE_BITS) != pageIndex || breakpoints.test(position)) {
+                break;
+            }
+        }
+
+        InstructionHandler<C>[] array = handlers.toArray(newHandlers(handlers.size()));
+        return new Block<>(memoryPosition, position, array);
+    }
+
+    // Blocks of previous pages whose last instruction extends into a removed page are invalidated too, because
+    // the removed page was the only record of their coverage.
+    private synchronized void invalidatePage(int pageIndex) {
+        AtomicReferenceArray<Page<C>> pages = this.pages;
+        AtomicLongArray stamps = this.stamps;
+        while (pageIndex >= 0 && pageIndex < pages.length()) {
+            if (pageIndex < stamps.length()) {
+                stamps.incrementAndGet(pageIndex);
+            }
+            Page<C> page = pages.getAndSet(pageIndex, null);
+            invalidateBlocks(page);
+            if (page == null || !page.coveredFromPrevious) {
+                break;
+            }
+            pageIndex--;
+        }
+    }
+
+    private static <C> void invalidateBlocks(Page<C> page) {
+        if (page != null) {
+            for (Block<C> block : page.blocks) {
+                if (block != null) {
+                    block.valid = false;
+                }
+            }
+        }
+    }
+
+    private static <C> Page<C> getOrCreatePage(AtomicReferenceArray<Page<C>> pages, int pageIndex) {
+        Page<C> page = pages.get(pageIndex);
+        if (page == null) {
+            page = new Page<>();
+            pages.set(pageIndex, page);
+        }
+        return page;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C> Block<C>[] newBlocks(int length) {
+        return (Block<C>[]) new Block<?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <C> InstructionHandler<C>[] newHandlers(int length) {
+        return (InstructionHandler<C>[]) new InstructionHandler<?>[length];
+    }
+
+    private static <C> AtomicReferenceArray<Page<C>> createPages(int memorySize) {
+        return new AtomicReferenceArray<>((Math.max(0, memorySize) + PAGE_SIZE - 1) >>> PAGE_BITS);
+    }
+}
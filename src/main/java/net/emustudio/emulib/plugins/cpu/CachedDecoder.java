@@ -0,0 +1,101 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.memory.Memory;
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Objects;
+
+/**
+ * Decoder which caches decoded instructions by their address.
+ * <p>
+ * The cache registers itself as a memory listener. A write into memory invalidates all cached instructions which
+ * could be affected by it, so self-modifying code is handled correctly. If memory notifications are disabled
+ * (see {@link MemoryContext#setMemoryNotificationsEnabled(boolean)}), or memory content changes without
+ * notification (e.g. by bank switching), the cache must be invalidated explicitly by {@link #invalidateAll()}.
+ * <p>
+ * Cached instructions are shared between callers and must not be modified. Invalid instructions are not cached.
+ */
+@ThreadSafe
+public class CachedDecoder implements Decoder, Memory.MemoryListener {
+    private final Decoder decoder;
+    private final MemoryContext<?> memory;
+    private final InstructionCache<DecodedInstruction> cache;
+
+    /**
+     * Creates new caching decoder and registers it as memory listener.
+     *
+     * @param decoder              decoder of instructions
+     * @param memory               memory from which the decoder reads instructions
+     * @param maxInstructionLength maximum instruction length in memory cells
+     */
+    public CachedDecoder(Decoder decoder, MemoryContext<?> memory, int maxInstructionLength) {
+        this.decoder = Objects.requireNonNull(decoder);
+        this.memory = Objects.requireNonNull(memory);
+        this.cache = new InstructionCache<>(memory.getSize(), maxInstructionLength);
+        memory.addMemoryListener(this);
+    }
+
+    /**
+     * Decodes an instruction, or returns the cached one.
+     * <p>
+     * The returned instruction must not be modified.
+     *
+     * @param memoryPosition the address of the start of the instruction
+     * @return the decoded instruction object
+     * @throws InvalidInstructionException when decoding is not successful
+     */
+    @Override
+    public DecodedInstruction decode(int memoryPosition) throws InvalidInstructionException {
+        DecodedInstruction instruction = cache.get(memoryPosition);
+        if (instruction == null) {
+            long stamp = cache.stamp();
+            // the decoder might reuse the instance
+            instruction = decoder.decode(memoryPosition).copy();
+            cache.put(memoryPosition, instruction, stamp);
+        }
+        return instruction;
+    }
+
+    /**
+     * Invalidates all cached instructions.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll(memory.getSize());
+    }
+
+    /**
+     * Unregisters this cache from memory listeners. The decoder should not be used afterwards.
+     */
+    public void detach() {
+        memory.removeMemoryListener(this);
+    }
+
+    @Override
+    public void memoryChanged(int memoryPosition) {
+        cache.invalidate(memoryPosition);
+    }
+
+    @Override
+    public void memorySizeChanged() {
+        invalidateAll();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.memory.Memory;
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Objects;
+
+/**
+ * Disassembler which caches disassembled instructions by their address.
+ * <p>
+ * The cache registers itself as a memory listener. A write into memory invalidates all cached instructions which
+ * could be affected by it, so self-modifying code is handled correctly. If memory notifications are disabled
+ * (see {@link MemoryContext#setMemoryNotificationsEnabled(boolean)}), or memory content changes without
+ * notification (e.g. by bank switching), the cache must be invalidated explicitly by {@link #invalidateAll()}.
+ * <p>
+ * Cached instructions are shared between callers and must not be modified. Invalid instructions are not cached.
+ */
+@ThreadSafe
+public class CachedDisassembler implements Disassembler, Memory.MemoryListener {
+    private final Disassembler disassembler;
+    private final MemoryContext<?> memory;
+    private final InstructionCache<DisassembledInstruction> instructions;
+    private final InstructionCache<Integer> nextPositions;
+
+    /**
+     * Creates new caching disassembler and registers it as memory listener.
+     *
+     * @param disassembler         disassembler
+     * @param memory               memory from which the disassembler reads instructions
+     * @param maxInstructionLength maximum instruction length in memory cells
+     */
+    public CachedDisassembler(Disassembler disassembler, MemoryContext<?> memory, int maxInstructionLength) {
+        this.disassembler = Objects.requireNonNull(disassembler);
+        this.memory = Objects.requireNonNull(memory);
+        this.instructions = new InstructionCache<>(memory.getSize(), maxInstructionLength);
+        this.nextPositions = new InstructionCache<>(memory.getSize(), maxInstructionLength);
+        memory.addMemoryListener(this);
+    }
+
+    /**
+     * Disassembles an instruction, or returns the cached one.
+     * <p>
+     * The returned instruction must not be modified.
+     *
+     * @param memoryPosition Memory address where to begin disassembling.
+     * @return Object that represents the disassembled instruction.
+     * @throws InvalidInstructionException when instruction could not be disassembled
+     * @throws IndexOutOfBoundsException   when memory location exceeds the bounds
+     */
+    @Override
+    public DisassembledInstruction disassemble(int memoryPosition) throws InvalidInstructionException {
+        DisassembledInstruction instruction = instructions.get(memoryPosition);
+        if (instruction == null) {
+            long stamp = instructions.stamp();
+            instruction = disassembler.disassemble(memoryPosition);
+            instructions.put(memoryPosition, instruction, stamp);
+        }
+        return instruction;
+    }
+
+    @Override
+    public int getNextInstructionPosition(int memoryPosition) throws IndexOutOfBoundsException {
+        Integer position = nextPositions.get(memoryPosition);
+        if (position == null) {
+            long stamp = nextPositions.stamp();
+            position = disassembler.getNextInstructionPosition(memoryPosition);
+            nextPositions.put(memoryPosition, position, stamp);
+        }
+        return position;
+    }
+
+    /**
+     * Invalidates all cached instructions.
+     */
+    public void invalidateAll() {
+        int size = memory.getSize();
+        instructions.invalidateAll(size);
+        nextPositions.invalidateAll(size);
+    }
+
+    /**
+     * Unregisters this cache from memory listeners. The disassembler should not be used afterwards.
+     */
+    public void detach() {
+        memory.removeMemoryListener(this);
+    }
+
+    @Override
+    public void memoryChanged(int memoryPosition) {
+        instructions.invalidate(memoryPosition);
+        nextPositions.invalidate(memoryPosition);
+    }
+
+    @Override
+    public void memorySizeChanged() {
+        invalidateAll();
+    }
+}
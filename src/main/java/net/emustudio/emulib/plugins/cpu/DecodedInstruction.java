@@ -20,39 +20,90 @@
 package net.emustudio.emulib.plugins.cpu;
 
 import net.emustudio.emulib.runtime.helpers.Bits;
+import net.jcip.annotations.NotThreadSafe;
 
 import java.util.*;
+import java.util.function.IntConsumer;
 
 /**
  * A decoded, but not yet disassembled instruction.
  * Basic unit is a byte. Instruction image is an int stored in big-endian.
+ * <p>
+ * Keys (rule codes) are small non-negative integers, dense within an instruction set. Values are stored in primitive
+ * arrays indexed directly by the key, so adding or getting a value does not allocate. The arrays grow if a key
+ * exceeds the initial key count.
+ * <p>
+ * An instance can be reused for decoding of multiple instructions by calling {@link #reset()} - e.g. a decoder can
+ * keep one instance per thread. Callers which need to keep a reused instruction should store its {@link #copy()}.
  */
+@NotThreadSafe
 public class DecodedInstruction {
-    private final Map<Integer, Integer> constants = new HashMap<>();
-    private final Map<Integer, String> strings = new HashMap<>();
-    private final Map<Integer, Bits> bits = new HashMap<>();
+    private final static int DEFAULT_KEY_COUNT = 16;
+    private final static byte HAS_CONSTANT = 1;
+    private final static byte HAS_BITS = 2;
+
+    private byte[] flags;
+    private int[] constants;
+    private String[] strings;
+    private int[] bitsValues;
+    private int[] bitsLengths;
+    private Bits[] bitsObjects;
+
+    // keys in order of addition, for fast reset and iteration
+    private int[] usedKeys;
+    private int usedKeysCount;
 
     private byte[] image;
+    private int imageLength;
+
+    /**
+     * Creates new decoded instruction with default key count.
+     */
+    public DecodedInstruction() {
+        this(DEFAULT_KEY_COUNT);
+    }
+
+    /**
+     * Creates new decoded instruction.
+     *
+     * @param keyCount expected number of keys in the instruction set; keys should be in range 0 to keyCount - 1
+     */
+    public DecodedInstruction(int keyCount) {
+        if (keyCount <= 0) {
+            throw new IllegalArgumentException("Key count must be > 0");
+        }
+        this.flags = new byte[keyCount];
+        this.constants = new int[keyCount];
+        this.strings = new String[keyCount];
+        this.bitsValues = new int[keyCount];
+        this.bitsLengths = new int[keyCount];
+        this.bitsObjects = new Bits[keyCount];
+        this.usedKeys = new int[keyCount];
+    }
 
     /**
      * Adds the recognized string-returning variant to the instruction.
-     * @param key the key (rule code)
+     * @param key the key (rule code), must be &gt;= 0
      * @param string the string which the recognized variant returned
      * @param constant the constant obtained from the string
      */
     public void add(int key, String string, int constant) {
-        constants.put(key, constant);
-        strings.put(key, string);
+        use(key, HAS_CONSTANT);
+        constants[key] = constant;
+        strings[key] = string;
     }
 
     /**
      * Adds the recognized subrule-returning variant to the instruction.
-     * @param key the rule code
+     * @param key the rule code, must be &gt;= 0
      * @param bits the bit sequence in little-endian, padded to whole bytes
      * @param length bit length (in bits)
      */
     public void add(int key, int bits, int length) {
-        this.bits.put(key, new Bits(bits, length));
+        use(key, HAS_BITS);
+        bitsValues[key] = bits;
+        bitsLengths[key] = length;
+        bitsObjects[key] = null;
     }
 
     /**
@@ -61,7 +112,7 @@ public class DecodedInstruction {
      * @return true if the instruction contains the key, false otherwise
      */
     public boolean hasKey(int key) {
-        return bits.containsKey(key) || constants.containsKey(key);
+        return key >= 0 && key < flags.length && flags[key] != 0;
     }
 
     /**
@@ -70,8 +121,7 @@ public class DecodedInstruction {
      * @return the constant; or -1 if the key is not mapped to a constant
      */
     public int get(int key) {
-        Integer value = constants.get(key);
-        return (value != null) ? value : -1;
+        return hasFlag(key, HAS_CONSTANT) ? constants[key] : -1;
     }
 
     /**
@@ -80,24 +130,64 @@ public class DecodedInstruction {
      * @return the string; or null if the key is not mapped to a string
      */
     public String getString(int key) {
-        return strings.get(key);
+        return hasFlag(key, HAS_CONSTANT) ? strings[key] : null;
     }
 
     /**
      * Returns the bit sequence to which the given key is mapped.
+     * <p>
+     * The Bits object is created lazily; repeated calls return the same object. For allocation-free access use
+     * {@link #getBitsValue(int)} and {@link #getBitsLength(int)}.
+     *
      * @param key the key
      * @return the bit sequence; or null if the key is not mapped to bits
      */
     public Bits getBits(int key) {
-        return bits.get(key);
+        if (!hasFlag(key, HAS_BITS)) {
+            return null;
+        }
+        Bits result = bitsObjects[key];
+        if (result == null) {
+            result = new Bits(bitsValues[key], bitsLengths[key]);
+            bitsObjects[key] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bit sequence value to which the given key is mapped.
+     * @param key the key
+     * @return the bit sequence in little-endian; or -1 if the key is not mapped to bits
+     */
+    public int getBitsValue(int key) {
+        if (!hasFlag(key, HAS_BITS)) {
+            return -1;
+        }
+        Bits result = bitsObjects[key];
+        return (result == null) ? bitsValues[key] : result.bits;
+    }
+
+    /**
+     * Returns the length of bit sequence to which the given key is mapped.
+     * @param key the key
+     * @return bit length (in bits); or -1 if the key is not mapped to bits
+     */
+    public int getBitsLength(int key) {
+        return hasFlag(key, HAS_BITS) ? bitsLengths[key] : -1;
     }
 
     /**
      * Returns the binary image of the whole instruction.
+     * <p>
+     * If the image was set with a length shorter than the array, a copy of the used part is returned.
+     *
      * @return the binary image
      */
     public byte[] getImage() {
-        return image;
+        if (image == null || image.length == imageLength) {
+            return image;
+        }
+        return Arrays.copyOf(image, imageLength);
     }
 
     /**
@@ -106,6 +196,24 @@ public class DecodedInstruction {
      */
     public void setImage(byte[] image) {
         this.image = image;
+        this.imageLength = (image == null) ? 0 : image.length;
+    }
+
+    /**
+     * Sets the binary image of the whole instruction, stored at the beginning of the array.
+     * <p>
+     * The array is not copied, so decoders can reuse one buffer for all instructions; it must not be modified while
+     * this instruction is in use.
+     *
+     * @param image  array holding the binary image
+     * @param length the length of the image, in bytes
+     */
+    public void setImage(byte[] image, int length) {
+        if (length < 0 || length > image.length) {
+            throw new IllegalArgumentException("Invalid image length: " + length);
+        }
+        this.image = image;
+        this.imageLength = length;
     }
 
     /**
@@ -113,21 +221,102 @@ public class DecodedInstruction {
      * @return the length, in bytes
      */
     public int getLength() {
-        return image.length;
+        return imageLength;
     }
 
     /**
      * Returns the set of all keys contained in this instruction.
+     * <p>
+     * A new set is created on each call; for allocation-free iteration use {@link #forEachKey(IntConsumer)}.
+     *
      * @return the set of keys
      */
     public Set<Integer> getKeys() {
-        Set<Integer> keys = new HashSet<>(constants.keySet());
-        keys.addAll(bits.keySet());
+        Set<Integer> keys = new HashSet<>();
+        for (int i = 0; i < usedKeysCount; i++) {
+            keys.add(usedKeys[i]);
+        }
         return keys;
     }
 
+    /**
+     * Performs the action for each key contained in this instruction, in the order in which the keys were added.
+     * @param action action accepting a key
+     */
+    public void forEachKey(IntConsumer action) {
+        for (int i = 0; i < usedKeysCount; i++) {
+            action.accept(usedKeys[i]);
+        }
+    }
+
+    /**
+     * Removes all keys and the image, so the instance can be reused for another instruction.
+     * <p>
+     * Only the slots of keys which were used are cleared, so the cost is proportional to the number of keys in the
+     * instruction, not to the size of the key space.
+     */
+    public void reset() {
+        for (int i = 0; i < usedKeysCount; i++) {
+            int key = usedKeys[i];
+            flags[key] = 0;
+            strings[key] = null;
+            bitsObjects[key] = null;
+        }
+        usedKeysCount = 0;
+        image = null;
+        imageLength = 0;
+    }
+
+    /**
+     * Creates an independent copy of this instruction.
+     * @return the copy
+     */
+    public DecodedInstruction copy() {
+        DecodedInstruction result = new DecodedInstruction(flags.length);
+        for (int i = 0; i < usedKeysCount; i++) {
+            int key = usedKeys[i];
+            if ((flags[key] & HAS_CONSTANT) != 0) {
+                result.add(key, strings[key], constants[key]);
+            }
+            if ((flags[key] & HAS_BITS) != 0) {
+                result.add(key, getBitsValue(key), bitsLengths[key]);
+            }
+        }
+        // the image array might be a buffer reused by the decoder
+        result.setImage((image == null) ? null : Arrays.copyOf(image, imageLength));
+        return result;
+    }
+
     @Override
     public String toString() {
-        return Arrays.toString(image);
+        return Arrays.toString(getImage());
+    }
+
+    private boolean hasFlag(int key, byte flag) {
+        return key >= 0 && key < flags.length && (flags[key] & flag) != 0;
+    }
+
+    private void use(int key, byte flag) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Key must be >= 0");
+        }
+        if (key >= flags.length) {
+            grow(key + 1);
+        }
+        if (flags[key] == 0) {
+            usedKeys[usedKeysCount++] = key;
+        }
+        flags[key] |= flag;
+    }
+
+    private void grow(int minKeyCount) {
+        int keyCount = Math.max(minKeyCount, flags.length * 2);
+        flags = Arrays.copyOf(flags, keyCount);
+        constants = Arrays.copyOf(constants, keyCount);
+        strings = Arrays.copyOf(strings, keyCount);
+        bitsValues = Arrays.copyOf(bitsValues, keyCount);
+        bitsLengths = Arrays.copyOf(bitsLengths, keyCount);
+        bitsObjects = Arrays.copyOf(bitsObjects, keyCount);
+        usedKeys = Arrays.copyOf(usedKeys, keyCount);
     }
 }
@@ -26,6 +26,10 @@ package net.emustudio.emulib.plugins.cpu;
 public interface Decoder {
     /**
      * Decodes an instruction.
+     * <p>
+     * In order to avoid allocations, implementations may reuse one {@link DecodedInstruction} per thread (see
+     * {@link DecodedInstruction#reset()}). In that case, the returned instruction is valid only until the next call
+     * of this method in the same thread, and callers which need to keep it should store its copy.
      *
      * @param memoryPosition the address of the start of the instruction
      * @return the decoded instruction object
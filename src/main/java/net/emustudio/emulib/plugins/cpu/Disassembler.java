@@ -45,4 +45,89 @@ public interface Disassembler {
      */
     int getNextInstructionPosition(int memoryPosition) throws IndexOutOfBoundsException;
 
+    /**
+     * Disassembles instructions in a memory range, one by one, and passes them to the sink.
+     * <p>
+     * The default implementation uses {@link #disassemble(int)} and {@link #getNextInstructionPosition(int)}.
+     * Implementations should override it if they can disassemble the range in one pass.
+     * <p>
+     * Disassembling stops at the end of the range, when the sink returns false, or at the end of memory.
+     *
+     * @param from start address of the first instruction
+     * @param to   end address of the range (exclusive); the last instruction starts before it
+     * @param sink sink of disassembled instructions
+     * @return address following the last disassembled instruction
+     */
+    default int disassemble(int from, int to, InstructionSink sink) {
+        int position = from;
+        while (position < to) {
+            DisassembledInstruction instruction;
+            int nextPosition;
+            try {
+                try {
+                    instruction = disassemble(position);
+                } catch (InvalidInstructionException e) {
+                    instruction = null;
+                }
+                nextPosition = Math.max(position + 1, getNextInstructionPosition(position));
+            } catch (IndexOutOfBoundsException e) {
+                break;
+            }
+            boolean proceed = sink.accept(position, nextPosition, instruction);
+            position = nextPosition;
+            if (!proceed) {
+                break;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Disassembles consecutive instructions into a reusable buffer.
+     * <p>
+     * Non-null buffer items are reused (their address and instruction are overwritten); null items are filled with
+     * new instances. An invalid instruction is stored with <code>null</code> mnemonic and operation code.
+     *
+     * @param from   start address of the first instruction
+     * @param buffer buffer of instructions
+     * @return number of disassembled instructions; it is less than the buffer length only at the end of memory
+     */
+    default int disassemble(int from, DisassembledInstruction[] buffer) {
+        if (buffer.length == 0) {
+            return 0;
+        }
+        int[] count = new int[1];
+        disassemble(from, Integer.MAX_VALUE, (address, nextAddress, instruction) -> {
+            String mnemo = (instruction == null) ? null : instruction.getMnemo();
+            String opCode = (instruction == null) ? null : instruction.getOpCode();
+            DisassembledInstruction item = buffer[count[0]];
+            if (item == null) {
+                buffer[count[0]] = new DisassembledInstruction(address, mnemo, opCode);
+            } else {
+                item.setAddress(address);
+                item.setInstruction(mnemo, opCode);
+            }
+            return ++count[0] < buffer.length;
+        });
+        return count[0];
+    }
+
+    /**
+     * Receiver of disassembled instructions.
+     */
+    @FunctionalInterface
+    interface InstructionSink {
+
+        /**
+         * Accepts disassembled instruction.
+         * <p>
+         * The instruction object might be reused by the disassembler, so it is valid only within this call.
+         *
+         * @param address     instruction address
+         * @param nextAddress address of the next instruction
+         * @param instruction disassembled instruction, or null if the instruction is invalid
+         * @return true if disassembling should continue; false otherwise
+         */
+        boolean accept(int address, int nextAddress, DisassembledInstruction instruction);
+    }
 }
@@ -0,0 +1,360 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntFunction;
+
+/**
+ * Guest code profiler.
+ * <p>
+ * Counts executed instructions and their cycles per address, in primitive arrays indexed by the program counter.
+ * If the CPU also reports calls and returns, cycles are aggregated in a call tree, which can be exported in the
+ * "folded stacks" text format understood by flamegraph tools (one line per stack: frames separated by semicolons,
+ * followed by a space and the number of cycles).
+ * <p>
+ * CPUs based on {@link AbstractCPU} feed the profiler from their execution loop, if it is set
+ * (see {@link AbstractCPU#setProfiler(GuestProfiler)}):
+ * <pre>
+ * GuestProfiler profiler = getProfiler(); // once, before the loop
+ * while (...) {
+ *     ...
+ *     if (profiler != null) {
+ *         profiler.instruction(pc, cycles);
+ *         // on CALL: profiler.call(target); on RET: profiler.ret();
+ *     }
+ * }
+ * </pre>
+ * The profiler must be fed from a single thread (the CPU thread); reports should be created when the CPU is not
+ * running.
+ */
+@NotThreadSafe
+public class GuestProfiler {
+    /**
+     * Maximal depth of the call tree. Deeper calls (e.g. deep recursion) are accounted to the deepest frame.
+     */
+    public final static int MAX_DEPTH = 256;
+    private final static int ROOT = 0;
+    private final static int INITIAL_NODES = 64;
+
+    private final long[] counts;
+    private final long[] cycles;
+
+    // call tree; node 0 is the root ("program entry")
+    private int[] nodeAddress = new int[INITIAL_NODES];
+    private int[] nodeParent = new int[INITIAL_NODES];
+    private int[] nodeFirstChild = new int[INITIAL_NODES];
+    private int[] nodeNextSibling = new int[INITIAL_NODES];
+    private long[] nodeCycles = new long[INITIAL_NODES];
+    private int nodeCount;
+
+    private int currentNode;
+    private int depth;
+    private int overflowDepth;
+
+    /**
+     * Creates new profiler.
+     *
+     * @param memorySize size of the address space; instructions at addresses outside are ignored
+     */
+    public GuestProfiler(int memorySize) {
+        if (memorySize <= 0) {
+            throw new IllegalArgumentException("Memory size must be > 0");
+        }
+        this.counts = new long[memorySize];
+        this.cycles = new long[memorySize];
+        reset();
+    }
+
+    /**
+     * Accounts executed instruction.
+     *
+     * @param pc     address of the instruction
+     * @param cycles number of cycles the instruction took
+     */
+    public void instruction(int pc, int cycles) {
+        if (pc >= 0 && pc < counts.length) {
+            this.counts[pc]++;
+            this.cycles[pc] += cycles;
+        }
+        nodeCycles[currentNode] += cycles;
+    }
+
+    /**
+     * Accounts a subroutine call. Following instructions are accounted to the called subroutine until
+     * {@link #ret()} is called.
+     *
+     * @param target subroutine address
+     */
+    public void call(int target) {
+        if (depth >= MAX_DEPTH) {
+            overflowDepth++;
+            return;
+        }
+        currentNode = findOrAddChild(currentNode, target);
+        depth++;
+    }
+
+    /**
+     * Accounts a return from subroutine. Unbalanced returns (without a corresponding call) are ignored.
+     */
+    public void ret() {
+        if (overflowDepth > 0) {
+            overflowDepth--;
+        } else if (currentNode != ROOT) {
+            currentNode = nodeParent[currentNode];
+            depth--;
+        }
+    }
+
+    /**
+     * Clears all counters and the call tree.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(cycles, 0);
+        nodeCount = 1;
+        nodeParent[ROOT] = -1;
+        nodeFirstChild[ROOT] = -1;
+        nodeNextSibling[ROOT] = -1;
+        nodeCycles[ROOT] = 0;
+        currentNode = ROOT;
+        depth = 0;
+        overflowDepth = 0;
+    }
+
+    /**
+     * Get number of executions of an instruction.
+     *
+     * @param address instruction address
+     * @return number of executions
+     */
+    public long getCount(int address) {
+        return counts[address];
+    }
+
+    /**
+     * Get number of cycles spent by an instruction.
+     *
+     * @param address instruction address
+     * @return sum of cycles of all executions
+     */
+    public long getCycles(int address) {
+        return cycles[address];
+    }
+
+    /**
+     * Get current depth of the call tree.
+     *
+     * @return number of unreturned calls
+     */
+    public int getDepth() {
+        return depth + overflowDepth;
+    }
+
+    /**
+     * Get addresses where the most cycles were spent.
+     *
+     * @param limit maximal number of hot spots
+     * @return hot spots, sorted by cycles (descending), then by count (descending)
+     */
+    public List<HotSpot> getHotSpots(int limit) {
+        List<HotSpot> hotSpots = new ArrayList<>();
+        for (int address = 0; address < counts.length; address++) {
+            if (counts[address] > 0) {
+                hotSpots.add(new HotSpot(address, counts[address], cycles[address]));
+            }
+        }
+        hotSpots.sort(Comparator.comparingLong(HotSpot::getCycles)
+                .thenComparingLong(HotSpot::getCount)
+                .reversed()
+                .thenComparingInt(HotSpot::getAddress));
+        return (hotSpots.size() > limit) ? new ArrayList<>(hotSpots.subList(0, limit)) : hotSpots;
+    }
+
+    /**
+     * Prints hot spots report, one instruction per line: address, count, cycles, percentage of all cycles and
+     * disassembled instruction.
+     *
+     * @param limit        maximal number of hot spots
+     * @param disassembler disassembler; or null if mnemonics should not be printed
+     * @param writer       output writer
+     * @throws IOException if the output cannot be written
+     */
+    public void printHotSpots(int limit, Disassembler disassembler, Writer writer) throws IOException {
+        long totalCycles = 0;
+        for (long c : cycles) {
+            totalCycles += c;
+        }
+        for (HotSpot hotSpot : getHotSpots(limit)) {
+            double percent = (totalCycles == 0) ? 0 : (100.0 * hotSpot.getCycles() / totalCycles);
+            StringBuilder line = new StringBuilder(String.format(
+                    "%08X %12d %14d %6.2f%%", hotSpot.getAddress(), hotSpot.getCount(), hotSpot.getCycles(), percent
+            ));
+            if (disassembler != null) {
+                line.append("  ");
+                try {
+                    line.append(disassembler.disassemble(hotSpot.getAddress()).getMnemo());
+                } catch (InvalidInstructionException | IndexOutOfBoundsException e) {
+                    line.append("[invalid]");
+                }
+            }
+            writer.write(line.append('\n').toString());
+        }
+    }
+
+    /**
+     * Writes the call tree in the flamegraph "folded stacks" format.
+     * <p>
+     * Each line contains one stack with cycles spent directly in its top frame. The root frame is named "main".
+     *
+     * @param names  names of subroutines by address (e.g. labels from debug information); if it returns null,
+     *               hexadecimal address is used
+     * @param writer output writer
+     * @throws IOException if the output cannot be written
+     */
+    public void writeFlameGraph(IntFunction<String> names, Writer writer) throws IOException {
+        Objects.requireNonNull(names);
+        for (int node = 0; node < nodeCount; node++) {
+            long selfCycles = nodeCycles[node];
+            if (selfCycles == 0) {
+                continue;
+            }
+            StringBuilder stack = new StringBuilder();
+            for (int frame = node; frame != ROOT; frame = nodeParent[frame]) {
+                stack.insert(0, ';' + frameName(names, nodeAddress[frame]));
+            }
+            writer.write(stack.insert(0, "main").append(' ').append(selfCycles).append('\n').toString());
+        }
+    }
+
+    /**
+     * Writes the call tree in the flamegraph "folded stacks" format, with subroutines named by their addresses.
+     *
+     * @param writer output writer
+     * @throws IOException if the output cannot be written
+     */
+    public void writeFlameGraph(Writer writer) throws IOException {
+        writeFlameGraph(address -> null, writer);
+    }
+
+    private static String frameName(IntFunction<String> names, int address) {
+        String name = names.apply(address);
+        return (name == null) ? String.format("0x%04X", address) : name.replace(';', '_').replace(' ', '_');
+    }
+
+    private int findOrAddChild(int parent, int address) {
+        for (int child = nodeFirstChild[parent]; child != -1; child = nodeNextSibling[child]) {
+            if (nodeAddress[child] == address) {
+                return child;
+            }
+        }
+        if (nodeCount == nodeAddress.length) {
+            int newLength = nodeCount * 2;
+            nodeAddress = Arrays.copyOf(nodeAddress, newLength);
+            nodeParent = Arrays.copyOf(nodeParent, newLength);
+            nodeFirstChild = Arrays.copyOf(nodeFirstChild, newLength);
+            nodeNextSibling = Arrays.copyOf(nodeNextSibling, newLength);
+            nodeCycles = Arrays.copyOf(nodeCycles, newLength);
+        }
+        int node = nodeCount++;
+        nodeAddress[node] = address;
+        nodeParent[node] = parent;
+        nodeFirstChild[node] = -1;
+        nodeNextSibling[node] = nodeFirstChild[parent];
+        nodeCycles[node] = 0;
+        nodeFirstChild[parent] = node;
+        return node;
+    }
+
+    /**
+     * Instruction address with its execution statistics.
+     */
+    public static final class HotSpot {
+        private final int address;
+        private final long count;
+        private final long cycles;
+
+        /**
+         * Creates new hot spot.
+         *
+         * @param address instruction address
+         * @param count   number of executions
+         * @param cycles  sum of cycles
+         */
+        public HotSpot(int address, long count, long cycles) {
+            this.address = address;
+            this.count = count;
+            this.cycles = cycles;
+        }
+
+        /**
+         * Get instruction address.
+         *
+         * @return instruction address
+         */
+        public int getAddress() {
+            return address;
+        }
+
+        /**
+         * Get number of executions.
+         *
+         * @return number of executions
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get sum of cycles of all executions.
+         *
+         * @return cycles
+         */
+        public long getCycles() {
+            return cycles;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            HotSpot hotSpot = (HotSpot) o;
+            return address == hotSpot.address && count == hotSpot.count && cycles == hotSpot.cycles;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(address, count, cycles);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("HotSpot{address=%04X, count=%d, cycles=%d}", address, count, cycles);
+        }
+    }
+}
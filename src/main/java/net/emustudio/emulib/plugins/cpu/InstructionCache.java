@@ -0,0 +1,141 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cache of instructions indexed by their start address, shared by {@link CachedDecoder} and
+ * {@link CachedDisassembler}.
+ * <p>
+ * Entries are kept in pages of {@link #PAGE_SIZE} addresses, allocated lazily. A write into memory at address A
+ * invalidates all instructions which could contain A, i.e. those starting at A - maxInstructionLength + 1 up to A.
+ * <p>
+ * In order not to keep an instruction decoded from memory which has been changed meanwhile, each invalidation
+ * increments a stamp. An instruction is cached only if the stamp has not changed while it was decoded.
+ *
+ * @param <T> instruction type
+ */
+@ThreadSafe
+class InstructionCache<T> {
+    final static int PAGE_BITS = 8;
+    final static int PAGE_SIZE = 1 << PAGE_BITS;
+    private final static int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final int maxInstructionLength;
+    private final AtomicLong stamp = new AtomicLong();
+    private volatile AtomicReferenceArray<AtomicReferenceArray<T>> pages;
+
+    InstructionCache(int memorySize, int maxInstructionLength) {
+        if (maxInstructionLength <= 0) {
+            throw new IllegalArgumentException("Maximum instruction length must be > 0");
+        }
+        this.maxInstructionLength = maxInstructionLength;
+        this.pages = createPages(memorySize);
+    }
+
+    /**
+     * Get current stamp; must be called before decoding an instruction which will be put into the cache.
+     *
+     * @return current stamp
+     */
+    long stamp() {
+        return stamp.get();
+    }
+
+    /**
+     * Get cached instruction.
+     *
+     * @param address instruction start address
+     * @return cached instruction, or null if the instruction is not cached
+     */
+    T get(int address) {
+        AtomicReferenceArray<AtomicReferenceArray<T>> pages = this.pages;
+        int pageIndex = address >>> PAGE_BITS;
+        if (pageIndex >= pages.length()) {
+            return null;
+        }
+        AtomicReferenceArray<T> page = pages.get(pageIndex);
+        return (page == null) ? null : page.get(address & PAGE_MASK);
+    }
+
+    /**
+     * Puts an instruction into the cache, if no invalidation has happened since the given stamp.
+     *
+     * @param address     instruction start address
+     * @param instruction instruction
+     * @param stamp       stamp obtained before the instruction was decoded
+     */
+    void put(int address, T instruction, long stamp) {
+        AtomicReferenceArray<AtomicReferenceArray<T>> pages = this.pages;
+        int pageIndex = address >>> PAGE_BITS;
+        if (pageIndex >= pages.length() || this.stamp.get() != stamp) {
+            return;
+        }
+        AtomicReferenceArray<T> page = pages.get(pageIndex);
+        if (page == null) {
+            pages.compareAndSet(pageIndex, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = pages.get(pageIndex);
+        }
+        int offset = address & PAGE_MASK;
+        page.set(offset, instruction);
+        if (this.stamp.get() != stamp) {
+            // invalidation raced with us; it might have missed the instruction
+            page.compareAndSet(offset, instruction, null);
+        }
+    }
+
+    /**
+     * Invalidates all instructions which could contain given address.
+     *
+     * @param address changed memory address
+     */
+    void invalidate(int address) {
+        stamp.incrementAndGet();
+        AtomicReferenceArray<AtomicReferenceArray<T>> pages = this.pages;
+        int from = Math.max(0, address - maxInstructionLength + 1);
+        for (int i = from; i <= address; i++) {
+            int pageIndex = i >>> PAGE_BITS;
+            if (pageIndex >= pages.length()) {
+                return;
+            }
+            AtomicReferenceArray<T> page = pages.get(pageIndex);
+            if (page != null) {
+                page.set(i & PAGE_MASK, null);
+            }
+        }
+    }
+
+    /**
+     * Invalidates whole cache.
+     *
+     * @param memorySize new memory size
+     */
+    void invalidateAll(int memorySize) {
+        stamp.incrementAndGet();
+        pages = createPages(memorySize);
+    }
+
+    private static <T> AtomicReferenceArray<AtomicReferenceArray<T>> createPages(int memorySize) {
+        return new AtomicReferenceArray<>((Math.max(0, memorySize) + PAGE_SIZE - 1) >>> PAGE_BITS);
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.Immutable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instruction set described by bit patterns, used by table-driven {@link TableDecoder} and
+ * {@link TableDisassembler}.
+ * <p>
+ * The description is a text, one instruction per line. Each instruction is given by a bit pattern of its bytes
+ * (8 characters per byte, bytes separated by spaces) and a disassembly format in double quotes:
+ * <pre>
+ * # 8080 subset
+ * table reg B C D E H L M A
+ * 01110110          "HLT"
+ * 01dddsss          "MOV {d:reg},{s:reg}"
+ * 00ddd110 iiiiiiii "MVI {d:reg},{i:X2}"
+ * 11000011 llllllll hhhhhhhh "JMP {h:X2}{l:X2}"
+ * </pre>
+ * Pattern characters are:
+ * <ul>
+ *     <li><code>0</code>, <code>1</code> - fixed bit</li>
+ *     <li><code>.</code> - ignored bit</li>
+ *     <li>a letter - bit of the named field. Bits of a field are read from the most significant to the least
+ *     significant, in the order of appearance, so a field can span more bytes.</li>
+ * </ul>
+ * If more patterns match, the one with most fixed bits wins; for equal counts, the first declared one wins.
+ * <p>
+ * Format placeholders are <code>{f}</code> (decimal value of field f), <code>{f:Xn}</code> (hexadecimal value,
+ * padded with zeroes to n digits) and <code>{f:table}</code> (value used as an index into a table declared by the
+ * <code>table</code> line). The first word of the format is the instruction mnemonic.
+ * <p>
+ * The description is compiled into lookup tables when parsed: candidate instructions are indexed by the value of the
+ * first byte, and each candidate is matched by precomputed masks. No reflection or code generation is involved.
+ * <p>
+ * Decoded instructions contain the mnemonic and instruction index under {@link #INSTRUCTION_KEY}, and values of
+ * fields under keys given by {@link #getFieldKey(char)}.
+ */
+@Immutable
+public class InstructionSet {
+    /**
+     * Key of decoded instruction under which the mnemonic (string) and instruction index (constant) are stored.
+     */
+    public final static int INSTRUCTION_KEY = 0;
+
+    private final static int FORMAT_LITERAL = 0;
+    private final static int FORMAT_DECIMAL = 1;
+    private final static int FORMAT_HEX = 2;
+    private final static int FORMAT_TABLE = 3;
+
+    private final Map<Character, Integer> fieldKeys;
+    private final Instruction[][] candidates = new Instruction[256][];
+    private final int maxInstructionLength;
+
+    private InstructionSet(List<Instruction> instructions, Map<Character, Integer> fieldKeys) {
+        this.fieldKeys = fieldKeys;
+
+        List<Instruction> sorted = new ArrayList<>(instructions);
+        sorted.sort(Comparator.comparingInt((Instruction i) -> -i.fixedBits).thenComparingInt(i -> i.index));
+        int maxLength = 1;
+        for (int value = 0; value < 256; value++) {
+            List<Instruction> matching = new ArrayList<>();
+            for (Instruction instruction : sorted) {
+                if ((value & instruction.masks[0]) == instruction.values[0]) {
+                    matching.add(instruction);
+                }
+                maxLength = Math.max(maxLength, instruction.length);
+            }
+            candidates[value] = matching.toArray(new Instruction[0]);
+        }
+        this.maxInstructionLength = maxLength;
+    }
+
+    /**
+     * Parses instruction set description.
+     *
+     * @param description instruction set description
+     * @return instruction set
+     * @throws IllegalArgumentException if the description is not valid
+     */
+    public static InstructionSet parse(String description) {
+        try {
+            return parse(new StringReader(description));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses instruction set description.
+     *
+     * @param reader reader of instruction set description
+     * @return instruction set
+     * @throws IOException              if the description cannot be read
+     * @throws IllegalArgumentException if the description is not valid
+     */
+    public static InstructionSet parse(Reader reader) throws IOException {
+        Map<String, String[]> tables = new HashMap<>();
+        Map<Character, Integer> fieldKeys = new LinkedHashMap<>();
+        List<Instruction> instructions = new ArrayList<>();
+
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                if (line.startsWith("table ")) {
+                    String[] parts = line.split("\\s+");
+                    if (parts.length < 3) {
+                        throw new IllegalArgumentException("Table must have a name and at least one entry");
+                    }
+                    tables.put(parts[1], Arrays.copyOfRange(parts, 2, parts.length));
+                } else {
+                    instructions.add(parseInstruction(line, instructions.size(), tables, fieldKeys));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return new InstructionSet(instructions, Map.copyOf(fieldKeys));
+    }
+
+    /**
+     * Get key under which decoded instructions store value of given field.
+     *
+     * @param field field name
+     * @return key of the field
+     * @throws IllegalArgumentException if there is no such field
+     */
+    public int getFieldKey(char field) {
+        Integer key = fieldKeys.get(field);
+        if (key == null) {
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+        return key;
+    }
+
+    /**
+     * Get number of keys used by decoded instructions (instruction key and all fields).
+     *
+     * @return number of keys
+     */
+    public int getKeyCount() {
+        return fieldKeys.size() + 1;
+    }
+
+    /**
+     * Get maximum instruction length.
+     *
+     * @return maximum instruction length in bytes
+     */
+    public int getMaxInstructionLength() {
+        return maxInstructionLength;
+    }
+
+    /**
+     * Finds instruction at given memory position.
+     *
+     * @param memory         memory; each cell holds one byte
+     * @param memoryPosition instruction start address
+     * @param bytes          buffer for instruction bytes, at least {@link #getMaxInstructionLength()} long
+     * @return matching instruction, or null if no instruction matches
+     */
+    Instruction match(MemoryContext<? extends Number> memory, int memoryPosition, int[] bytes) {
+        bytes[0] = memory.read(memoryPosition).intValue() & 0xFF;
+        int read = 1;
+
+        for (Instruction instruction : candidates[bytes[0]]) {
+            boolean matches = true;
+            for (int i = 1; i < instruction.length; i++) {
+                if (i == read) {
+                    bytes[read] = memory.read(memoryPosition + read).intValue() & 0xFF;
+                    read++;
+                }
+                if ((bytes[i] & instruction.masks[i]) != instruction.values[i]) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return instruction;
+            }
+        }
+        return null;
+    }
+
+    private static Instruction parseInstruction(String line, int index, Map<String, String[]> tables,
+                                                Map<Character, Integer> fieldKeys) {
+        int quote = line.indexOf('"');
+        if (quote < 0 || !line.endsWith("\"") || quote == line.length() - 1) {
+            throw new IllegalArgumentException("Missing format in double quotes");
+        }
+        String format = line.substring(quote + 1, line.length() - 1);
+        String[] patterns = line.substring(0, quote).trim().split("\\s+");
+        if (patterns.length == 0 || patterns[0].isEmpty()) {
+            throw new IllegalArgumentException("Missing bit pattern");
+        }
+
+        int length = patterns.length;
+        int[] masks = new int[length];
+        int[] values = new int[length];
+        int fixedBits = 0;
+        Map<Character, List<int[]>> fieldBits = new LinkedHashMap<>(); // [byte index, bit position]
+        for (int i = 0; i < length; i++) {
+            String pattern = patterns[i];
+            if (pattern.length() != 8) {
+                throw new IllegalArgumentException("Bit pattern of a byte must have 8 characters: " + pattern);
+            }
+            for (int j = 0; j < 8; j++) {
+                char c = pattern.charAt(j);
+                int bit = 7 - j;
+                if (c == '0' || c == '1') {
+                    masks[i] |= 1 << bit;
+                    values[i] |= (c - '0') << bit;
+                    fixedBits++;
+                } else if (Character.isLetter(c)) {
+                    fieldBits.computeIfAbsent(c, k -> new ArrayList<>()).add(new int[]{i, bit});
+                } else if (c != '.') {
+                    throw new IllegalArgumentException("Invalid bit pattern character: " + c);
+                }
+            }
+        }
+
+        Field[] fields = new Field[fieldBits.size()];
+        int f = 0;
+        for (Map.Entry<Character, List<int[]>> entry : fieldBits.entrySet()) {
+            if (entry.getValue().size() > 32) {
+                throw new IllegalArgumentException("Field " + entry.getKey() + " is longer than 32 bits");
+            }
+            int key = fieldKeys.computeIfAbsent(entry.getKey(), k -> fieldKeys.size() + 1);
+            fields[f++] = new Field(entry.getKey(), key, entry.getValue());
+        }
+        FormatPart[] formatParts = parseFormat(format, fields, tables);
+        String mnemonic = format.trim().split("\\s+", 2)[0];
+        return new Instruction(index, mnemonic, length, masks, values, fixedBits, fields, formatParts);
+    }
+
+    private static FormatPart[] parseFormat(String format, Field[] fields, Map<String, String[]> tables) {
+        List<FormatPart> parts = new ArrayList<>();
+        int position = 0;
+        while (position < format.length()) {
+            int open = format.indexOf('{', position);
+            if (open < 0) {
+                parts.add(new FormatPart(FORMAT_LITERAL, format.substring(position), -1, 0, null));
+                break;
+            }
+            if (open > position) {
+                parts.add(new FormatPart(FORMAT_LITERAL, format.substring(position, open), -1, 0, null));
+            }
+            int close = format.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed format placeholder");
+            }
+            String placeholder = format.substring(open + 1, close);
+            String[] nameAndStyle = placeholder.split(":", 2);
+            if (nameAndStyle[0].length() != 1) {
+                throw new IllegalArgumentException("Invalid field name: " + nameAndStyle[0]);
+            }
+            int fieldIndex = -1;
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].name == nameAndStyle[0].charAt(0)) {
+                    fieldIndex = i;
+                }
+            }
+            if (fieldIndex < 0) {
+                throw new IllegalArgumentException("Field " + nameAndStyle[0] + " is not in the bit pattern");
+            }
+
+            if (nameAndStyle.length == 1) {
+                parts.add(new FormatPart(FORMAT_DECIMAL, null, fieldIndex, 0, null));
+            } else if (nameAndStyle[1].matches("X\\d*")) {
+                int digits = (nameAndStyle[1].length() == 1) ? 1 : Integer.parseInt(nameAndStyle[1].substring(1));
+                parts.add(new FormatPart(FORMAT_HEX, null, fieldIndex, digits, null));
+            } else {
+                String[] table = tables.get(nameAndStyle[1]);
+                if (table == null) {
+                    throw new IllegalArgumentException("Unknown table: " + nameAndStyle[1]);
+                }
+                parts.add(new FormatPart(FORMAT_TABLE, null, fieldIndex, 0, table));
+            }
+            position = close + 1;
+        }
+        return parts.toArray(new FormatPart[0]);
+    }
+
+    static final class Instruction {
+        final int index;
+        final String mnemonic;
+        final int length;
+        final int[] masks;
+        final int[] values;
+        final int fixedBits;
+        final Field[] fields;
+        private final FormatPart[] format;
+
+        Instruction(int index, String mnemonic, int length, int[] masks, int[] values, int fixedBits,
+                    Field[] fields, FormatPart[] format) {
+            this.index = index;
+            this.mnemonic = mnemonic;
+            this.length = length;
+            this.masks = masks;
+            this.values = values;
+            this.fixedBits = fixedBits;
+            this.fields = fields;
+            this.format = format;
+        }
+
+        String format(int[] bytes) {
+            StringBuilder result = new StringBuilder();
+            for (FormatPart part : format) {
+                if (part.kind == FORMAT_LITERAL) {
+                    result.append(part.literal);
+                    continue;
+                }
+                int value = fields[part.fieldIndex].extract(bytes);
+                switch (part.kind) {
+                    case FORMAT_DECIMAL:
+                        result.append(value);
+                        break;
+                    case FORMAT_HEX:
+                        String hex = Integer.toHexString(value).toUpperCase();
+                        for (int i = hex.length(); i < part.digits; i++) {
+                            result.append('0');
+                        }
+                        result.append(hex);
+                        break;
+                    default:
+                        result.append((value >= 0 && value < part.table.length) ? part.table[value] : "?");
+                }
+            }
+            return result.toString();
+        }
+    }
+
+    static final class Field {
+        final char name;
+        final int key;
+        final int length;
+        // runs of adjacent bits within a byte, from the most significant
+        private final int[] runBytes;
+        private final int[] runShifts;
+        private final int[] runWidths;
+
+        Field(char name, int key, List<int[]> bits) {
+            this.name = name;
+            this.key = key;
+            this.length = bits.size();
+
+            List<int[]> runs = new ArrayList<>(); // [byte index, lowest bit, width]
+            for (int[] bit : bits) {
+                int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+                if (last != null && last[0] == bit[0] && last[1] == bit[1] + 1) {
+                    last[1] = bit[1];
+                    last[2]++;
+                } else {
+                    runs.add(new int[]{bit[0], bit[1], 1});
+                }
+            }
+            this.runBytes = new int[runs.size()];
+            this.runShifts = new int[runs.size()];
+            this.runWidths = new int[runs.size()];
+            for (int i = 0; i < runs.size(); i++) {
+                runBytes[i] = runs.get(i)[0];
+                runShifts[i] = runs.get(i)[1];
+                runWidths[i] = runs.get(i)[2];
+            }
+        }
+
+        int extract(int[] bytes) {
+            int value = 0;
+            for (int i = 0; i < runBytes.length; i++) {
+                value = (value << runWidths[i]) | ((bytes[runBytes[i]] >>> runShifts[i]) & ((1 << runWidths[i]) - 1));
+            }
+            return value;
+        }
+    }
+
+    private static final class FormatPart {
+        final int kind;
+        final String literal;
+        final int fieldIndex;
+        final int digits;
+        final String[] table;
+
+        FormatPart(int kind, String literal, int fieldIndex, int digits, String[] table) {
+            this.kind = kind;
+            this.literal = literal;
+            this.fieldIndex = fieldIndex;
+            this.digits = digits;
+            this.table = table;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+
+/**
+ * Statistical sampling profiler.
+ * <p>
+ * A background thread periodically reads location of the executed instruction while the CPU is running, and counts
+ * samples per address in a concurrent histogram. The CPU thread is not involved, besides publishing its instruction
+ * location (see {@link AbstractCPU#publishInstructionLocation(int)}), so the profiler is suitable for long runs where
+ * full profiling by {@link GuestProfiler} would be too costly.
+ * <p>
+ * Sampling runs only when the CPU is in {@link CPU.RunState#STATE_RUNNING} state. The sampling interval can be
+ * changed at any time.
+ */
+@ThreadSafe
+public class SamplingProfiler implements CPU.CPUListener, AutoCloseable {
+    private final CPU cpu;
+    private final IntSupplier location;
+    private final AtomicLongArray histogram;
+    private final AtomicLong totalSamples = new AtomicLong();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SamplingProfiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean running;
+    // guarded by "this"
+    private ScheduledFuture<?> samplingTask;
+
+    /**
+     * Creates new sampling profiler of a CPU which publishes its instruction location.
+     * <p>
+     * Sampling does not start until {@link #start(long, TimeUnit)} is called. The profiler can be attached to
+     * a CPU which is already running.
+     *
+     * @param cpu        CPU
+     * @param memorySize size of the address space; samples outside are ignored
+     */
+    public SamplingProfiler(AbstractCPU cpu, int memorySize) {
+        this(cpu, cpu::getPublishedInstructionLocation, memorySize);
+    }
+
+    /**
+     * Creates new sampling profiler.
+     * <p>
+     * Sampling does not start until {@link #start(long, TimeUnit)} is called. If the CPU is an
+     * {@link AbstractCPU}, its current run state is taken over; otherwise the CPU is assumed not to be running
+     * until it notifies a run state change.
+     *
+     * @param cpu        CPU; used for tracking its run state
+     * @param location   lock-free supplier of instruction location being executed; called from the sampling thread
+     * @param memorySize size of the address space; samples outside are ignored
+     */
+    public SamplingProfiler(CPU cpu, IntSupplier location, int memorySize) {
+        if (memorySize <= 0) {
+            throw new IllegalArgumentException("Memory size must be > 0");
+        }
+        this.cpu = Objects.requireNonNull(cpu);
+        this.location = Objects.requireNonNull(location);
+        this.histogram = new AtomicLongArray(memorySize);
+        cpu.addCPUListener(this);
+        if (cpu instanceof AbstractCPU) {
+            running = (((AbstractCPU) cpu).getRunState() == CPU.RunState.STATE_RUNNING);
+        }
+    }
+
+    /**
+     * Starts sampling, or changes the sampling interval if already started.
+     *
+     * @param interval sampling interval (must be &gt; 0)
+     * @param unit     time unit of the interval
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Sampling interval must be > 0");
+        }
+        if (samplingTask != null) {
+            samplingTask.cancel(false);
+        }
+        samplingTask = sampler.scheduleAtFixedRate(this::sample, interval, interval, unit);
+    }
+
+    /**
+     * Stops sampling. Collected samples are kept.
+     */
+    public synchronized void stop() {
+        if (samplingTask != null) {
+            samplingTask.cancel(false);
+            samplingTask = null;
+        }
+    }
+
+    /**
+     * Stops sampling, terminates the sampling thread and stops listening on the CPU.
+     */
+    @Override
+    public void close() {
+        stop();
+        sampler.shutdownNow();
+        cpu.removeCPUListener(this);
+    }
+
+    /**
+     * Takes one sample, if the CPU is running. Called periodically by the sampling thread.
+     */
+    void sample() {
+        if (running) {
+            int address = location.getAsInt();
+            if (address >= 0 && address < histogram.length()) {
+                histogram.incrementAndGet(address);
+                totalSamples.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Clears all samples.
+     */
+    public void reset() {
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+        totalSamples.set(0);
+    }
+
+    /**
+     * Get number of samples at an address.
+     *
+     * @param address instruction address
+     * @return number of samples
+     */
+    public long getSamples(int address) {
+        return histogram.get(address);
+    }
+
+    /**
+     * Get number of all samples.
+     *
+     * @return number of samples
+     */
+    public long getTotalSamples() {
+        return totalSamples.get();
+    }
+
+    /**
+     * Get addresses with the most samples.
+     *
+     * @param limit maximal number of addresses
+     * @return hot spots, sorted by number of samples (descending)
+     */
+    public List<HotSpot> getHotSpots(int limit) {
+        List<HotSpot> hotSpots = new ArrayList<>();
+        for (int address = 0; address < histogram.length(); address++) {
+            long samples = histogram.get(address);
+            if (samples > 0) {
+                hotSpots.add(new HotSpot(address, samples));
+            }
+        }
+        hotSpots.sort(Comparator.comparingLong(HotSpot::getSamples).reversed().thenComparingInt(HotSpot::getAddress));
+        return (hotSpots.size() > limit) ? new ArrayList<>(hotSpots.subList(0, limit)) : hotSpots;
+    }
+
+    @Override
+    public void runStateChanged(CPU.RunState runState) {
+        running = (runState == CPU.RunState.STATE_RUNNING);
+    }
+
+    @Override
+    public void internalStateChanged() {
+
+    }
+
+    /**
+     * Instruction address with number of samples.
+     */
+    public static final class HotSpot {
+        private final int address;
+        private final long samples;
+
+        /**
+         * Creates new hot spot.
+         *
+         * @param address instruction address
+         * @param samples number of samples
+         */
+        public HotSpot(int address, long samples) {
+            this.address = address;
+            this.samples = samples;
+        }
+
+        /**
+         * Get instruction address.
+         *
+         * @return instruction address
+         */
+        public int getAddress() {
+            return address;
+        }
+
+        /**
+         * Get number of samples.
+         *
+         * @return number of samples
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            HotSpot hotSpot = (HotSpot) o;
+            return address == hotSpot.address && samples == hotSpot.samples;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(address, samples);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("HotSpot{address=%04X, samples=%d}", address, samples);
+        }
+    }
+}
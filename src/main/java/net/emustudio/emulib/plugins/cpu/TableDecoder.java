@@ -0,0 +1,83 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Objects;
+
+/**
+ * Table-driven decoder of instructions described by an {@link InstructionSet}.
+ * <p>
+ * Each thread reuses its own {@link DecodedInstruction} and image buffer, so the returned instruction is valid only
+ * until the next call of {@link #decode(int)} in the same thread.
+ */
+@ThreadSafe
+public class TableDecoder implements Decoder {
+    private final InstructionSet instructionSet;
+    private final MemoryContext<? extends Number> memory;
+    private final ThreadLocal<State> state;
+
+    /**
+     * Creates new table-driven decoder.
+     *
+     * @param instructionSet instruction set
+     * @param memory         memory; each cell holds one byte
+     */
+    public TableDecoder(InstructionSet instructionSet, MemoryContext<? extends Number> memory) {
+        this.instructionSet = Objects.requireNonNull(instructionSet);
+        this.memory = Objects.requireNonNull(memory);
+        this.state = ThreadLocal.withInitial(() -> new State(instructionSet));
+    }
+
+    @Override
+    public DecodedInstruction decode(int memoryPosition) throws InvalidInstructionException {
+        State state = this.state.get();
+        InstructionSet.Instruction instruction = instructionSet.match(memory, memoryPosition, state.bytes);
+        if (instruction == null) {
+            throw new InvalidInstructionException(String.format("Invalid instruction at %04X", memoryPosition));
+        }
+
+        DecodedInstruction result = state.instruction;
+        result.reset();
+        result.add(InstructionSet.INSTRUCTION_KEY, instruction.mnemonic, instruction.index);
+        for (InstructionSet.Field field : instruction.fields) {
+            result.add(field.key, field.extract(state.bytes), field.length);
+        }
+        byte[] image = state.image;
+        for (int i = 0; i < instruction.length; i++) {
+            image[i] = (byte) state.bytes[i];
+        }
+        result.setImage(image, instruction.length);
+        return result;
+    }
+
+    private static final class State {
+        final int[] bytes;
+        final byte[] image;
+        final DecodedInstruction instruction;
+
+        State(InstructionSet instructionSet) {
+            this.bytes = new int[instructionSet.getMaxInstructionLength()];
+            this.image = new byte[instructionSet.getMaxInstructionLength()];
+            this.instruction = new DecodedInstruction(instructionSet.getKeyCount());
+        }
+    }
+}
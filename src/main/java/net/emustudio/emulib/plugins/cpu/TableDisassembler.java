@@ -0,0 +1,126 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Objects;
+
+/**
+ * Table-driven disassembler of instructions described by an {@link InstructionSet}.
+ * <p>
+ * Instructions are formatted by formats from the instruction set description. Operation code is formatted as
+ * hexadecimal bytes separated by spaces.
+ */
+@ThreadSafe
+public class TableDisassembler implements Disassembler {
+    private final static char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final InstructionSet instructionSet;
+    private final MemoryContext<? extends Number> memory;
+    private final ThreadLocal<int[]> bytes;
+
+    /**
+     * Creates new table-driven disassembler.
+     *
+     * @param instructionSet instruction set
+     * @param memory         memory; each cell holds one byte
+     */
+    public TableDisassembler(InstructionSet instructionSet, MemoryContext<? extends Number> memory) {
+        this.instructionSet = Objects.requireNonNull(instructionSet);
+        this.memory = Objects.requireNonNull(memory);
+        this.bytes = ThreadLocal.withInitial(() -> new int[instructionSet.getMaxInstructionLength()]);
+    }
+
+    @Override
+    public DisassembledInstruction disassemble(int memoryPosition) throws InvalidInstructionException {
+        int[] bytes = this.bytes.get();
+        InstructionSet.Instruction instruction = instructionSet.match(memory, memoryPosition, bytes);
+        if (instruction == null) {
+            throw new InvalidInstructionException(String.format("Invalid instruction at %04X", memoryPosition));
+        }
+
+        return new DisassembledInstruction(memoryPosition, instruction.format(bytes), formatOpCode(bytes, instruction));
+    }
+
+    /**
+     * Returns an address in the memory of the next instruction.
+     * <p>
+     * If there is no valid instruction at given location, the next location is returned.
+     *
+     * @param memoryPosition The memory location of the instruction
+     * @return Memory position of next instruction
+     * @throws IndexOutOfBoundsException when memory location exceeds the bounds
+     */
+    @Override
+    public int getNextInstructionPosition(int memoryPosition) throws IndexOutOfBoundsException {
+        InstructionSet.Instruction instruction = instructionSet.match(memory, memoryPosition, bytes.get());
+        return memoryPosition + ((instruction == null) ? 1 : instruction.length);
+    }
+
+    /**
+     * Disassembles instructions in a memory range in one pass.
+     * <p>
+     * One instance of {@link DisassembledInstruction} is reused for all instructions passed to the sink.
+     *
+     * @param from start address of the first instruction
+     * @param to   end address of the range (exclusive); the last instruction starts before it
+     * @param sink sink of disassembled instructions
+     * @return address following the last disassembled instruction
+     */
+    @Override
+    public int disassemble(int from, int to, InstructionSink sink) {
+        int[] bytes = this.bytes.get();
+        DisassembledInstruction reused = new DisassembledInstruction(from, null, null);
+        int position = from;
+        while (position < to) {
+            InstructionSet.Instruction instruction;
+            try {
+                instruction = instructionSet.match(memory, position, bytes);
+            } catch (IndexOutOfBoundsException e) {
+                break;
+            }
+            int nextPosition = position + ((instruction == null) ? 1 : instruction.length);
+            DisassembledInstruction result = null;
+            if (instruction != null) {
+                reused.setAddress(position);
+                reused.setInstruction(instruction.format(bytes), formatOpCode(bytes, instruction));
+                result = reused;
+            }
+            boolean proceed = sink.accept(position, nextPosition, result);
+            position = nextPosition;
+            if (!proceed) {
+                break;
+            }
+        }
+        return position;
+    }
+
+    private static String formatOpCode(int[] bytes, InstructionSet.Instruction instruction) {
+        StringBuilder opCode = new StringBuilder(instruction.length * 3);
+        for (int i = 0; i < instruction.length; i++) {
+            if (i > 0) {
+                opCode.append(' ');
+            }
+            opCode.append(HEX_DIGITS[bytes[i] >>> 4]).append(HEX_DIGITS[bytes[i] & 0xF]);
+        }
+        return opCode.toString();
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.cpu.CPU.RunState;
+import net.jcip.annotations.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Execution trace recorder.
+ * <p>
+ * Keeps the last N executed instructions in a preallocated off-heap ring buffer. Each record has 24 bytes:
+ * cycle (long), program counter (int), instruction length (int) and up to 8 instruction bytes (long, the first byte
+ * is the least significant). Recording an instruction is just a few absolute buffer puts, without allocation.
+ * <p>
+ * CPUs based on {@link AbstractCPU} record instructions in their execution loop, if a recorder is set
+ * (see {@link AbstractCPU#setTraceRecorder(TraceRecorder)}):
+ * <pre>
+ * TraceRecorder tracer = getTraceRecorder(); // once, before the loop
+ * while (...) {
+ *     if (tracer != null) {
+ *         tracer.record(pc, opcodeBytes, length, cycles);
+ *     }
+ *     ...
+ * }
+ * </pre>
+ * The trace can be dumped into a file (automatically when a run of the CPU ends on a breakpoint or an error, if a dump
+ * file is given), read back by {@link #read(Path)} and printed with the help of plugin's {@link Disassembler}.
+ * <p>
+ * Records must be written from a single thread (the CPU thread); dumping should happen when the CPU is not running.
+ */
+@NotThreadSafe
+public class TraceRecorder {
+    /**
+     * Size of one record in bytes.
+     */
+    public final static int RECORD_SIZE = 24;
+    private final static Logger LOGGER = LoggerFactory.getLogger(TraceRecorder.class);
+    private final static int MAGIC = 0x454D5554; // "EMUT"
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final Path dumpFile;
+    private long count;
+
+    /**
+     * Creates new trace recorder without automatic dumps.
+     *
+     * @param capacity number of records kept in the ring buffer
+     */
+    public TraceRecorder(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates new trace recorder.
+     *
+     * @param capacity number of records kept in the ring buffer
+     * @param dumpFile file where the trace is dumped when the CPU stops on a breakpoint or an error; or null
+     */
+    public TraceRecorder(int capacity, Path dumpFile) {
+        if (capacity <= 0 || capacity > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.dumpFile = dumpFile;
+        this.buffer = ByteBuffer.allocateDirect(capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Records executed instruction.
+     *
+     * @param pc     address of the instruction
+     * @param opcode instruction bytes, the first byte is the least significant
+     * @param length instruction length in bytes (up to 8 bytes are kept)
+     * @param cycle  CPU cycle when the instruction was executed
+     */
+    public void record(int pc, long opcode, int length, long cycle) {
+        int position = (int) (count++ % capacity) * RECORD_SIZE;
+        buffer.putLong(position, cycle);
+        buffer.putInt(position + 8, pc);
+        buffer.putInt(position + 12, length);
+        buffer.putLong(position + 16, opcode);
+    }
+
+    /**
+     * Get number of records in the buffer.
+     *
+     * @return number of records, at most the capacity
+     */
+    public int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    /**
+     * Get total number of recorded instructions, including those already overwritten.
+     *
+     * @return total number of recorded instructions
+     */
+    public long getTotalCount() {
+        return count;
+    }
+
+    /**
+     * Removes all records.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Get records in the buffer, from the oldest one.
+     *
+     * @return records
+     */
+    public List<Record> getRecords() {
+        List<Record> records = new ArrayList<>(size());
+        long first = count - size();
+        for (long i = first; i < count; i++) {
+            int position = (int) (i % capacity) * RECORD_SIZE;
+            records.add(new Record(buffer.getLong(position), buffer.getInt(position + 8),
+                    buffer.getInt(position + 12), buffer.getLong(position + 16)));
+        }
+        return records;
+    }
+
+    /**
+     * Dumps records into a channel, from the oldest one.
+     * <p>
+     * Format: int magic "EMUT", int version, long records count (header is big-endian), records in little-endian.
+     *
+     * @param channel output channel
+     * @throws IOException if the trace cannot be written
+     */
+    public void dump(WritableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(size()).flip();
+        writeFully(channel, header);
+
+        int size = size();
+        int oldest = (int) ((count - size) % capacity);
+        int firstPart = Math.min(size, capacity - oldest);
+        writeFully(channel, slice(oldest, firstPart));
+        writeFully(channel, slice(0, size - firstPart));
+    }
+
+    /**
+     * Dumps records into a file.
+     *
+     * @param file output file
+     * @throws IOException if the trace cannot be written
+     */
+    public void dump(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            dump(channel);
+        }
+    }
+
+    /**
+     * Called by {@link AbstractCPU} when the CPU stops. Dumps the trace into the dump file, if it was given and the CPU
+     * stopped on a breakpoint or an error.
+     *
+     * @param runState new run state
+     */
+    void cpuStopped(RunState runState) {
+        if (dumpFile != null && runState != RunState.STATE_STOPPED_NORMAL && runState != RunState.STATE_RUNNING) {
+            try {
+                dump(dumpFile);
+            } catch (IOException e) {
+                LOGGER.error("Could not dump execution trace to {}", dumpFile, e);
+            }
+        }
+    }
+
+    /**
+     * Reads dumped trace.
+     *
+     * @param file trace file
+     * @return records, from the oldest one
+     * @throws IOException if the file cannot be read or it is not a trace file
+     */
+    public static List<Record> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel);
+        }
+    }
+
+    /**
+     * Reads dumped trace.
+     *
+     * @param channel input channel
+     * @return records, from the oldest one
+     * @throws IOException if the trace cannot be read
+     */
+    public static List<Record> read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not an execution trace");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported execution trace version: " + version);
+        }
+        long size = header.getLong();
+        if (size < 0 || size > Integer.MAX_VALUE / RECORD_SIZE) {
+            throw new IOException("Invalid number of records: " + size);
+        }
+
+        ByteBuffer records = ByteBuffer.allocate((int) size * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, records);
+        records.flip();
+        List<Record> result = new ArrayList<>((int) size);
+        while (records.hasRemaining()) {
+            result.add(new Record(records.getLong(), records.getInt(), records.getInt(), records.getLong()));
+        }
+        return result;
+    }
+
+    /**
+     * Prints records in human-readable form, one instruction per line: cycle, address, instruction bytes and
+     * disassembled instruction.
+     * <p>
+     * The disassembler reads instructions from memory, so the mnemonic is correct only if the code was not
+     * modified since it was recorded.
+     *
+     * @param records      records
+     * @param disassembler disassembler; or null if mnemonics should not be printed
+     * @param writer       output writer
+     * @throws IOException if the output cannot be written
+     */
+    public static void print(List<Record> records, Disassembler disassembler, Writer writer) throws IOException {
+        for (Record record : records) {
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("%10d  %08X ", record.getCycle(), record.getPc()));
+            byte[] bytes = record.getOpcode();
+            for (int i = 0; i < 8; i++) {
+                line.append((i < bytes.length) ? String.format(" %02X", bytes[i]) : "   ");
+            }
+            if (disassembler != null) {
+                line.append("  ");
+                try {
+                    line.append(disassembler.disassemble(record.getPc()).getMnemo());
+                } catch (InvalidInstructionException | IndexOutOfBoundsException e) {
+                    line.append("[invalid]");
+                }
+            }
+            writer.write(line.append('\n').toString());
+        }
+    }
+
+    private ByteBuffer slice(int fromRecord, int records) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit((fromRecord + records) * RECORD_SIZE).position(fromRecord * RECORD_SIZE);
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            return slice;
+        }
+        // dumps are always little-endian
+        ByteBuffer converted = ByteBuffer.allocate(records * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        slice.order(ByteOrder.nativeOrder());
+        while (slice.hasRemaining()) {
+            converted.putLong(slice.getLong()).putInt(slice.getInt()).putInt(slice.getInt()).putLong(slice.getLong());
+        }
+        return converted.flip();
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of execution trace");
+            }
+        }
+    }
+
+    /**
+     * Record of an executed instruction.
+     */
+    public static final class Record {
+        private final long cycle;
+        private final int pc;
+        private final int length;
+        private final long opcode;
+
+        /**
+         * Creates new record.
+         *
+         * @param cycle  CPU cycle
+         * @param pc     instruction address
+         * @param length instruction length in bytes
+         * @param opcode instruction bytes, the first byte is the least significant
+         */
+        public Record(long cycle, int pc, int length, long opcode) {
+            this.cycle = cycle;
+            this.pc = pc;
+            this.length = length;
+            this.opcode = opcode;
+        }
+
+        /**
+         * Get CPU cycle when the instruction was executed.
+         *
+         * @return CPU cycle
+         */
+        public long getCycle() {
+            return cycle;
+        }
+
+        /**
+         * Get instruction address.
+         *
+         * @return program counter
+         */
+        public int getPc() {
+            return pc;
+        }
+
+        /**
+         * Get instruction length.
+         *
+         * @return instruction length in bytes
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Get recorded instruction bytes.
+         *
+         * @return up to 8 first bytes of the instruction
+         */
+        public byte[] getOpcode() {
+            byte[] bytes = new byte[Math.max(0, Math.min(length, 8))];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (opcode >>> (8 * i));
+            }
+            return bytes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Record record = (Record) o;
+            return cycle == record.cycle && pc == record.pc && length == record.length && opcode == record.opcode;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cycle, pc, length, opcode);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Record{cycle=%d, pc=%04X, length=%d, opcode=%X}", cycle, pc, length, opcode);
+        }
+    }
+}
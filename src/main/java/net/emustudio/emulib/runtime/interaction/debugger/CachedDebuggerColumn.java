@@ -0,0 +1,289 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.interaction.debugger;
+
+import net.emustudio.emulib.plugins.cpu.CPU;
+import net.emustudio.emulib.plugins.memory.Memory;
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Debugger column which caches values of another column by location.
+ * <p>
+ * The debugger table asks for values of all visible rows on each repaint. This column computes a value only once,
+ * until the memory it depends on changes:
+ * <ul>
+ *     <li>a memory write invalidates values of locations whose instruction could reach the written page
+ *     (of 256 cells). The write just records a stamp for the page, so it is cheap and does not allocate;</li>
+ *     <li>a change of memory size or of CPU run state invalidates all values (memory notifications might have been
+ *     disabled while the CPU was running). The column must be registered as CPU listener for that;</li>
+ *     <li>setting a value through this column invalidates the location.</li>
+ * </ul>
+ * <p>
+ * Optionally, when a value is not cached, values of following rows are computed in advance, asynchronously.
+ * The wrapped column must be thread-safe in that case.
+ * <p>
+ * Usage:
+ * <pre>
+ * CachedDebuggerColumn&lt;String&gt; mnemo = new CachedDebuggerColumn&lt;&gt;(
+ *     new MnemoColumn(disassembler), memory, 4, disassembler::getNextInstructionPosition, 64, executor);
+ * cpu.addCPUListener(mnemo);
+ * </pre>
+ *
+ * @param <T> Java type of the column
+ */
+@ThreadSafe
+public class CachedDebuggerColumn<T> implements DebuggerColumn<T>, Memory.MemoryListener, CPU.CPUListener {
+    private final static Logger LOGGER = LoggerFactory.getLogger(CachedDebuggerColumn.class);
+    private final static Object NULL = new Object();
+    private final static int PAGE_BITS = 8;
+
+    private final DebuggerColumn<T> column;
+    private final MemoryContext<?> memory;
+    private final int maxInstructionLength;
+    private final IntUnaryOperator nextLocation;
+    private final int prefetchRows;
+    private final Executor executor;
+
+    private final Map<Integer, Entry> values = new ConcurrentHashMap<>();
+    private final AtomicLong stamp = new AtomicLong();
+    private final AtomicBoolean prefetching = new AtomicBoolean();
+    // null until the first notification; the CPU might have been running before
+    private final AtomicReference<CPU.RunState> lastRunState = new AtomicReference<>();
+    // stamp of the last write into each page; values computed before it are invalid
+    private volatile AtomicLongArray pageStamps;
+    // values computed before this stamp are invalid
+    private volatile long invalidatedAll;
+
+    /**
+     * Creates new caching column without prefetching, and registers it as memory listener.
+     *
+     * @param column               cached column
+     * @param memory               memory which the column values depend on
+     * @param maxInstructionLength maximum instruction length in memory cells
+     */
+    public CachedDebuggerColumn(DebuggerColumn<T> column, MemoryContext<?> memory, int maxInstructionLength) {
+        this(column, memory, maxInstructionLength, null, 0, null);
+    }
+
+    /**
+     * Creates new caching column with prefetching, and registers it as memory listener.
+     *
+     * @param column               cached column; must be thread-safe
+     * @param memory               memory which the column values depend on
+     * @param maxInstructionLength maximum instruction length in memory cells
+     * @param nextLocation         computes location of the next row (e.g.
+     *                             <code>disassembler::getNextInstructionPosition</code>)
+     * @param prefetchRows         number of rows to prefetch after a row which was not cached
+     * @param executor             executor running the prefetching
+     */
+    public CachedDebuggerColumn(DebuggerColumn<T> column, MemoryContext<?> memory, int maxInstructionLength,
+                                IntUnaryOperator nextLocation, int prefetchRows, Executor executor) {
+        if (maxInstructionLength <= 0) {
+            throw new IllegalArgumentException("Maximum instruction length must be > 0");
+        }
+        this.column = Objects.requireNonNull(column);
+        this.memory = Objects.requireNonNull(memory);
+        this.maxInstructionLength = maxInstructionLength;
+        this.nextLocation = nextLocation;
+        this.prefetchRows = prefetchRows;
+        this.executor = executor;
+        this.pageStamps = createPageStamps(memory.getSize());
+        memory.addMemoryListener(this);
+    }
+
+    @Override
+    public Class<T> getClassType() {
+        return column.getClassType();
+    }
+
+    @Override
+    public String getTitle() {
+        return column.getTitle();
+    }
+
+    @Override
+    public boolean isEditable() {
+        return column.isEditable();
+    }
+
+    @Override
+    public void setValue(int location, Object value) throws CannotSetDebuggerValueException {
+        try {
+            column.setValue(location, value);
+        } finally {
+            memoryChanged(location);
+        }
+    }
+
+    @Override
+    public T getValue(int location) {
+        Entry entry = values.get(location);
+        if (entry != null && isValid(entry, location)) {
+            return unwrap(entry.value);
+        }
+        Object value = compute(location);
+        prefetch(location);
+        return unwrap(value);
+    }
+
+    @Override
+    public int getDefaultWidth() {
+        return column.getDefaultWidth();
+    }
+
+    /**
+     * Invalidates all cached values.
+     */
+    public void invalidateAll() {
+        pageStamps = createPageStamps(memory.getSize());
+        invalidatedAll = stamp.incrementAndGet();
+        values.clear();
+    }
+
+    /**
+     * Unregisters this column from memory listeners.
+     */
+    public void detach() {
+        memory.removeMemoryListener(this);
+    }
+
+    @Override
+    public void memoryChanged(int memoryPosition) {
+        long newStamp = stamp.incrementAndGet();
+        AtomicLongArray pageStamps = this.pageStamps;
+        int page = memoryPosition >>> PAGE_BITS;
+        if (page < pageStamps.length()) {
+            long current;
+            do {
+                current = pageStamps.get(page);
+            } while (current < newStamp && !pageStamps.compareAndSet(page, current, newStamp));
+        }
+    }
+
+    @Override
+    public void memorySizeChanged() {
+        invalidateAll();
+    }
+
+    @Override
+    public void runStateChanged(CPU.RunState runState) {
+        CPU.RunState previous = lastRunState.getAndSet(runState);
+        boolean wasRunning = (previous == null || previous == CPU.RunState.STATE_RUNNING);
+        if (wasRunning && runState != CPU.RunState.STATE_RUNNING) {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void internalStateChanged() {
+
+    }
+
+    private Object compute(int location) {
+        long currentStamp = stamp.get();
+        T result = column.getValue(location);
+        Object value = (result == null) ? NULL : result;
+        // a write during the computation makes the entry invalid right away
+        values.put(location, new Entry(value, currentStamp));
+        return value;
+    }
+
+    // the value at the location depends on memory cells location .. location + maxInstructionLength - 1
+    private boolean isValid(Entry entry, int location) {
+        if (entry.stamp < invalidatedAll) {
+            return false;
+        }
+        AtomicLongArray pageStamps = this.pageStamps;
+        long lastPage = Math.min(((long) location + maxInstructionLength - 1) >>> PAGE_BITS, pageStamps.length() - 1);
+        for (int page = location >>> PAGE_BITS; page <= lastPage; page++) {
+            if (pageStamps.get(page) > entry.stamp) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isCached(int location) {
+        Entry entry = values.get(location);
+        return entry != null && isValid(entry, location);
+    }
+
+    private void prefetch(int location) {
+        if (executor == null || nextLocation == null || prefetchRows <= 0 || !prefetching.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    int next = location;
+                    for (int i = 0; i < prefetchRows; i++) {
+                        int following = nextLocation.applyAsInt(next);
+                        if (following <= next) {
+                            break;
+                        }
+                        next = following;
+                        if (!isCached(next)) {
+                            compute(next);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // end of memory, or invalid instruction; rows will be computed when shown
+                    LOGGER.debug("Prefetching of debugger column stopped", e);
+                } finally {
+                    prefetching.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            prefetching.set(false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T unwrap(Object value) {
+        return (value == NULL) ? null : (T) value;
+    }
+
+    private static AtomicLongArray createPageStamps(int memorySize) {
+        return new AtomicLongArray((Math.max(0, memorySize) + (1 << PAGE_BITS) - 1) >>> PAGE_BITS);
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long stamp;
+
+        private Entry(Object value, long stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+    }
+}
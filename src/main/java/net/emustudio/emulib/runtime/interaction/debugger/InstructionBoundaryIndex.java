@@ -0,0 +1,260 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.interaction.debugger;
+
+import net.emustudio.emulib.plugins.cpu.Disassembler;
+import net.emustudio.emulib.plugins.memory.Memory;
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Index of instruction boundaries (start addresses of instructions), for scrolling in the debugger table
+ * in both directions.
+ * <p>
+ * The index is built lazily per page of {@link #PAGE_SIZE} memory cells, as a bitmap of instruction starts. A page
+ * is disassembled from the end of the last instruction of the previous page (if the previous page is indexed), or
+ * from the page start. Once a page is indexed, finding the previous or next instruction boundary takes constant time.
+ * <p>
+ * Since instructions of variable length can be disassembled differently from different starting points, a known
+ * boundary (e.g. the current program counter) can be enforced by {@link #anchor(int)}.
+ * <p>
+ * The index registers itself as a memory listener; a write into memory invalidates the page (and the previous page,
+ * whose last instruction might reach into it). Following pages are re-indexed lazily if their first boundary changes.
+ */
+@ThreadSafe
+public class InstructionBoundaryIndex implements Memory.MemoryListener {
+    /**
+     * Size of an indexed page, in memory cells.
+     */
+    public final static int PAGE_SIZE = 1024;
+    private final static int PAGE_BITS = 10;
+    private final static int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final Disassembler disassembler;
+    private final MemoryContext<?> memory;
+    private volatile AtomicReferenceArray<Page> pages;
+
+    private static final class Page {
+        final long[] starts;
+        final int carryIn;
+        final int carryOut;
+
+        Page(long[] starts, int carryIn, int carryOut) {
+            this.starts = starts;
+            this.carryIn = carryIn;
+            this.carryOut = carryOut;
+        }
+
+        // highest boundary offset < offset, or -1
+        int lower(int offset) {
+            for (int word = (offset - 1) >> 6; word >= 0; word--) {
+                long bits = starts[word];
+                if (word == (offset - 1) >> 6) {
+                    int bit = (offset - 1) & 63;
+                    bits &= (bit == 63) ? -1L : ((1L << (bit + 1)) - 1);
+                }
+                if (bits != 0) {
+                    return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+                }
+            }
+            return -1;
+        }
+
+        // lowest boundary offset > offset, or -1
+        int higher(int offset) {
+            for (int word = (offset + 1) >> 6; word < starts.length; word++) {
+                long bits = starts[word];
+                if (word == (offset + 1) >> 6) {
+                    bits &= -1L << ((offset + 1) & 63);
+                }
+                if (bits != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+            }
+            return -1;
+        }
+
+        boolean contains(int offset) {
+            return (starts[offset >> 6] & (1L << offset)) != 0;
+        }
+    }
+
+    /**
+     * Creates new instruction boundary index and registers it as memory listener.
+     *
+     * @param disassembler disassembler
+     * @param memory       memory which the disassembler reads
+     */
+    public InstructionBoundaryIndex(Disassembler disassembler, MemoryContext<?> memory) {
+        this.disassembler = Objects.requireNonNull(disassembler);
+        this.memory = Objects.requireNonNull(memory);
+        this.pages = createPages(memory.getSize());
+        memory.addMemoryListener(this);
+    }
+
+    /**
+     * Determine if an instruction starts at given address.
+     *
+     * @param memoryPosition memory address
+     * @return true if an instruction starts at the address; false otherwise
+     */
+    public boolean isBoundary(int memoryPosition) {
+        Page page = getPage(memoryPosition >>> PAGE_BITS);
+        return page != null && page.contains(memoryPosition & PAGE_MASK);
+    }
+
+    /**
+     * Finds start of the instruction preceding given address.
+     *
+     * @param memoryPosition memory address
+     * @return the highest instruction start lower than the address, or -1 if there is none
+     */
+    public int previous(int memoryPosition) {
+        int pageIndex = memoryPosition >>> PAGE_BITS;
+        int offset = memoryPosition & PAGE_MASK;
+        if (pageIndex >= pages.length()) {
+            pageIndex = pages.length() - 1;
+            offset = PAGE_SIZE;
+        }
+        for (; pageIndex >= 0; pageIndex--, offset = PAGE_SIZE) {
+            Page page = getPage(pageIndex);
+            int result = (page == null) ? -1 : page.lower(offset);
+            if (result >= 0) {
+                return (pageIndex << PAGE_BITS) + result;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds start of the instruction following given address.
+     *
+     * @param memoryPosition memory address
+     * @return the lowest instruction start higher than the address, or -1 if there is none
+     */
+    public int next(int memoryPosition) {
+        int pageIndex = memoryPosition >>> PAGE_BITS;
+        int offset = memoryPosition & PAGE_MASK;
+        for (; pageIndex < pages.length(); pageIndex++, offset = -1) {
+            Page page = getPage(pageIndex);
+            int result = (page == null) ? -1 : page.higher(offset);
+            if (result >= 0) {
+                return (pageIndex << PAGE_BITS) + result;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Ensures that an instruction starts at given address (e.g. at the program counter).
+     * <p>
+     * If the address is not a boundary yet, the rest of its page is disassembled again, starting at the address.
+     *
+     * @param memoryPosition known instruction start
+     */
+    public void anchor(int memoryPosition) {
+        int pageIndex = memoryPosition >>> PAGE_BITS;
+        Page page = getPage(pageIndex);
+        if (page == null || page.contains(memoryPosition & PAGE_MASK)) {
+            return;
+        }
+        long[] starts = page.starts.clone();
+        int offset = memoryPosition & PAGE_MASK;
+        for (int i = offset; i < PAGE_SIZE; i++) {
+            starts[i >> 6] &= ~(1L << i);
+        }
+        int carryOut = scan(memoryPosition, (pageIndex + 1) << PAGE_BITS, starts);
+        pages.compareAndSet(pageIndex, page, new Page(starts, page.carryIn, carryOut));
+    }
+
+    /**
+     * Invalidates whole index.
+     */
+    public void invalidateAll() {
+        pages = createPages(memory.getSize());
+    }
+
+    /**
+     * Unregisters this index from memory listeners.
+     */
+    public void detach() {
+        memory.removeMemoryListener(this);
+    }
+
+    @Override
+    public void memoryChanged(int memoryPosition) {
+        AtomicReferenceArray<Page> pages = this.pages;
+        int pageIndex = memoryPosition >>> PAGE_BITS;
+        if (pageIndex < pages.length()) {
+            pages.set(pageIndex, null);
+            if (pageIndex > 0) {
+                pages.set(pageIndex - 1, null);
+            }
+        }
+    }
+
+    @Override
+    public void memorySizeChanged() {
+        invalidateAll();
+    }
+
+    private Page getPage(int pageIndex) {
+        AtomicReferenceArray<Page> pages = this.pages;
+        if (pageIndex < 0 || pageIndex >= pages.length()) {
+            return null;
+        }
+        int pageStart = pageIndex << PAGE_BITS;
+        Page page = pages.get(pageIndex);
+        Page previous = (pageIndex > 0) ? pages.get(pageIndex - 1) : null;
+        if (page != null && previous == null && pageIndex > 0) {
+            // the previous page was invalidated; its last instruction might end elsewhere now
+            previous = getPage(pageIndex - 1);
+        }
+        int carryIn = (previous == null) ? pageStart : Math.max(pageStart, previous.carryOut);
+
+        if (page != null && (previous == null || page.carryIn == carryIn)) {
+            return page;
+        }
+        long[] starts = new long[PAGE_SIZE / 64];
+        int carryOut = scan(carryIn, pageStart + PAGE_SIZE, starts);
+        Page newPage = new Page(starts, carryIn, carryOut);
+        pages.compareAndSet(pageIndex, page, newPage);
+        return newPage;
+    }
+
+    // marks instruction starts in range [from, to) of single page; returns end of the last instruction
+    private int scan(int from, int to, long[] starts) {
+        if (from >= to) {
+            return from;
+        }
+        int base = (from >>> PAGE_BITS) << PAGE_BITS;
+        return disassembler.disassemble(from, to, (address, nextAddress, instruction) -> {
+            int offset = address - base;
+            starts[offset >> 6] |= 1L << offset;
+            return true;
+        });
+    }
+
+    private static AtomicReferenceArray<Page> createPages(int memorySize) {
+        return new AtomicReferenceArray<>((Math.max(0, memorySize) + PAGE_SIZE - 1) >>> PAGE_BITS);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of memory cells or device data of supported Java types.
+ * <p>
+ * Values are stored in big-endian byte order; <code>null</code> values are encoded as zero.
+ */
+enum CellCodec {
+    BYTE(1, Byte.class, 1) {
+        @Override
+        void write(ByteBuffer buffer, Object value) {
+            buffer.put((value == null) ? 0 : (Byte) value);
+        }
+
+        @Override
+        Object read(ByteBuffer buffer) {
+            return buffer.get();
+        }
+    },
+    SHORT(2, Short.class, 2) {
+        @Override
+        void write(ByteBuffer buffer, Object value) {
+            buffer.putShort((value == null) ? 0 : (Short) value);
+        }
+
+        @Override
+        Object read(ByteBuffer buffer) {
+            return buffer.getShort();
+        }
+    },
+    INTEGER(3, Integer.class, 4) {
+        @Override
+        void write(ByteBuffer buffer, Object value) {
+            buffer.putInt((value == null) ? 0 : (Integer) value);
+        }
+
+        @Override
+        Object read(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+    },
+    LONG(4, Long.class, 8) {
+        @Override
+        void write(ByteBuffer buffer, Object value) {
+            buffer.putLong((value == null) ? 0 : (Long) value);
+        }
+
+        @Override
+        Object read(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    },
+    BOOLEAN(5, Boolean.class, 1) {
+        @Override
+        void write(ByteBuffer buffer, Object value) {
+            buffer.put((byte) (Boolean.TRUE.equals(value) ? 1 : 0));
+        }
+
+        @Override
+        Object read(ByteBuffer buffer) {
+            return buffer.get() != 0;
+        }
+    },
+    CHARACTER(6, Character.class, 2) {
+        @Override
+        void write(ByteBuffer buffer, Object value) {
+            buffer.putChar((value == null) ? 0 : (Character) value);
+        }
+
+        @Override
+        Object read(ByteBuffer buffer) {
+            return buffer.getChar();
+        }
+    };
+
+    final int id;
+    final Class<?> type;
+    final int width;
+
+    CellCodec(int id, Class<?> type, int width) {
+        this.id = id;
+        this.type = type;
+        this.width = width;
+    }
+
+    /**
+     * Writes the value into the buffer.
+     *
+     * @param buffer output buffer
+     * @param value  value of this codec's type, or null
+     */
+    abstract void write(ByteBuffer buffer, Object value);
+
+    /**
+     * Reads a value from the buffer.
+     *
+     * @param buffer input buffer
+     * @return value of this codec's type
+     */
+    abstract Object read(ByteBuffer buffer);
+
+    /**
+     * Determine if the value is zero (or false, or null).
+     *
+     * @param value value of this codec's type, or null
+     * @return true if the value would be encoded as zero
+     */
+    boolean isZero(Object value) {
+        if (value == null) {
+            return true;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue() == 0;
+        } else if (value instanceof Character) {
+            return (Character) value == 0;
+        }
+        return Boolean.FALSE.equals(value);
+    }
+
+    /**
+     * Find codec for given Java type.
+     *
+     * @param type Java type
+     * @return codec
+     * @throws IllegalArgumentException if the type is not supported
+     */
+    static CellCodec forType(Class<?> type) {
+        for (CellCodec codec : values()) {
+            if (codec.type == type) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported data type: " + type);
+    }
+
+    /**
+     * Find codec by its ID.
+     *
+     * @param id codec ID
+     * @return codec, or null if there is no such codec
+     */
+    static CellCodec forId(int id) {
+        for (CellCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary format of device input logs, shared by {@link DeviceInputRecorder} and {@link DeviceInputReplayer}.
+ * <p>
+ * The log starts with a header: int magic "EMUR", short version. Then entries follow, each starting with a
+ * variable-length tag <code>(contextId &lt;&lt; 1) | kind</code>:
+ * <pre>
+ * declaration (kind 1): byte data type codec ID
+ * input       (kind 0): variable-length cycle delta from the previous input, value
+ * </pre>
+ * Variable-length numbers are unsigned LEB128; values are encoded by {@link CellCodec}.
+ */
+class DeviceInputLog {
+    final static int MAGIC = 0x454D5552; // "EMUR"
+    final static int VERSION = 1;
+    final static int HEADER_SIZE = 6;
+    final static int KIND_INPUT = 0;
+    final static int KIND_DECLARATION = 1;
+
+    // the longest entry: tag, cycle delta, 8-byte value
+    final static int MAX_ENTRY_SIZE = 5 + 10 + 8;
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid variable-length number");
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.device.DeviceContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Recorder of device input, for deterministic replay of emulation runs.
+ * <p>
+ * Device contexts wrapped by {@link #record(int, DeviceContext)} log every value returned by
+ * {@link DeviceContext#readData()}, together with the current CPU cycle and the context ID, into an append-only
+ * binary log. The log can be replayed later by {@link DeviceInputReplayer}.
+ * <p>
+ * Entries are encoded compactly (cycles are stored as variable-length deltas) and collected in a direct buffer,
+ * which is written to the file only when it is full, or on {@link #flush()} or {@link #close()}. The recording
+ * overhead of a device read is therefore just a few buffer puts.
+ * <p>
+ * Usage:
+ * <pre>
+ * try (DeviceInputRecorder recorder = new DeviceInputRecorder(path, cpu::getCycles)) {
+ *     DeviceContext&lt;Byte&gt; keyboard = recorder.record(0, keyboardContext);
+ *     // give the wrapped context to the CPU
+ * }
+ * </pre>
+ */
+@ThreadSafe
+public class DeviceInputRecorder implements Closeable {
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final LongSupplier cycles;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Set<Integer> contextIds = new HashSet<>();
+    private long lastCycle;
+    private boolean closed;
+
+    /**
+     * Creates new recorder. An existing file is overwritten.
+     *
+     * @param file   log file
+     * @param cycles source of the current CPU cycle; must be non-decreasing
+     * @throws IOException if the file cannot be created
+     */
+    public DeviceInputRecorder(Path file, LongSupplier cycles) throws IOException {
+        this.cycles = Objects.requireNonNull(cycles);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(DeviceInputLog.MAGIC).putShort((short) DeviceInputLog.VERSION);
+    }
+
+    /**
+     * Wraps a device context so that all its input is recorded.
+     * <p>
+     * Writes are passed to the context without recording.
+     *
+     * @param contextId ID of the context, unique within this recorder; the same ID must be used when replaying
+     * @param context   device context
+     * @param <T>       device data type
+     * @return recording device context
+     * @throws IllegalArgumentException if the ID is negative or already used, or the data type is not supported
+     */
+    public <T> DeviceContext<T> record(int contextId, DeviceContext<T> context) {
+        Objects.requireNonNull(context);
+        if (contextId < 0) {
+            throw new IllegalArgumentException("Context ID must be >= 0");
+        }
+        CellCodec codec = CellCodec.forType(context.getDataType());
+        synchronized (this) {
+            if (!contextIds.add(contextId)) {
+                throw new IllegalArgumentException("Context ID " + contextId + " is already used");
+            }
+            ensureRemaining();
+            DeviceInputLog.putVarLong(buffer, ((long) contextId << 1) | DeviceInputLog.KIND_DECLARATION);
+            buffer.put((byte) codec.id);
+        }
+        return new RecordingContext<>(contextId, context, codec);
+    }
+
+    /**
+     * Writes buffered entries to the file.
+     *
+     * @throws IOException if the entries cannot be written
+     */
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        try {
+            ChannelIO.writeFully(channel, buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Flushes buffered entries and closes the log file. Further device reads are not recorded.
+     *
+     * @throws IOException if the entries cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private synchronized void log(int contextId, CellCodec codec, Object value) {
+        if (closed) {
+            return;
+        }
+        long cycle = cycles.getAsLong();
+        long delta = cycle - lastCycle;
+        if (delta < 0) {
+            throw new IllegalStateException("Cycles went backwards: " + cycle + " < " + lastCycle);
+        }
+        lastCycle = cycle;
+
+        ensureRemaining();
+        DeviceInputLog.putVarLong(buffer, ((long) contextId << 1) | DeviceInputLog.KIND_INPUT);
+        DeviceInputLog.putVarLong(buffer, delta);
+        codec.write(buffer, value);
+    }
+
+    private void ensureRemaining() {
+        if (buffer.remaining() < DeviceInputLog.MAX_ENTRY_SIZE) {
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private class RecordingContext<T> implements DeviceContext<T> {
+        private final int contextId;
+        private final DeviceContext<T> context;
+        private final CellCodec codec;
+
+        RecordingContext(int contextId, DeviceContext<T> context, CellCodec codec) {
+            this.contextId = contextId;
+            this.context = context;
+            this.codec = codec;
+        }
+
+        @Override
+        public T readData() {
+            T value = context.readData();
+            log(contextId, codec, value);
+            return value;
+        }
+
+        @Override
+        public void writeData(T value) {
+            context.writeData(value);
+        }
+
+        @Override
+        public Class<T> getDataType() {
+            return context.getDataType();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.device.DeviceContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * Replayer of device input recorded by {@link DeviceInputRecorder}.
+ * <p>
+ * Device contexts wrapped by {@link #replay(int, DeviceContext)} do not read input from the real device; instead,
+ * {@link DeviceContext#readData()} returns the next recorded value. Each read is checked against the log: it must
+ * come from the same context, at the same CPU cycle as it was recorded. Otherwise the run has diverged from
+ * the recorded one and {@link IllegalStateException} is thrown.
+ * <p>
+ * Writes are passed to the real device context.
+ */
+@ThreadSafe
+public class DeviceInputReplayer implements Closeable {
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final LongSupplier cycles;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<Integer, CellCodec> declaredCodecs = new HashMap<>();
+    private long lastCycle;
+    private boolean endOfFile;
+
+    /**
+     * Opens a device input log for replay.
+     *
+     * @param file   log file
+     * @param cycles source of the current CPU cycle
+     * @throws IOException if the file cannot be read or it is not a device input log
+     */
+    public DeviceInputReplayer(Path file, LongSupplier cycles) throws IOException {
+        this.cycles = Objects.requireNonNull(cycles);
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.limit(0);
+        try {
+            fill(DeviceInputLog.HEADER_SIZE);
+            if (buffer.remaining() < DeviceInputLog.HEADER_SIZE || buffer.getInt() != DeviceInputLog.MAGIC) {
+                throw new IOException("Not a device input log");
+            }
+            int version = buffer.getShort();
+            if (version != DeviceInputLog.VERSION) {
+                throw new IOException("Unsupported device input log version: " + version);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps a device context so that its input is replayed from the log.
+     *
+     * @param contextId ID of the context used when recording
+     * @param context   device context
+     * @param <T>       device data type
+     * @return replaying device context
+     * @throws IllegalArgumentException if the data type is not supported
+     */
+    public <T> DeviceContext<T> replay(int contextId, DeviceContext<T> context) {
+        return new ReplayingContext<>(contextId, Objects.requireNonNull(context),
+                CellCodec.forType(context.getDataType()));
+    }
+
+    /**
+     * Determine if all recorded input was replayed.
+     *
+     * @return true if there are no more input entries in the log; false otherwise
+     */
+    public synchronized boolean isFinished() {
+        try {
+            skipDeclarations();
+            return !buffer.hasRemaining();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private synchronized Object next(int contextId, CellCodec codec) {
+        try {
+            skipDeclarations();
+            if (!buffer.hasRemaining()) {
+                throw new IllegalStateException("Replay diverged: no more recorded input for context " + contextId);
+            }
+            int mark = buffer.position();
+            long tag = DeviceInputLog.getVarLong(buffer);
+            int recordedId = (int) (tag >>> 1);
+            if (recordedId != contextId) {
+                buffer.position(mark);
+                throw new IllegalStateException("Replay diverged: expected input of context " + recordedId
+                        + ", but context " + contextId + " was read");
+            }
+            if (declaredCodecs.get(recordedId) != codec) {
+                buffer.position(mark);
+                throw new IllegalStateException("Context " + contextId + " has different data type than recorded");
+            }
+            long recordedCycle = lastCycle + DeviceInputLog.getVarLong(buffer);
+            long cycle = cycles.getAsLong();
+            if (recordedCycle != cycle) {
+                buffer.position(mark);
+                throw new IllegalStateException("Replay diverged: context " + contextId + " was read at cycle "
+                        + cycle + ", but recorded at cycle " + recordedCycle);
+            }
+            lastCycle = recordedCycle;
+            return codec.read(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IllegalStateException("Corrupted device input log", e);
+        }
+    }
+
+    // processes declarations and ensures that the buffer contains the whole next input entry (if there is any)
+    private void skipDeclarations() throws IOException {
+        while (true) {
+            fill(DeviceInputLog.MAX_ENTRY_SIZE);
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            int mark = buffer.position();
+            long tag = DeviceInputLog.getVarLong(buffer);
+            if ((tag & 1) != DeviceInputLog.KIND_DECLARATION) {
+                buffer.position(mark);
+                return;
+            }
+            CellCodec codec = CellCodec.forId(buffer.get());
+            if (codec == null) {
+                throw new IOException("Corrupted device input log: unknown data type");
+            }
+            declaredCodecs.put((int) (tag >>> 1), codec);
+        }
+    }
+
+    private void fill(int required) throws IOException {
+        if (buffer.remaining() >= required || endOfFile) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < required) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private class ReplayingContext<T> implements DeviceContext<T> {
+        private final int contextId;
+        private final DeviceContext<T> context;
+        private final CellCodec codec;
+
+        ReplayingContext(int contextId, DeviceContext<T> context, CellCodec codec) {
+            this.contextId = contextId;
+            this.context = context;
+            this.codec = codec;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T readData() {
+            return (T) next(contextId, codec);
+        }
+
+        @Override
+        public void writeData(T value) {
+            context.writeData(value);
+        }
+
+        @Override
+        public Class<T> getDataType() {
+            return context.getDataType();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Loader and generator of loadable segments of ELF (Executable and Linkable Format) files.
+ * <p>
+ * File format is described here: https://en.wikipedia.org/wiki/Executable_and_Linkable_Format
+ * <p>
+ * Only program headers of type <code>PT_LOAD</code> are considered; sections and symbols are ignored. Both 32-bit
+ * and 64-bit files of any byte order are supported. Segments are loaded at their physical addresses
+ * (<code>p_paddr</code>). If segment memory size is bigger than its file size, the rest is filled with zeroes;
+ * the zero-filled part of a segment can be at most 16 MiB long, so a crafted file cannot exhaust the heap.
+ */
+@ThreadSafe
+public class ELF {
+    /**
+     * Machine type "No machine".
+     */
+    public final static int EM_NONE = 0;
+
+    private final static int PT_LOAD = 1;
+    private final static int ET_EXEC = 2;
+    private final static int ELFCLASS32 = 1;
+    private final static int ELFCLASS64 = 2;
+    private final static int ELFDATA2LSB = 1;
+    private final static int ELFDATA2MSB = 2;
+    private final static int EV_CURRENT = 1;
+    private final static int PF_RWX = 7;
+
+    private final static int ELF32_HEADER_SIZE = 52;
+    private final static int ELF32_PROGRAM_HEADER_SIZE = 32;
+    // bounds zero-filled segment tails (e.g. .bss) allocated when loading untrusted files
+    private final static int MAX_ZERO_FILL = 1 << 24;
+
+    /**
+     * Parses loadable segments of ELF file.
+     *
+     * @param file file
+     * @return program image with loadable segments; start address is the ELF entry point
+     * @throws IOException if the file cannot be read or is not a valid ELF file
+     */
+    public static ProgramImage parse(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File is too big: " + channel.size() + " bytes");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return parse(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Invalid ELF file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Parse ELF file and load its loadable segments into memory.
+     *
+     * @param <T>     specific memory type
+     * @param file    file
+     * @param memory  memory
+     * @param convert conversion of byte to T
+     * @return program start address (ELF entry point)
+     * @throws IOException if the file cannot be read or is not a valid ELF file
+     */
+    public static <T> int loadIntoMemory(File file, MemoryContext<T> memory, Function<Byte, T> convert) throws IOException {
+        ProgramImage image = parse(file);
+        image.loadIntoMemory(memory, convert);
+        return image.getStartAddress();
+    }
+
+    /**
+     * Generates 32-bit little-endian executable ELF file from the program image, with machine type
+     * {@link #EM_NONE}.
+     *
+     * @param image program image
+     * @param file  output file
+     * @throws IOException if the file cannot be written
+     */
+    public static void generate(ProgramImage image, File file) throws IOException {
+        generate(image, file, EM_NONE);
+    }
+
+    /**
+     * Generates 32-bit little-endian executable ELF file from the program image.
+     * <p>
+     * Each image segment is stored as one <code>PT_LOAD</code> program header. No sections are generated.
+     *
+     * @param image   program image
+     * @param file    output file
+     * @param machine ELF machine type (<code>e_machine</code>)
+     * @throws IOException if the file cannot be written
+     */
+    public static void generate(ProgramImage image, File file, int machine) throws IOException {
+        List<ProgramImage.Segment> segments = image.getSegments();
+        int headersSize = ELF32_HEADER_SIZE + segments.size() * ELF32_PROGRAM_HEADER_SIZE;
+
+        ByteBuffer headers = ByteBuffer.allocate(headersSize).order(ByteOrder.LITTLE_ENDIAN);
+        headers.put(new byte[]{0x7F, 'E', 'L', 'F', ELFCLASS32, ELFDATA2LSB, EV_CURRENT});
+        headers.position(16);
+        headers.putShort((short) ET_EXEC);
+        headers.putShort((short) machine);
+        headers.putInt(EV_CURRENT);
+        headers.putInt(image.getStartAddress());
+        headers.putInt(ELF32_HEADER_SIZE); // e_phoff
+        headers.putInt(0); // e_shoff
+        headers.putInt(0); // e_flags
+        headers.putShort((short) ELF32_HEADER_SIZE);
+        headers.putShort((short) ELF32_PROGRAM_HEADER_SIZE);
+        headers.putShort((short) segments.size());
+        headers.putShort((short) 0); // e_shentsize
+        headers.putShort((short) 0); // e_shnum
+        headers.putShort((short) 0); // e_shstrndx
+
+        int offset = headersSize;
+        for (ProgramImage.Segment segment : segments) {
+            headers.putInt(PT_LOAD);
+            headers.putInt(offset);
+            headers.putInt(segment.getAddress()); // p_vaddr
+            headers.putInt(segment.getAddress()); // p_paddr
+            headers.putInt(segment.getLength()); // p_filesz
+            headers.putInt(segment.getLength()); // p_memsz
+            headers.putInt(PF_RWX);
+            headers.putInt(1); // p_align
+            offset += segment.getLength();
+        }
+        headers.flip();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChannelIO.writeFully(channel, headers);
+            for (ProgramImage.Segment segment : segments) {
+                ChannelIO.writeFully(channel, ByteBuffer.wrap(segment.getData()));
+            }
+        }
+    }
+
+    private static ProgramImage parse(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 16 || buffer.get(0) != 0x7F || buffer.get(1) != 'E' || buffer.get(2) != 'L'
+                || buffer.get(3) != 'F') {
+            throw new IOException("Not an ELF file");
+        }
+        int elfClass = buffer.get(4);
+        if (elfClass != ELFCLASS32 && elfClass != ELFCLASS64) {
+            throw new IOException("Unsupported ELF class: " + elfClass);
+        }
+        boolean is64 = (elfClass == ELFCLASS64);
+
+        int dataEncoding = buffer.get(5);
+        if (dataEncoding == ELFDATA2LSB) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (dataEncoding == ELFDATA2MSB) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException("Unsupported ELF data encoding: " + dataEncoding);
+        }
+
+        buffer.position(24);
+        long entry = readWord(buffer, is64);
+        long programHeadersOffset = readWord(buffer, is64);
+        buffer.position(is64 ? 54 : 42);
+        int programHeaderSize = buffer.getShort() & 0xFFFF;
+        int programHeadersCount = buffer.getShort() & 0xFFFF;
+
+        List<ProgramImage.Segment> segments = new ArrayList<>();
+        for (int i = 0; i < programHeadersCount; i++) {
+            buffer.position(toInt(programHeadersOffset + (long) i * programHeaderSize, "Program header offset"));
+            int type = buffer.getInt();
+            if (type != PT_LOAD) {
+                continue;
+            }
+            long fileOffset;
+            long physicalAddress;
+            long fileSize;
+            long memorySize;
+            if (is64) {
+                buffer.getInt(); // p_flags
+                fileOffset = buffer.getLong();
+                buffer.getLong(); // p_vaddr
+                physicalAddress = buffer.getLong();
+                fileSize = buffer.getLong();
+                memorySize = buffer.getLong();
+            } else {
+                fileOffset = buffer.getInt() & 0xFFFFFFFFL;
+                buffer.getInt(); // p_vaddr
+                physicalAddress = buffer.getInt() & 0xFFFFFFFFL;
+                fileSize = buffer.getInt() & 0xFFFFFFFFL;
+                memorySize = buffer.getInt() & 0xFFFFFFFFL;
+            }
+            if (memorySize == 0) {
+                continue;
+            }
+            if (fileSize > memorySize) {
+                throw new IOException("Segment file size is bigger than memory size");
+            }
+            if (fileOffset + fileSize > buffer.limit() || fileOffset + fileSize < 0) {
+                throw new IOException("Segment data are out of file bounds");
+            }
+            if (memorySize - fileSize > MAX_ZERO_FILL) {
+                throw new IOException("Segment memory size is too big: " + Long.toUnsignedString(memorySize));
+            }
+            int address = toInt(physicalAddress, "Segment address");
+            toInt(physicalAddress + memorySize - 1, "Segment end address");
+
+            byte[] data = new byte[toInt(memorySize, "Segment size")];
+            buffer.position(toInt(fileOffset, "Segment offset"));
+            buffer.get(data, 0, toInt(fileSize, "Segment file size"));
+            segments.add(new ProgramImage.Segment(address, data));
+        }
+        return new ProgramImage(segments, toInt(entry, "Entry point"));
+    }
+
+    private static long readWord(ByteBuffer buffer, boolean is64) {
+        return is64 ? buffer.getLong() : (buffer.getInt() & 0xFFFFFFFFL);
+    }
+
+    private static int toInt(long value, String what) throws IOException {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException(what + " is out of range: " + Long.toUnsignedString(value));
+        }
+        return (int) value;
+    }
+}
@@ -24,8 +24,13 @@ import net.jcip.annotations.NotThreadSafe;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
@@ -39,6 +44,8 @@ import java.util.function.Function;
 public class IntelHEX {
     // 16-bit Intel HEX has max 15 bytes per line
     private final static int MAX_DATA_BYTES_COUNT_IN_LINE = 15;
+    // files smaller than this are not worth splitting for parallel parsing
+    private final static int MIN_PARALLEL_CHUNK_SIZE = 256 * 1024;
 
     private final Map<Integer, Byte> program = new HashMap<>();
     private int nextAddress;
@@ -68,7 +75,7 @@ public class IntelHEX {
         }
         for (int i = 0; i < hexString.length() - 1; i += 2) {
             String tmp = hexString.substring(i, i + 2);
-            program.put(nextAddress++, Byte.parseByte(tmp, 16));
+            program.put(nextAddress++, (byte) Integer.parseInt(tmp, 16));
         }
         return nextAddress;
     }
@@ -101,6 +108,48 @@ public class IntelHEX {
         nextAddress = Math.max(nextAddress, previousAddress);
     }
 
+    /**
+     * Adds all segments of the program image into the code table.
+     * <p>
+     * If a byte exists on an address already, it is overwritten. The current address is not changed.
+     *
+     * @param image program image
+     */
+    public void add(ProgramImage image) {
+        for (ProgramImage.Segment segment : image.getSegments()) {
+            byte[] data = segment.getData();
+            for (int i = 0; i < data.length; i++) {
+                program.put(segment.getAddress() + i, data[i]);
+            }
+        }
+    }
+
+    /**
+     * Converts the code table into a program image.
+     * <p>
+     * Continuous runs of addresses form image segments. Program start address is the same as
+     * returned by {@link #findProgramLocation()}.
+     *
+     * @return program image
+     */
+    public ProgramImage toProgramImage() {
+        int[] addresses = program.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        List<ProgramImage.Segment> segments = new ArrayList<>();
+
+        int runStart = 0;
+        for (int i = 1; i <= addresses.length; i++) {
+            if (i == addresses.length || addresses[i] != addresses[i - 1] + 1) {
+                byte[] data = new byte[i - runStart];
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = program.get(addresses[runStart + j]);
+                }
+                segments.add(new ProgramImage.Segment(addresses[runStart], data));
+                runStart = i;
+            }
+        }
+        return new ProgramImage(segments, findProgramLocation());
+    }
+
     /**
      * Get the program hex code, encoded as map of addresses/bytes.
      *
@@ -183,53 +232,84 @@ public class IntelHEX {
 
         try (FileChannel channel = new FileInputStream(file).getChannel()) {
             ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
-
-            while (buffer.hasRemaining()) {
-                char input = (char) buffer.get();
-                while (buffer.hasRemaining() && (input == ' ' || input == ';')) {
-                    if (input == ' ') {
-                        input = ignoreSpaces(buffer);
-                    }
-                    if (input == ';') {
-                        ignoreLine(buffer);
-                        input = (char) buffer.get();
-                    }
-                }
-                if (!buffer.hasRemaining()) {
-                    break;
-                }
-                if (input != ':') {
-                    throw new IOException("Unexpected character: " + input);
+            parseRecords(buffer, buffer.limit(), (address, data, count) -> {
+                hexFile.setNextAddress(address);
+                for (int i = 0; i < count; i++) {
+                    hexFile.add(data[i]);
                 }
+            });
+        }
+        return hexFile;
+    }
 
-                // data bytes count
-                int bytesCount = readWord(buffer);
-                if (bytesCount == 0) {
-                    ignoreLine(buffer);
-                    continue;
-                }
+    /**
+     * Parses Intel HEX file in parallel, using the common fork-join pool.
+     *
+     * @param file file
+     * @return program image
+     * @throws Exception if the file cannot be parsed
+     * @see #parseParallel(File, ForkJoinPool)
+     */
+    public static ProgramImage parseParallel(File file) throws Exception {
+        return parseParallel(file, ForkJoinPool.commonPool());
+    }
 
-                // address
-                int address = readDword(buffer);
+    /**
+     * Parses Intel HEX file in parallel.
+     * <p>
+     * The memory-mapped file is split into chunks at line boundaries, and the chunks are decoded in the given pool.
+     * Decoded records are then merged in the file order, so the result is the same as
+     * <code>parse(file).toProgramImage()</code>. If the file is invalid, the exception of the first invalid record
+     * (in the file order) is thrown.
+     * <p>
+     * Small files are parsed in the calling thread.
+     *
+     * @param file file
+     * @param pool fork-join pool used for decoding the chunks
+     * @return program image
+     * @throws Exception if the file cannot be parsed
+     */
+    public static ProgramImage parseParallel(File file, ForkJoinPool pool) throws Exception {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
 
-                // data type
-                int dataType = readWord(buffer);
-                if (dataType != 0) {
-                    throw new IOException("Unsupported data type: " + dataType);
-                }
+            int size = buffer.limit();
+            int chunkSize = Math.max(MIN_PARALLEL_CHUNK_SIZE, size / (4 * pool.getParallelism()) + 1);
+            if (size <= chunkSize) {
+                return new ProgramImage(parseChunk(buffer, 0, size));
+            }
 
-                // data...
-                hexFile.setNextAddress(address);
-                byte[] hex = new byte[2];
-                for (int y = 0; y < bytesCount; y++) {
-                    buffer.get(hex);
-                    hexFile.add(Byte.parseByte(new String(hex), 16));
+            List<ForkJoinTask<List<ProgramImage.Segment>>> tasks = new ArrayList<>();
+            int chunkStart = 0;
+            while (chunkStart < size) {
+                int chunkEnd = findLineStart(buffer, chunkStart + chunkSize);
+                ByteBuffer chunk = buffer.duplicate();
+                int start = chunkStart;
+                tasks.add(pool.submit(() -> {
+                    try {
+                        return parseChunk(chunk, start, chunkEnd);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+                chunkStart = chunkEnd;
+            }
+
+            List<ProgramImage.Segment> segments = new ArrayList<>();
+            for (ForkJoinTask<List<ProgramImage.Segment>> task : tasks) {
+                try {
+                    segments.addAll(task.get());
+                } catch (ExecutionException e) {
+                    tasks.forEach(t -> t.cancel(false));
+                    Throwable cause = e.getCause();
+                    if (cause instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) cause).getCause();
+                    }
+                    throw (cause instanceof Exception) ? (Exception) cause : e;
                 }
-                // checksum - don't care..
-                ignoreLine(buffer);
             }
+            return new ProgramImage(segments);
         }
-        return hexFile;
     }
 
     /**
@@ -304,6 +384,101 @@ public class IntelHEX {
         return String.format("%1$02X", chsum);
     }
 
+    @FunctionalInterface
+    private interface RecordConsumer {
+        void accept(int address, byte[] data, int count);
+    }
+
+    /**
+     * Parses data records which start before the given end position.
+     * <p>
+     * Reading of a record may continue behind the end position; but records starting at or after it are left for
+     * the next chunk. The end position must be a start of a line.
+     */
+    private static void parseRecords(ByteBuffer buffer, int end, RecordConsumer consumer) throws IOException {
+        byte[] data = new byte[255];
+
+        while (buffer.position() < end) {
+            char input = (char) buffer.get();
+            while (buffer.hasRemaining() && (input == ' ' || input == ';')) {
+                if (input == ' ') {
+                    input = ignoreSpaces(buffer);
+                }
+                if (input == ';') {
+                    ignoreLine(buffer);
+                    if (buffer.hasRemaining()) {
+                        input = (char) buffer.get();
+                    }
+                }
+            }
+            if (!buffer.hasRemaining() || buffer.position() > end) {
+                break;
+            }
+            if (input != ':') {
+                throw new IOException("Unexpected character: " + input);
+            }
+
+            // data bytes count
+            int bytesCount = readWord(buffer);
+            if (bytesCount == 0) {
+                ignoreLine(buffer);
+                continue;
+            }
+
+            // address
+            int address = readDword(buffer);
+
+            // data type
+            int dataType = readWord(buffer);
+            if (dataType != 0) {
+                throw new IOException("Unsupported data type: " + dataType);
+            }
+
+            // data...
+            for (int y = 0; y < bytesCount; y++) {
+                data[y] = (byte) readWord(buffer);
+            }
+            consumer.accept(address, data, bytesCount);
+
+            // checksum - don't care..
+            ignoreLine(buffer);
+        }
+    }
+
+    private static List<ProgramImage.Segment> parseChunk(ByteBuffer buffer, int start, int end) throws IOException {
+        List<ProgramImage.Segment> segments = new ArrayList<>();
+        ByteArrayOutputStream run = new ByteArrayOutputStream();
+        int[] runAddress = new int[1];
+
+        buffer.position(start);
+        parseRecords(buffer, end, (address, data, count) -> {
+            if (run.size() > 0 && address != runAddress[0] + run.size()) {
+                segments.add(new ProgramImage.Segment(runAddress[0], run.toByteArray()));
+                run.reset();
+            }
+            if (run.size() == 0) {
+                runAddress[0] = address;
+            }
+            run.write(data, 0, count);
+        });
+        if (run.size() > 0) {
+            segments.add(new ProgramImage.Segment(runAddress[0], run.toByteArray()));
+        }
+        return segments;
+    }
+
+    // returns position of the first line start at or after given position
+    private static int findLineStart(ByteBuffer buffer, int position) {
+        int limit = buffer.limit();
+        if (position >= limit) {
+            return limit;
+        }
+        while (position < limit && buffer.get(position - 1) != '\n') {
+            position++;
+        }
+        return position;
+    }
+
     private static char ignoreSpaces(ByteBuffer buffer) {
         byte c = buffer.get();
         while (buffer.hasRemaining() && c == ' ') {
@@ -322,11 +497,18 @@ public class IntelHEX {
     }
 
     private static int readWord(ByteBuffer buffer) {
-        return Integer.parseInt(String.format("%c%c", buffer.get(), buffer.get()), 16);
+        return (hexDigit(buffer.get()) << 4) | hexDigit(buffer.get());
     }
 
     private static int readDword(ByteBuffer buffer) {
-        String hexString = String.format("%c%c%c%c", buffer.get(), buffer.get(), buffer.get(), buffer.get());
-        return Integer.parseInt(hexString, 16);
+        return (readWord(buffer) << 8) | readWord(buffer);
+    }
+
+    private static int hexDigit(byte c) {
+        int digit = Character.digit(c, 16);
+        if (digit < 0) {
+            throw new NumberFormatException("Invalid hexadecimal digit: " + (char) c);
+        }
+        return digit;
     }
 }
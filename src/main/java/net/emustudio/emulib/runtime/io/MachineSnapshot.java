@@ -0,0 +1,298 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.Plugin;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Machine snapshot - saved state of all plugins of an emulated machine (CPU, memory, devices).
+ * <p>
+ * Plugins are identified by IDs given by the caller, which must be stable between saving and loading (e.g. IDs
+ * of plugins in the machine configuration). Each plugin streams its state through a channel (see
+ * {@link Plugin#saveSnapshot(java.nio.channels.WritableByteChannel)}); the snapshot stores it in frames, so
+ * the plugin state does not need to be buffered in memory as a whole.
+ * <p>
+ * Before saving or loading a snapshot, the emulation must be paused or stopped.
+ * <p>
+ * Format (big-endian):
+ * <pre>
+ * header: int magic "EMUS", short version, int plugins count
+ * plugin: short ID length, ID in UTF-8, int snapshot version, frames
+ * frame:  int length (0 = last frame), bytes
+ * </pre>
+ */
+@ThreadSafe
+public class MachineSnapshot {
+    private final static int MAGIC = 0x454D5553; // "EMUS"
+    private final static int VERSION = 1;
+    private final static int FRAME_SIZE = 64 * 1024;
+
+    /**
+     * Saves snapshot of given plugins into a file.
+     *
+     * @param plugins plugins identified by stable IDs
+     * @param file    output file
+     * @throws IOException              if the snapshot cannot be written
+     * @throws IllegalArgumentException if some plugin does not support snapshots
+     */
+    public static void save(Map<String, ? extends Plugin> plugins, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            save(plugins, channel);
+        }
+    }
+
+    /**
+     * Saves snapshot of given plugins into a channel.
+     * <p>
+     * Plugins are saved in the iteration order of the map. The channel is not closed.
+     *
+     * @param plugins plugins identified by stable IDs
+     * @param channel output channel
+     * @throws IOException              if the snapshot cannot be written
+     * @throws IllegalArgumentException if some plugin does not support snapshots
+     */
+    public static void save(Map<String, ? extends Plugin> plugins, WritableByteChannel channel) throws IOException {
+        plugins.forEach((id, plugin) -> {
+            if (!plugin.isSnapshotSupported()) {
+                throw new IllegalArgumentException("Plugin '" + id + "' does not support snapshots");
+            }
+        });
+
+        ByteBuffer header = ByteBuffer.allocate(10);
+        header.putInt(MAGIC).putShort((short) VERSION).putInt(plugins.size()).flip();
+        ChannelIO.writeFully(channel, header);
+
+        for (Map.Entry<String, ? extends Plugin> entry : plugins.entrySet()) {
+            byte[] id = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (id.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Plugin ID is too long");
+            }
+            ByteBuffer pluginHeader = ByteBuffer.allocate(6 + id.length);
+            pluginHeader.putShort((short) id.length).put(id).putInt(entry.getValue().getSnapshotVersion()).flip();
+            ChannelIO.writeFully(channel, pluginHeader);
+
+            FramedOutputChannel frames = new FramedOutputChannel(channel);
+            entry.getValue().saveSnapshot(frames);
+            frames.finish();
+        }
+    }
+
+    /**
+     * Loads snapshot of given plugins from a file.
+     *
+     * @param plugins plugins identified by stable IDs
+     * @param file    input file
+     * @throws IOException if the snapshot cannot be read, or it does not match given plugins
+     * @see #load(Map, ReadableByteChannel)
+     */
+    public static void load(Map<String, ? extends Plugin> plugins, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            load(plugins, channel);
+        }
+    }
+
+    /**
+     * Loads snapshot of given plugins from a channel.
+     * <p>
+     * Each plugin found in the snapshot must be present in the given map. Plugins in the map which are not found
+     * in the snapshot are left untouched. The channel is not closed.
+     *
+     * @param plugins plugins identified by stable IDs
+     * @param channel input channel
+     * @throws IOException if the snapshot cannot be read, or it does not match given plugins
+     */
+    public static void load(Map<String, ? extends Plugin> plugins, ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(10);
+        ChannelIO.readFully(channel, header);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a machine snapshot");
+        }
+        int version = header.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported machine snapshot version: " + version);
+        }
+        int count = header.getInt();
+
+        Set<String> loaded = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer idLength = ByteBuffer.allocate(2);
+            ChannelIO.readFully(channel, idLength);
+            int length = idLength.getShort(0);
+            if (length < 0) {
+                throw new IOException("Invalid plugin ID length: " + length);
+            }
+            ByteBuffer idAndVersion = ByteBuffer.allocate(length + 4);
+            ChannelIO.readFully(channel, idAndVersion);
+            String id = new String(idAndVersion.array(), 0, length, StandardCharsets.UTF_8);
+            int pluginVersion = idAndVersion.getInt(length);
+
+            Plugin plugin = plugins.get(id);
+            if (plugin == null || !plugin.isSnapshotSupported()) {
+                throw new IOException("Snapshot of plugin '" + id + "' cannot be loaded");
+            }
+            if (!loaded.add(id)) {
+                throw new IOException("Duplicate snapshot of plugin '" + id + "'");
+            }
+
+            FramedInputChannel frames = new FramedInputChannel(channel);
+            plugin.loadSnapshot(frames, pluginVersion);
+            frames.skipRest();
+        }
+    }
+
+    private static class FramedOutputChannel implements WritableByteChannel {
+        private final WritableByteChannel channel;
+        private final ByteBuffer frame = ByteBuffer.allocate(4 + FRAME_SIZE);
+        private boolean open = true;
+
+        FramedOutputChannel(WritableByteChannel channel) {
+            this.channel = Objects.requireNonNull(channel);
+            frame.position(4);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int written = 0;
+            while (src.hasRemaining()) {
+                if (!frame.hasRemaining()) {
+                    flushFrame();
+                }
+                int count = Math.min(frame.remaining(), src.remaining());
+                ByteBuffer slice = src.slice();
+                slice.limit(count);
+                frame.put(slice);
+                src.position(src.position() + count);
+                written += count;
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        void finish() throws IOException {
+            open = false;
+            flushFrame();
+            ChannelIO.writeFully(channel, ByteBuffer.allocate(4));
+        }
+
+        private void flushFrame() throws IOException {
+            int length = frame.position() - 4;
+            if (length > 0) {
+                frame.putInt(0, length).flip();
+                ChannelIO.writeFully(channel, frame);
+            }
+            frame.clear().position(4);
+        }
+    }
+
+    private static class FramedInputChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        private int frameRemaining;
+        private boolean lastFrame;
+        private boolean open = true;
+
+        FramedInputChannel(ReadableByteChannel channel) {
+            this.channel = Objects.requireNonNull(channel);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (!nextFrame()) {
+                return -1;
+            }
+            int limit = dst.limit();
+            dst.limit(dst.position() + Math.min(dst.remaining(), frameRemaining));
+            try {
+                int count = channel.read(dst);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of snapshot");
+                }
+                frameRemaining -= count;
+                return count;
+            } finally {
+                dst.limit(limit);
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        void skipRest() throws IOException {
+            ByteBuffer skip = ByteBuffer.allocate(FRAME_SIZE);
+            while (nextFrame()) {
+                skip.clear().limit(Math.min(frameRemaining, skip.capacity()));
+                ChannelIO.readFully(channel, skip);
+                frameRemaining -= skip.limit();
+            }
+        }
+
+        // returns false if there is no more data
+        private boolean nextFrame() throws IOException {
+            while (frameRemaining == 0 && !lastFrame) {
+                lengthBuffer.clear();
+                ChannelIO.readFully(channel, lengthBuffer);
+                frameRemaining = lengthBuffer.getInt(0);
+                if (frameRemaining < 0) {
+                    throw new IOException("Invalid frame length: " + frameRemaining);
+                }
+                lastFrame = (frameRemaining == 0);
+            }
+            return frameRemaining > 0;
+        }
+    }
+}
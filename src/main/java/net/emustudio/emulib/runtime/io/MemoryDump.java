@@ -0,0 +1,325 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Saving and loading of memory content (binary memory dump).
+ * <p>
+ * The memory is stored in pages of {@link #PAGE_SIZE} cells. Pages containing only zero cells are skipped, so
+ * a mostly-empty memory takes just a few bytes. Each stored page is optionally compressed and protected by CRC32
+ * checksum, which is verified when loading.
+ * <p>
+ * Supported memory cell types are: <code>Byte</code>, <code>Short</code>, <code>Integer</code>, <code>Long</code>,
+ * <code>Boolean</code> and <code>Character</code>.
+ * <p>
+ * Format (big-endian):
+ * <pre>
+ * header: int magic "EMUM", short version, byte cell type, byte compression, int memory size, int page size
+ * page:   int page index, int stored length, int CRC32 of uncompressed page, stored bytes
+ * end:    int -1
+ * </pre>
+ */
+@ThreadSafe
+public class MemoryDump {
+    /**
+     * Number of memory cells in one page.
+     */
+    public final static int PAGE_SIZE = 4096;
+
+    private final static int MAGIC = 0x454D554D; // "EMUM"
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 16;
+    private final static int PAGE_HEADER_SIZE = 12;
+    private final static int END_OF_PAGES = -1;
+    // bounds page buffers allocated when loading untrusted files
+    private final static int MAX_PAGE_SIZE = 1 << 20;
+
+    /**
+     * Compression of memory pages.
+     */
+    public enum Compression {
+        /**
+         * Pages are stored uncompressed.
+         */
+        NONE,
+        /**
+         * Pages are compressed using deflate algorithm.
+         */
+        DEFLATE
+    }
+
+    /**
+     * Saves the whole memory into a file.
+     *
+     * @param memory      memory context
+     * @param file        output file
+     * @param compression page compression
+     * @param <T>         memory cell type
+     * @throws IOException              if the file cannot be written
+     * @throws IllegalArgumentException if memory cell type is not supported
+     */
+    public static <T> void save(MemoryContext<T> memory, Path file, Compression compression) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            save(memory, channel, compression);
+        }
+    }
+
+    /**
+     * Saves the whole memory into a channel.
+     * <p>
+     * The channel is not closed.
+     *
+     * @param memory      memory context
+     * @param channel     output channel
+     * @param compression page compression
+     * @param <T>         memory cell type
+     * @throws IOException              if the data cannot be written
+     * @throws IllegalArgumentException if memory cell type is not supported
+     */
+    public static <T> void save(MemoryContext<T> memory, WritableByteChannel channel,
+                                Compression compression) throws IOException {
+        CellCodec codec = CellCodec.forType(memory.getDataType());
+        Objects.requireNonNull(compression);
+        int size = memory.getSize();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort((short) VERSION).put((byte) codec.id).put((byte) compression.ordinal());
+        header.putInt(size).putInt(PAGE_SIZE).flip();
+        ChannelIO.writeFully(channel, header);
+
+        ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE * codec.width);
+        ByteBuffer stored = ByteBuffer.allocate(PAGE_HEADER_SIZE + PAGE_SIZE * codec.width + 64);
+        Deflater deflater = (compression == Compression.DEFLATE) ? new Deflater(Deflater.BEST_SPEED) : null;
+        CRC32 crc = new CRC32();
+        try {
+            for (int pageIndex = 0; (long) pageIndex * PAGE_SIZE < size; pageIndex++) {
+                int position = pageIndex * PAGE_SIZE;
+                if (!readPage(memory, position, Math.min(PAGE_SIZE, size - position), codec, page.clear())) {
+                    continue;
+                }
+                page.flip();
+                crc.reset();
+                crc.update(page.array(), 0, page.limit());
+
+                stored.clear().position(PAGE_HEADER_SIZE);
+                if (deflater != null) {
+                    deflater.reset();
+                    deflater.setInput(page.array(), 0, page.limit());
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        if (!stored.hasRemaining()) {
+                            stored = grow(stored);
+                        }
+                        int count = deflater.deflate(stored.array(), stored.position(), stored.remaining());
+                        stored.position(stored.position() + count);
+                    }
+                } else {
+                    stored.put(page);
+                }
+                stored.flip();
+                stored.putInt(0, pageIndex).putInt(4, stored.limit() - PAGE_HEADER_SIZE).putInt(8, (int) crc.getValue());
+                ChannelIO.writeFully(channel, stored);
+            }
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        ChannelIO.writeFully(channel, ByteBuffer.allocate(4).putInt(0, END_OF_PAGES));
+    }
+
+    /**
+     * Loads memory content from a file.
+     *
+     * @param memory memory context
+     * @param file   input file
+     * @param <T>    memory cell type
+     * @throws IOException              if the file cannot be read, is corrupted, or is not compatible with the memory
+     * @throws IllegalArgumentException if memory cell type is not supported
+     * @see #load(MemoryContext, ReadableByteChannel)
+     */
+    public static <T> void load(MemoryContext<T> memory, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            load(memory, channel);
+        }
+    }
+
+    /**
+     * Loads memory content from a channel.
+     * <p>
+     * The memory is cleared first; then all stored pages are written into it using the bulk
+     * {@link MemoryContext#write(int, Object[], int)} method. The channel is not closed.
+     *
+     * @param memory  memory context
+     * @param channel input channel
+     * @param <T>     memory cell type
+     * @throws IOException              if the data cannot be read, are corrupted, or are not compatible with the memory
+     * @throws IllegalArgumentException if memory cell type is not supported
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void load(MemoryContext<T> memory, ReadableByteChannel channel) throws IOException {
+        CellCodec codec = CellCodec.forType(memory.getDataType());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        ChannelIO.readFully(channel, header);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a memory dump");
+        }
+        int version = header.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported memory dump version: " + version);
+        }
+        if (CellCodec.forId(header.get()) != codec) {
+            throw new IOException("Memory dump cell type does not match memory cell type " + codec.type.getSimpleName());
+        }
+        int compressionIndex = header.get();
+        if (compressionIndex < 0 || compressionIndex >= Compression.values().length) {
+            throw new IOException("Unsupported compression: " + compressionIndex);
+        }
+        Compression compression = Compression.values()[compressionIndex];
+        int size = header.getInt();
+        int pageSize = header.getInt();
+        if (size > memory.getSize()) {
+            throw new IOException("Memory dump size (" + size + ") is bigger than memory size (" + memory.getSize() + ")");
+        }
+        if (size < 0) {
+            throw new IOException("Invalid memory dump size: " + size);
+        }
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IOException("Invalid page size: " + pageSize);
+        }
+
+        // no page holds more cells than the whole dump
+        int pageCapacity = Math.max(1, Math.min(pageSize, size));
+        ByteBuffer pageHeader = ByteBuffer.allocate(PAGE_HEADER_SIZE);
+        ByteBuffer page = ByteBuffer.allocate(pageCapacity * codec.width);
+        T[] cells = (T[]) Array.newInstance(memory.getDataType(), pageCapacity);
+        Inflater inflater = (compression == Compression.DEFLATE) ? new Inflater() : null;
+        CRC32 crc = new CRC32();
+        try {
+            memory.clear();
+            while (true) {
+                pageHeader.clear().limit(4);
+                ChannelIO.readFully(channel, pageHeader);
+                int pageIndex = pageHeader.getInt(0);
+                if (pageIndex == END_OF_PAGES) {
+                    break;
+                }
+                long position = (long) pageIndex * pageSize;
+                if (pageIndex < 0 || position >= size) {
+                    throw new IOException("Invalid page index: " + pageIndex);
+                }
+                int count = (int) Math.min(pageSize, size - position);
+
+                pageHeader.limit(PAGE_HEADER_SIZE);
+                ChannelIO.readFully(channel, pageHeader);
+                int storedLength = pageHeader.getInt(4);
+                int checksum = pageHeader.getInt(8);
+                if (storedLength < 0 || storedLength > page.capacity() * 2 + 64) {
+                    throw new IOException("Invalid page length: " + storedLength);
+                }
+
+                ByteBuffer stored = ByteBuffer.allocate(storedLength);
+                ChannelIO.readFully(channel, stored);
+                page.clear().limit(count * codec.width);
+                if (inflater != null) {
+                    inflate(inflater, stored.array(), page);
+                } else if (storedLength != page.limit()) {
+                    throw new IOException("Invalid page length: " + storedLength);
+                } else {
+                    page.put(stored.flip());
+                }
+
+                crc.reset();
+                crc.update(page.array(), 0, page.limit());
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Checksum mismatch in page " + pageIndex);
+                }
+                page.flip();
+                for (int i = 0; i < count; i++) {
+                    cells[i] = (T) codec.read(page);
+                }
+                memory.write((int) position, cells, count);
+            }
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    // returns false if all cells are zero
+    private static <T> boolean readPage(MemoryContext<T> memory, int position, int count, CellCodec codec,
+                                        ByteBuffer page) {
+        T[] cells = memory.read(position, count);
+        boolean nonZero = false;
+        for (T cell : cells) {
+            nonZero |= !codec.isZero(cell);
+            codec.write(page, cell);
+        }
+        for (int i = cells.length; i < count; i++) {
+            codec.write(page, null);
+        }
+        return nonZero;
+    }
+
+    private static void inflate(Inflater inflater, byte[] input, ByteBuffer page) throws IOException {
+        inflater.reset();
+        inflater.setInput(input);
+        try {
+            while (page.hasRemaining() && !inflater.finished()) {
+                int count = inflater.inflate(page.array(), page.position(), page.remaining());
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                page.position(page.position() + count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted page data", e);
+        }
+        if (page.hasRemaining() || !inflater.finished()) {
+            throw new IOException("Invalid page length");
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        return bigger.put(buffer);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
+/**
+ * Bulk loading of bytes into memory, shared by all program image formats.
+ */
+class MemoryLoader {
+    // keeps the boxed transfer array reasonably small
+    private final static int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Writes all remaining bytes of the buffer into memory, starting at given address.
+     * <p>
+     * Bytes are converted into memory cells and written in chunks using the bulk
+     * {@link MemoryContext#write(int, Object[], int)} method.
+     *
+     * @param memory  memory context
+     * @param address address where the first byte will be written
+     * @param data    data to write
+     * @param convert conversion of byte to T
+     * @param <T>     memory cell type
+     */
+    @SuppressWarnings("unchecked")
+    static <T> void load(MemoryContext<T> memory, int address, ByteBuffer data, Function<Byte, T> convert) {
+        int total = data.remaining();
+        if (total == 0) {
+            return;
+        }
+        T[] cells = (T[]) Array.newInstance(memory.getDataType(), Math.min(total, CHUNK_SIZE));
+
+        while (data.hasRemaining()) {
+            int count = Math.min(data.remaining(), cells.length);
+            for (int i = 0; i < count; i++) {
+                cells[i] = convert.apply(data.get());
+            }
+            memory.write(address, cells, count);
+            address += count;
+        }
+    }
+}
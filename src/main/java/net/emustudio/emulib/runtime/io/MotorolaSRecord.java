@@ -0,0 +1,238 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Loader and generator of Motorola S-record files (S19, S28, S37).
+ * <p>
+ * File format is described here: https://en.wikipedia.org/wiki/SREC_(file_format)
+ * <p>
+ * Data records S1, S2 and S3 and termination records S7, S8 and S9 are supported. Header (S0) and count
+ * (S5, S6) records are ignored when parsing. Checksums of all records are verified.
+ */
+@ThreadSafe
+public class MotorolaSRecord {
+    private final static int MAX_DATA_BYTES_COUNT_IN_LINE = 32;
+
+    /**
+     * Parses Motorola S-record file.
+     * <p>
+     * Empty lines are ignored.
+     *
+     * @param file file
+     * @return program image; start address is taken from the termination record, if present
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public static ProgramImage parse(File file) throws IOException {
+        List<ProgramImage.Segment> segments = new ArrayList<>();
+        Integer startAddress = null;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.US_ASCII)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                byte[] record = decodeRecord(line, lineNumber);
+                char type = line.charAt(1);
+                switch (type) {
+                    case '0':
+                    case '5':
+                    case '6':
+                        break;
+                    case '1':
+                    case '2':
+                    case '3': {
+                        int addressLength = addressLength(type);
+                        int address = readAddress(record, addressLength, lineNumber);
+                        byte[] data = new byte[record.length - addressLength - 2];
+                        System.arraycopy(record, 1 + addressLength, data, 0, data.length);
+                        segments.add(new ProgramImage.Segment(address, data));
+                        break;
+                    }
+                    case '7':
+                    case '8':
+                    case '9':
+                        startAddress = readAddress(record, addressLength(type), lineNumber);
+                        break;
+                    default:
+                        throw new IOException("Line " + lineNumber + ": Unsupported record type: S" + type);
+                }
+            }
+        }
+        return (startAddress == null) ? new ProgramImage(segments) : new ProgramImage(segments, startAddress);
+    }
+
+    /**
+     * Parse Motorola S-record file and load it into memory.
+     *
+     * @param <T>     specific memory type
+     * @param file    file
+     * @param memory  memory
+     * @param convert conversion of byte to T
+     * @return program start address
+     * @throws IOException if the file cannot be read or parsed
+     */
+    public static <T> int loadIntoMemory(File file, MemoryContext<T> memory, Function<Byte, T> convert) throws IOException {
+        ProgramImage image = parse(file);
+        image.loadIntoMemory(memory, convert);
+        return image.getStartAddress();
+    }
+
+    /**
+     * Generates Motorola S-record file from the program image.
+     *
+     * @param image program image
+     * @param file  output file
+     * @throws IOException if the file cannot be written
+     */
+    public static void generate(ProgramImage image, File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+            generate(image, writer);
+        }
+    }
+
+    /**
+     * Generates Motorola S-record content from the program image.
+     * <p>
+     * The smallest address width which fits all addresses of the image is used (S19, S28 or S37).
+     *
+     * @param image  program image
+     * @param writer writer used to store S-record content
+     * @throws IOException if the content could not be written
+     */
+    public static void generate(ProgramImage image, Writer writer) throws IOException {
+        long maxAddress = image.getStartAddress();
+        for (ProgramImage.Segment segment : image.getSegments()) {
+            maxAddress = Math.max(maxAddress, segment.getEndAddress() - 1);
+        }
+        int addressLength = (maxAddress <= 0xFFFF) ? 2 : ((maxAddress <= 0xFFFFFF) ? 3 : 4);
+        char dataType = (char) ('1' + addressLength - 2);
+        char terminationType = (char) ('9' - addressLength + 2);
+
+        writeRecord(writer, '0', 2, 0, new byte[0], 0, 0);
+        int count = 0;
+        for (ProgramImage.Segment segment : image.getSegments()) {
+            byte[] data = segment.getData();
+            for (int offset = 0; offset < data.length; offset += MAX_DATA_BYTES_COUNT_IN_LINE) {
+                int length = Math.min(MAX_DATA_BYTES_COUNT_IN_LINE, data.length - offset);
+                writeRecord(writer, dataType, addressLength, segment.getAddress() + offset, data, offset, length);
+                count++;
+            }
+        }
+        if (count <= 0xFFFF) {
+            writeRecord(writer, '5', 2, count, new byte[0], 0, 0);
+        } else if (count <= 0xFFFFFF) {
+            writeRecord(writer, '6', 3, count, new byte[0], 0, 0);
+        }
+        writeRecord(writer, terminationType, addressLength, image.getStartAddress(), new byte[0], 0, 0);
+    }
+
+    private static void writeRecord(Writer writer, char type, int addressLength, int address,
+                                    byte[] data, int offset, int length) throws IOException {
+        int byteCount = addressLength + length + 1;
+        int sum = byteCount;
+
+        StringBuilder line = new StringBuilder();
+        line.append('S').append(type).append(String.format("%02X", byteCount));
+        for (int i = addressLength - 1; i >= 0; i--) {
+            int b = (address >>> (8 * i)) & 0xFF;
+            sum += b;
+            line.append(String.format("%02X", b));
+        }
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xFF;
+            sum += b;
+            line.append(String.format("%02X", b));
+        }
+        line.append(String.format("%02X", ~sum & 0xFF)).append('\n');
+        writer.write(line.toString());
+    }
+
+    // returns record bytes: byte count, address, data, checksum
+    private static byte[] decodeRecord(String line, int lineNumber) throws IOException {
+        if (line.length() < 4 || line.charAt(0) != 'S' || (line.length() % 2) != 0) {
+            throw new IOException("Line " + lineNumber + ": Invalid record");
+        }
+        byte[] record = new byte[(line.length() - 2) / 2];
+        for (int i = 0; i < record.length; i++) {
+            int high = Character.digit(line.charAt(2 + 2 * i), 16);
+            int low = Character.digit(line.charAt(3 + 2 * i), 16);
+            if (high < 0 || low < 0) {
+                throw new IOException("Line " + lineNumber + ": Invalid hexadecimal number");
+            }
+            record[i] = (byte) ((high << 4) | low);
+        }
+        if ((record[0] & 0xFF) != record.length - 1) {
+            throw new IOException("Line " + lineNumber + ": Invalid byte count");
+        }
+        int sum = 0;
+        for (byte b : record) {
+            sum += b & 0xFF;
+        }
+        if ((sum & 0xFF) != 0xFF) {
+            throw new IOException("Line " + lineNumber + ": Invalid checksum");
+        }
+        return record;
+    }
+
+    private static int readAddress(byte[] record, int addressLength, int lineNumber) throws IOException {
+        if (record.length < addressLength + 2) {
+            throw new IOException("Line " + lineNumber + ": Record is too short");
+        }
+        long address = 0;
+        for (int i = 1; i <= addressLength; i++) {
+            address = (address << 8) | (record[i] & 0xFF);
+        }
+        if (address > Integer.MAX_VALUE) {
+            throw new IOException("Line " + lineNumber + ": Address is out of range: " + address);
+        }
+        return (int) address;
+    }
+
+    private static int addressLength(char type) {
+        switch (type) {
+            case '2':
+            case '8':
+                return 3;
+            case '3':
+            case '7':
+                return 4;
+            default:
+                return 2;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.Immutable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Binary program image, independent of the file format it was read from.
+ * <p>
+ * The image consists of segments - continuous blocks of bytes starting at some address - and a program start address.
+ * Segments are kept sorted by address; overlapping or adjacent segments are merged into one, so no two segments
+ * of an image ever overlap.
+ * <p>
+ * Readers of various formats (e.g. {@link IntelHEX}, {@link RawBinary}, {@link MotorolaSRecord}, {@link ELF})
+ * produce program images, which can be then written in another format, or loaded into memory using the bulk
+ * {@link #loadIntoMemory(MemoryContext, Function)} method.
+ */
+@Immutable
+public class ProgramImage {
+    private final List<Segment> segments;
+    private final int startAddress;
+
+    /**
+     * Creates new program image.
+     * <p>
+     * Segments are given in "load order": if some segments overlap, bytes of the later segment overwrite bytes
+     * of the earlier one - as if the segments were loaded one by one into memory.
+     *
+     * @param segments     segments in the load order
+     * @param startAddress program start address
+     */
+    public ProgramImage(List<Segment> segments, int startAddress) {
+        this.segments = Collections.unmodifiableList(normalize(Objects.requireNonNull(segments)));
+        this.startAddress = startAddress;
+    }
+
+    /**
+     * Creates new program image.
+     * <p>
+     * Program start address is set to the lowest segment address, or 0 if there are no segments.
+     *
+     * @param segments segments in the load order
+     * @see #ProgramImage(List, int)
+     */
+    public ProgramImage(List<Segment> segments) {
+        this.segments = Collections.unmodifiableList(normalize(Objects.requireNonNull(segments)));
+        this.startAddress = this.segments.isEmpty() ? 0 : this.segments.get(0).getAddress();
+    }
+
+    /**
+     * Get image segments.
+     *
+     * @return non-overlapping segments sorted by address
+     */
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Get program start address.
+     *
+     * @return program start address
+     */
+    public int getStartAddress() {
+        return startAddress;
+    }
+
+    /**
+     * Get total number of bytes in all segments.
+     *
+     * @return number of bytes of the image
+     */
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.getLength();
+        }
+        return size;
+    }
+
+    /**
+     * Determine if the image has no data.
+     *
+     * @return true if the image has no segments; false otherwise
+     */
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    /**
+     * Loads the image into memory.
+     * <p>
+     * Each segment is written using the bulk {@link MemoryContext#write(int, Object[], int)} method.
+     *
+     * @param <T>     memory cell type
+     * @param memory  memory context
+     * @param convert conversion of byte to T
+     */
+    public <T> void loadIntoMemory(MemoryContext<T> memory, Function<Byte, T> convert) {
+        for (Segment segment : segments) {
+            MemoryLoader.load(memory, segment.getAddress(), ByteBuffer.wrap(segment.data), convert);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ProgramImage that = (ProgramImage) o;
+        return startAddress == that.startAddress && segments.equals(that.segments);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(segments, startAddress);
+    }
+
+    @Override
+    public String toString() {
+        return "ProgramImage{start=" + startAddress + ", segments=" + segments + "}";
+    }
+
+    // Sorts segments by address and merges overlapping or adjacent ones. Within a merged cluster, segments are
+    // painted in the original (load) order, so later segments win.
+    private static List<Segment> normalize(List<Segment> segments) {
+        List<Segment> result = new ArrayList<>();
+        Integer[] order = new Integer[segments.size()];
+        int count = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (segments.get(i).getLength() > 0) {
+                order[count++] = i;
+            }
+        }
+        if (count == 0) {
+            return result;
+        }
+        order = Arrays.copyOf(order, count);
+        Arrays.sort(order, Comparator.comparingInt(i -> segments.get(i).getAddress()));
+
+        int clusterStart = 0;
+        long clusterEnd = segments.get(order[0]).getEndAddress();
+        for (int i = 1; i <= order.length; i++) {
+            if (i < order.length && segments.get(order[i]).getAddress() <= clusterEnd) {
+                clusterEnd = Math.max(clusterEnd, segments.get(order[i]).getEndAddress());
+                continue;
+            }
+            result.add(mergeCluster(segments, Arrays.copyOfRange(order, clusterStart, i), clusterEnd));
+            if (i < order.length) {
+                clusterStart = i;
+                clusterEnd = segments.get(order[i]).getEndAddress();
+            }
+        }
+        return result;
+    }
+
+    private static Segment mergeCluster(List<Segment> segments, Integer[] cluster, long clusterEnd) {
+        if (cluster.length == 1) {
+            return segments.get(cluster[0]);
+        }
+        int address = segments.get(cluster[0]).getAddress();
+        byte[] data = new byte[(int) (clusterEnd - address)];
+
+        Arrays.sort(cluster);
+        for (int index : cluster) {
+            Segment segment = segments.get(index);
+            System.arraycopy(segment.data, 0, data, segment.getAddress() - address, segment.getLength());
+        }
+        return new Segment(address, data);
+    }
+
+    /**
+     * Continuous block of bytes starting at given address.
+     * <p>
+     * The data array is not copied, so it must not be modified after creating the segment.
+     */
+    @Immutable
+    public static class Segment {
+        private final int address;
+        private final byte[] data;
+
+        /**
+         * Creates new segment.
+         *
+         * @param address start address (must be &gt;= 0)
+         * @param data    segment data; not copied
+         */
+        public Segment(int address, byte[] data) {
+            if (address < 0) {
+                throw new IllegalArgumentException("Segment address must be >= 0");
+            }
+            this.address = address;
+            this.data = Objects.requireNonNull(data);
+        }
+
+        /**
+         * Get segment start address.
+         *
+         * @return start address
+         */
+        public int getAddress() {
+            return address;
+        }
+
+        /**
+         * Get address following the last byte of the segment.
+         *
+         * @return end address (exclusive)
+         */
+        public long getEndAddress() {
+            return (long) address + data.length;
+        }
+
+        /**
+         * Get segment length.
+         *
+         * @return number of bytes in the segment
+         */
+        public int getLength() {
+            return data.length;
+        }
+
+        /**
+         * Get segment data.
+         * <p>
+         * The returned array must not be modified.
+         *
+         * @return segment data
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Segment segment = (Segment) o;
+            return address == segment.address && Arrays.equals(data, segment.data);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * address + Arrays.hashCode(data);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Segment{%04X-%04X}", address, getEndAddress() - 1);
+        }
+    }
+}
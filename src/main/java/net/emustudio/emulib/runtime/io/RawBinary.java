@@ -0,0 +1,119 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.memory.MemoryContext;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Loader and generator of raw binary files (e.g. ROM dumps).
+ * <p>
+ * A raw binary file contains just the bytes of a program, without any addressing information. The address where
+ * the file should be loaded must be provided by the caller.
+ */
+@ThreadSafe
+public class RawBinary {
+
+    /**
+     * Parses a raw binary file.
+     *
+     * @param file    file
+     * @param address address where the file content starts
+     * @return program image with single segment, starting at given address
+     * @throws IOException if the file cannot be read
+     */
+    public static ProgramImage parse(File file, int address) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = map(channel);
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            return new ProgramImage(List.of(new ProgramImage.Segment(address, data)), address);
+        }
+    }
+
+    /**
+     * Loads a raw binary file into memory.
+     * <p>
+     * The file is memory-mapped and copied straight into the memory, without building intermediate program image.
+     *
+     * @param <T>     memory cell type
+     * @param file    file
+     * @param address address where the file content will be loaded
+     * @param memory  memory context
+     * @param convert conversion of byte to T
+     * @return program start address (the given address)
+     * @throws IOException if the file cannot be read
+     */
+    public static <T> int loadIntoMemory(File file, int address, MemoryContext<T> memory,
+                                         Function<Byte, T> convert) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MemoryLoader.load(memory, address, map(channel), convert);
+        }
+        return address;
+    }
+
+    /**
+     * Generates a raw binary file from the program image.
+     * <p>
+     * The file starts with the first byte of the lowest segment and ends with the last byte of the highest segment.
+     * Gaps between segments are filled with zeroes.
+     *
+     * @param image program image
+     * @param file  output file
+     * @throws IOException if the file cannot be written
+     */
+    public static void generate(ProgramImage image, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long nextAddress = -1;
+            for (ProgramImage.Segment segment : image.getSegments()) {
+                if (nextAddress >= 0) {
+                    writeZeroes(channel, segment.getAddress() - nextAddress);
+                }
+                ChannelIO.writeFully(channel, ByteBuffer.wrap(segment.getData()));
+                nextAddress = segment.getEndAddress();
+            }
+        }
+    }
+
+    private static void writeZeroes(FileChannel channel, long count) throws IOException {
+        ByteBuffer zeroes = ByteBuffer.allocate((int) Math.min(count, 4096));
+        while (count > 0) {
+            zeroes.clear().limit((int) Math.min(count, zeroes.capacity()));
+            count -= zeroes.remaining();
+            ChannelIO.writeFully(channel, zeroes);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File is too big: " + size + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+}
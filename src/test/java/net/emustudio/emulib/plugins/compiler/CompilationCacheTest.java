@@ -0,0 +1,190 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CompilationCacheTest {
+    private Path directory;
+    private Path source;
+    private Path include;
+    private CompilationCache cache;
+    private int computations;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("emulib");
+        source = directory.resolve("main.asm");
+        include = directory.resolve("macros.inc");
+        Files.writeString(source, "include macros.inc");
+        Files.writeString(include, "macro");
+        cache = new CompilationCache(directory.resolve("cache"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testResultIsReused() throws Exception {
+        assertEquals("include macros.inc+macro", compile(cache, new StringCodec(1)));
+        assertEquals("include macros.inc+macro", compile(cache, new StringCodec(1)));
+        assertEquals(1, computations);
+    }
+
+    @Test
+    public void testChangedSourceIsRecompiled() throws Exception {
+        compile(cache, new StringCodec(1));
+        Files.writeString(source, "include macros.inc ; changed");
+
+        assertEquals("include macros.inc ; changed+macro", compile(cache, new StringCodec(1)));
+        assertEquals(2, computations);
+    }
+
+    @Test
+    public void testChangedDependencyIsRecompiled() throws Exception {
+        compile(cache, new StringCodec(1));
+        Files.writeString(include, "macro2");
+
+        assertEquals("include macros.inc+macro2", compile(cache, new StringCodec(1)));
+        assertEquals(2, computations);
+    }
+
+    @Test
+    public void testSourceSavedDuringComputationIsRecompiled() throws Exception {
+        cache.get("ast", source, new StringCodec(1), dependencies -> {
+            String text = Files.readString(source);
+            Files.writeString(source, "include macros.inc ; saved");
+            return text;
+        });
+        assertEquals("include macros.inc ; saved+macro", compile(cache, new StringCodec(1)));
+        assertEquals(1, computations);
+    }
+
+    @Test
+    public void testDependencySavedDuringComputationIsRecompiled() throws Exception {
+        cache.get("ast", source, new StringCodec(1), dependencies -> {
+            dependencies.add(include);
+            String text = Files.readString(include);
+            Files.writeString(include, "macro2");
+            return text;
+        });
+        assertEquals("include macros.inc+macro2", compile(cache, new StringCodec(1)));
+        assertEquals(1, computations);
+    }
+
+    @Test
+    public void testResultIsReusedFromDisk() throws Exception {
+        compile(cache, new StringCodec(1));
+        CompilationCache newCache = new CompilationCache(directory.resolve("cache"));
+
+        assertEquals("include macros.inc+macro", compile(newCache, new StringCodec(1)));
+        assertEquals(1, computations);
+    }
+
+    @Test
+    public void testOtherCodecVersionIsRecompiled() throws Exception {
+        compile(cache, new StringCodec(1));
+        compile(new CompilationCache(directory.resolve("cache")), new StringCodec(2));
+        assertEquals(2, computations);
+    }
+
+    @Test
+    public void testKindsAreCachedSeparately() throws Exception {
+        cache.get("ast", source, new StringCodec(1), dependencies -> "ast");
+        assertEquals("symbols", cache.get("symbols", source, new StringCodec(1), dependencies -> "symbols"));
+    }
+
+    @Test
+    public void testFailedComputationIsNotCached() throws Exception {
+        try {
+            cache.get("ast", source, new StringCodec(1), dependencies -> {
+                throw new IOException("syntax error");
+            });
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertEquals("syntax error", e.getMessage());
+        }
+        compile(cache, new StringCodec(1));
+        assertEquals(1, computations);
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        compile(cache, new StringCodec(1));
+        cache.clear();
+
+        compile(new CompilationCache(directory.resolve("cache")), new StringCodec(1));
+        assertEquals(2, computations);
+    }
+
+    @Test
+    public void testInMemoryCache() throws Exception {
+        CompilationCache memoryCache = new CompilationCache();
+        compile(memoryCache, new StringCodec(1));
+        compile(memoryCache, new StringCodec(1));
+        assertEquals(1, computations);
+    }
+
+    private String compile(CompilationCache cache, StringCodec codec) throws IOException {
+        return cache.get("ast", source, codec, dependencies -> {
+            computations++;
+            dependencies.add(include);
+            return Files.readString(source) + "+" + Files.readString(include);
+        });
+    }
+
+    private static class StringCodec implements CompilationCache.Codec<String> {
+        private final int version;
+
+        StringCodec(int version) {
+            this.version = version;
+        }
+
+        @Override
+        public int getVersion() {
+            return version;
+        }
+
+        @Override
+        public void write(String value, DataOutput output) throws IOException {
+            output.writeUTF(value);
+        }
+
+        @Override
+        public String read(DataInput input) throws IOException {
+            return input.readUTF();
+        }
+    }
+}
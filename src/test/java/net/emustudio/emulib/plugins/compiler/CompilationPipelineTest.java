@@ -0,0 +1,122 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.emustudio.emulib.plugins.compiler.CompilerMessage.MessageType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class CompilationPipelineTest {
+    private final List<CompilerMessage> messages = new ArrayList<>();
+
+    // module = input upper-cased; sections = one per module, with the count of all modules; code = section + count
+    private final CompilationPipeline<String, String, String, String> pipeline = new CompilationPipeline<>(
+            (input, messages) -> {
+                // later inputs finish first
+                LockSupport.parkNanos((10 - input.length()) * 1_000_000L);
+                messages.warning(input.length(), 0, "parsed " + input);
+                if (input.startsWith("bad")) {
+                    messages.error(1, 1, "syntax error in " + input);
+                }
+                return input.toUpperCase();
+            },
+            (modules, messages) -> {
+                messages.info(0, 0, "resolved " + modules.size());
+                return modules.stream().map(module -> module + "/" + modules.size()).collect(Collectors.toList());
+            },
+            (section, messages) -> {
+                if (section.startsWith("THROW")) {
+                    throw new IllegalStateException("generator failed");
+                }
+                return "code:" + section;
+            },
+            new ForkJoinPool(4)
+    );
+
+    @Test
+    public void testCompileProducesCodeInSectionOrder() {
+        Optional<List<String>> code = pipeline.compile(List.of("a", "bb", "ccc"), messages::add);
+
+        assertEquals(Optional.of(List.of("code:A/3", "code:BB/3", "code:CCC/3")), code);
+    }
+
+    @Test
+    public void testMessagesAreOrderedDeterministically() {
+        for (int i = 0; i < 10; i++) {
+            messages.clear();
+            pipeline.compile(List.of("a", "bb", "ccc", "dddd"), messages::add);
+
+            assertEquals(
+                    List.of("parsed a", "parsed bb", "parsed ccc", "parsed dddd", "resolved 4"),
+                    messages.stream().map(CompilerMessage::getMessage).collect(Collectors.toList())
+            );
+        }
+    }
+
+    @Test
+    public void testParseErrorStopsCompilation() {
+        Optional<List<String>> code = pipeline.compile(List.of("a", "bad", "ccc"), messages::add);
+
+        assertTrue(code.isEmpty());
+        assertEquals(4, messages.size());
+        assertEquals(MessageType.TYPE_ERROR, messages.get(2).getMessageType());
+        assertEquals("syntax error in bad", messages.get(2).getMessage());
+    }
+
+    @Test
+    public void testExceptionIsReportedAsError() {
+        Optional<List<String>> code = pipeline.compile(List.of("a", "throw"), messages::add);
+
+        assertTrue(code.isEmpty());
+        CompilerMessage last = messages.get(messages.size() - 1);
+        assertEquals(MessageType.TYPE_ERROR, last.getMessageType());
+        assertEquals("generator failed", last.getMessage());
+    }
+
+    @Test
+    public void testModulesAreParsedInParallel() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CompilationPipeline<Integer, Integer, Integer, Integer> parallel = new CompilationPipeline<>(
+                (input, messages) -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    LockSupport.parkNanos(20_000_000L);
+                    running.decrementAndGet();
+                    return input;
+                },
+                (modules, messages) -> modules,
+                (section, messages) -> section,
+                new ForkJoinPool(4)
+        );
+
+        List<Integer> inputs = IntStream.range(0, 8).boxed().collect(Collectors.toList());
+        assertEquals(Optional.of(inputs), parallel.compile(inputs, messages::add));
+        assertTrue(maxRunning.get() > 1);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class CompilerServerTest {
+    private final List<String> compiled = new ArrayList<>();
+    private final AbstractCompilerStub compiler = new AbstractCompilerStub() {
+        @Override
+        public boolean compile(String inputFileName, String outputFileName) {
+            notifyCompileStart();
+            compiled.add(inputFileName + "->" + outputFileName);
+            notifyWarning(1, 2, "unused label");
+            notifyCompileFinish();
+            return inputFileName.startsWith("good");
+        }
+
+        @Override
+        public boolean compile(String inputFileName) {
+            return compile(inputFileName, inputFileName + ".hex");
+        }
+    };
+    private final CompilerServer server = new CompilerServer(compiler);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testServeStream() throws Exception {
+        String requests = "PING\nCOMPILE good.asm\n\nCOMPILE bad.asm\tout.hex\nHELLO\nQUIT\nCOMPILE good.asm\n";
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        server.serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), output);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals("PONG", lines[0]);
+        assertTrue(lines[1].startsWith("MESSAGE "));
+        assertTrue(lines[1].endsWith("unused label"));
+        assertEquals("OK", lines[2]);
+        assertTrue(lines[3].startsWith("MESSAGE "));
+        assertEquals("FAILED", lines[4]);
+        assertTrue(lines[5].startsWith("ERROR "));
+        assertEquals(6, lines.length);
+        assertEquals(List.of("good.asm->good.asm.hex", "bad.asm->out.hex"), compiled);
+    }
+
+    @Test
+    public void testListenerIsRemovedAfterCompile() throws Exception {
+        server.serve(new ByteArrayInputStream("COMPILE good.asm\n".getBytes(StandardCharsets.UTF_8)),
+                new ByteArrayOutputStream());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        server.serve(new ByteArrayInputStream("COMPILE good.asm\n".getBytes(StandardCharsets.UTF_8)), output);
+
+        assertEquals(2, output.toString(StandardCharsets.UTF_8).split("\n").length);
+    }
+
+    @Test
+    public void testBatchedMessagesAreReplied() throws Exception {
+        compiler.setBatchedMessageDelivery(executor, 100, 0, 0);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        server.serve(new ByteArrayInputStream("COMPILE good.asm\n".getBytes(StandardCharsets.UTF_8)), output);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].endsWith("unused label"));
+        assertEquals("OK", lines[1]);
+    }
+
+    @Test
+    public void testServeSocket() throws Exception {
+        Path socketFile = server.start();
+        for (int i = 0; i < 2; i++) {
+            try (SocketChannel socket = connect(socketFile)) {
+                OutputStream output = Channels.newOutputStream(socket);
+                BufferedReader input = reader(socket);
+
+                output.write("COMPILE good.asm\n".getBytes(StandardCharsets.UTF_8));
+                output.flush();
+                assertTrue(input.readLine().startsWith("MESSAGE "));
+                assertEquals("OK", input.readLine());
+
+                output.write("QUIT\n".getBytes(StandardCharsets.UTF_8));
+                output.flush();
+                assertNull(input.readLine());
+            }
+        }
+        assertEquals(2, compiled.size());
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseEndsSessions() throws Exception {
+        Path socketFile = server.start();
+        try (SocketChannel socket = connect(socketFile)) {
+            BufferedReader input = reader(socket);
+            Channels.newOutputStream(socket).write("PING\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("PONG", input.readLine());
+
+            server.close();
+            assertNull(input.readLine());
+        }
+        assertFalse(Files.exists(socketFile));
+        assertFalse(Files.exists(socketFile.getParent()));
+    }
+
+    @Test
+    public void testStartAfterClose() throws Exception {
+        server.start();
+        server.close();
+        Path socketFile = server.start();
+        try (SocketChannel socket = connect(socketFile)) {
+            BufferedReader input = reader(socket);
+            Channels.newOutputStream(socket).write("PING\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals("PONG", input.readLine());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStartTwiceThrows() throws Exception {
+        server.start();
+        server.start();
+    }
+
+    @Test
+    public void testSocketDirectoryIsAccessibleByOwnerOnly() throws Exception {
+        Path socketFile = server.start();
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(
+                    PosixFilePermissions.fromString("rwx------"),
+                    Files.getPosixFilePermissions(socketFile.getParent())
+            );
+        }
+    }
+
+    private static SocketChannel connect(Path socketFile) throws Exception {
+        return SocketChannel.open(UnixDomainSocketAddress.of(socketFile));
+    }
+
+    private static BufferedReader reader(SocketChannel socket) {
+        return new BufferedReader(new InputStreamReader(Channels.newInputStream(socket), StandardCharsets.UTF_8));
+    }
+}
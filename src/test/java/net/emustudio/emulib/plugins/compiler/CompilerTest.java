@@ -0,0 +1,72 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.emustudio.emulib.runtime.io.ProgramImage;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class CompilerTest {
+
+    @Test
+    public void testInMemoryCompileIsNotSupportedByDefault() {
+        AbstractCompilerStub compiler = new AbstractCompilerStub();
+        assertFalse(compiler.isInMemoryCompileSupported());
+        try {
+            compiler.compileToImage("nop");
+            fail("Exception expected");
+        } catch (UnsupportedOperationException ignored) {
+        }
+    }
+
+    @Test
+    public void testCompileCharSequenceToImage() {
+        // "assembles" each line into its bytes
+        AbstractCompilerStub compiler = new AbstractCompilerStub() {
+            @Override
+            public boolean isInMemoryCompileSupported() {
+                return true;
+            }
+
+            @Override
+            public Optional<ProgramImage> compileToImage(Reader source) throws IOException {
+                String line = new BufferedReader(source).readLine();
+                if (line == null) {
+                    notifyError("empty source");
+                    return Optional.empty();
+                }
+                byte[] data = line.getBytes(StandardCharsets.US_ASCII);
+                return Optional.of(new ProgramImage(List.of(new ProgramImage.Segment(0x100, data))));
+            }
+        };
+
+        ProgramImage image = compiler.compileToImage(new StringBuilder("ab")).orElseThrow();
+        assertEquals(0x100, image.getStartAddress());
+        assertArrayEquals(new byte[]{'a', 'b'}, image.getSegments().get(0).getData());
+        assertTrue(compiler.compileToImage("").isEmpty());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class DebugMapTest {
+
+    private static DebugMap createMap() {
+        return new DebugMap.Builder()
+                .add(0x103, 2, "main.asm", 3)
+                .add(0x100, 3, "main.asm", 1)
+                .add(0x110, 1, "lib.inc", 10)
+                .add(0x105, 1, "main.asm", 5)
+                .add(0x106, 2, "main.asm", 5)
+                .build();
+    }
+
+    @Test
+    public void testFindSource() {
+        DebugMap map = createMap();
+
+        assertEquals(5, map.size());
+        assertEquals(Optional.of(new DebugMap.SourceLocation("main.asm", 1)), map.findSource(0x100));
+        assertEquals(Optional.of(new DebugMap.SourceLocation("main.asm", 1)), map.findSource(0x102));
+        assertEquals(Optional.of(new DebugMap.SourceLocation("main.asm", 3)), map.findSource(0x104));
+        assertEquals(Optional.of(new DebugMap.SourceLocation("main.asm", 5)), map.findSource(0x107));
+        assertEquals(Optional.of(new DebugMap.SourceLocation("lib.inc", 10)), map.findSource(0x110));
+    }
+
+    @Test
+    public void testFindSourceOutsideCode() {
+        DebugMap map = createMap();
+
+        assertTrue(map.findSource(0xFF).isEmpty());
+        assertTrue(map.findSource(0x108).isEmpty());
+        assertTrue(map.findSource(0x111).isEmpty());
+    }
+
+    @Test
+    public void testFindAddress() {
+        DebugMap map = createMap();
+
+        assertEquals(0x100, map.findAddress("main.asm", 1));
+        assertEquals(0x105, map.findAddress("main.asm", 5));
+        assertEquals(0x103, map.findAddress("main.asm", 2)); // next line with code
+        assertEquals(0x100, map.findAddress("main.asm", 0));
+        assertEquals(-1, map.findAddress("main.asm", 6));
+        assertEquals(0x110, map.findAddress("lib.inc", 1));
+        assertEquals(-1, map.findAddress("unknown.asm", 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverlappingEntriesThrow() {
+        new DebugMap.Builder().add(0x100, 3, "main.asm", 1).add(0x102, 1, "main.asm", 2).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEntryOverflowingAddressRangeThrows() {
+        new DebugMap.Builder().add(Integer.MAX_VALUE - 1, 3, "main.asm", 1);
+    }
+
+    @Test
+    public void testLargeMap() {
+        DebugMap.Builder builder = new DebugMap.Builder();
+        for (int line = 0; line < 100000; line++) {
+            builder.add(line * 3, 3, "big.asm", line);
+        }
+        DebugMap map = builder.build();
+
+        assertEquals(Optional.of(new DebugMap.SourceLocation("big.asm", 33333)), map.findSource(100000));
+        assertEquals(99999 * 3, map.findAddress("big.asm", 99999));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        DebugMap map = createMap();
+        Path file = DebugMap.pathFor(Files.createTempFile("emulib", ".hex"));
+        try {
+            assertTrue(file.getFileName().toString().endsWith(".hex.dbg"));
+            map.save(file);
+            DebugMap loaded = DebugMap.load(file);
+
+            assertEquals(List.of("main.asm", "lib.inc"), loaded.getFiles());
+            assertEquals(map.size(), loaded.size());
+            for (int address = 0xFF; address < 0x112; address++) {
+                assertEquals(map.findSource(address), loaded.findSource(address));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.resolveSibling(file.getFileName().toString().replace(".dbg", "")));
+        }
+    }
+}
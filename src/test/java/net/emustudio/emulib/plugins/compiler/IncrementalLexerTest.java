@@ -0,0 +1,204 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IncrementalLexerTest {
+    private CommentLexer lexer;
+    private IncrementalLexer incremental;
+
+    @Before
+    public void setUp() {
+        lexer = new CommentLexer();
+        incremental = new IncrementalLexer(lexer);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLexerWithoutSupportIsRejected() {
+        new IncrementalLexer(new WordLexer());
+    }
+
+    @Test
+    public void testLexWholeDocument() {
+        String text = "mvi a\n/* x\ny */ b\n";
+        TokenBuffer tokens = incremental.lex(text);
+
+        assertTokensEqual(fullLex(text), tokens);
+        assertEquals(0, incremental.getRelexedStart());
+        assertEquals(text.length(), incremental.getRelexedEnd());
+    }
+
+    @Test
+    public void testEditInOneLineRelexesOnlyThatLine() {
+        String text = "mov a, b\n".repeat(1000);
+        incremental.lex(text);
+
+        int offset = 500 * 9 + 4; // "a" on line 500
+        String newText = text.substring(0, offset) + "xyz" + text.substring(offset + 1);
+        TokenBuffer tokens = incremental.edit(newText, offset, 1, 3);
+
+        assertTokensEqual(fullLex(newText), tokens);
+        assertTrue(incremental.getRelexedTokens() < 20);
+        assertTrue(incremental.getRelexedStart() <= offset);
+        assertTrue(incremental.getRelexedEnd() >= offset + 3);
+    }
+
+    @Test
+    public void testOpeningCommentRelexesUntilItIsClosed() {
+        String text = "a\nb\nc */\nd\ne\n".repeat(100);
+        incremental.lex(text);
+
+        String newText = "/*" + text;
+        TokenBuffer tokens = incremental.edit(newText, 0, 0, 2);
+
+        assertTokensEqual(fullLex(newText), tokens);
+        assertTrue(incremental.getRelexedTokens() < 20);
+        assertEquals(Token.COMMENT, tokens.getType(tokens.indexOf(3)));
+        assertEquals(Token.IDENTIFIER, tokens.getType(tokens.indexOf(newText.indexOf('d'))));
+    }
+
+    @Test
+    public void testRandomEditsMatchFullLexing() {
+        Random random = new Random(42);
+        String alphabet = "ab /*\n";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        incremental.lex(text.toString());
+
+        for (int i = 0; i < 300; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(4, text.length() - offset) + 1);
+            StringBuilder inserted = new StringBuilder();
+            for (int j = random.nextInt(4); j > 0; j--) {
+                inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            text.replace(offset, offset + removed, inserted.toString());
+
+            TokenBuffer tokens = incremental.edit(text.toString(), offset, removed, inserted.length());
+            assertTokensEqual(fullLex(text.toString()), tokens);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEditNotMatchingDocumentThrows() {
+        incremental.lex("abc");
+        incremental.edit("abcd", 0, 1, 1);
+    }
+
+    private TokenBuffer fullLex(String text) {
+        lexer.reset(text);
+        return TokenBuffer.of(lexer, text);
+    }
+
+    private static void assertTokensEqual(TokenBuffer expected, TokenBuffer actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("type of token " + i, expected.getType(i), actual.getType(i));
+            assertEquals("offset of token " + i, expected.getOffset(i), actual.getOffset(i));
+            assertEquals("length of token " + i, expected.getLength(i), actual.getLength(i));
+        }
+    }
+
+    // words, whitespace and multi-line comments /* */; a comment token ends at "*/" or after new line
+    private static class CommentLexer implements LexicalAnalyzer {
+        private final static int STATE_NORMAL = 0;
+        private final static int STATE_COMMENT = 1;
+
+        private String input = "";
+        private int position;
+        private int state;
+
+        @Override
+        public Token next() {
+            if (position >= input.length()) {
+                return new WordLexer.SimpleToken(Token.EOF, position, "");
+            }
+            int start = position;
+            int type;
+            if (state == STATE_COMMENT || input.startsWith("/*", position)) {
+                if (state == STATE_NORMAL) {
+                    position += 2;
+                    state = STATE_COMMENT;
+                }
+                while (position < input.length() && state == STATE_COMMENT) {
+                    if (input.startsWith("*/", position)) {
+                        position += 2;
+                        state = STATE_NORMAL;
+                    } else if (input.charAt(position++) == '\n') {
+                        break;
+                    }
+                }
+                type = Token.COMMENT;
+            } else if (Character.isWhitespace(input.charAt(position))) {
+                while (position < input.length() && Character.isWhitespace(input.charAt(position))) {
+                    position++;
+                }
+                type = Token.WHITESPACE;
+            } else {
+                while (position < input.length() && !Character.isWhitespace(input.charAt(position))
+                        && !input.startsWith("/*", position)) {
+                    position++;
+                }
+                type = Token.IDENTIFIER;
+            }
+            return new WordLexer.SimpleToken(type, start, input.substring(start, position));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < input.length();
+        }
+
+        @Override
+        public void reset(InputStream input) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reset(String input) {
+            reset(input, 0, STATE_NORMAL);
+        }
+
+        @Override
+        public boolean isIncrementalSupported() {
+            return true;
+        }
+
+        @Override
+        public int getState() {
+            return state;
+        }
+
+        @Override
+        public void reset(String input, int offset, int state) {
+            this.input = input;
+            this.position = offset;
+            this.state = state;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class LexicalAnalyzerTest {
+    private WordLexer lexer;
+
+    @Before
+    public void setUp() {
+        lexer = new WordLexer();
+        lexer.reset("mvi a, 5");
+    }
+
+    @Test
+    public void testIteratorIsLazy() {
+        Iterator<Token> iterator = lexer.iterator();
+        assertEquals(0, lexer.nextCalls);
+
+        assertEquals("mvi", iterator.next().getText());
+        assertEquals(1, lexer.nextCalls);
+    }
+
+    @Test
+    public void testIteratorReturnsAllTokens() {
+        int count = 0;
+        for (Token token : lexer) {
+            assertNotEquals(Token.EOF, token.getType());
+            count++;
+        }
+        assertEquals(5, count);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorThrowsAtEnd() {
+        Iterator<Token> iterator = lexer.iterator();
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+        iterator.next();
+    }
+
+    @Test
+    public void testStream() {
+        List<String> identifiers = lexer.stream()
+                .filter(token -> token.getType() == Token.IDENTIFIER)
+                .map(Token::getText)
+                .collect(Collectors.toList());
+        assertEquals(List.of("mvi", "a,", "5"), identifiers);
+    }
+
+    @Test
+    public void testShortCircuitingStreamStopsLexing() {
+        lexer.reset("a ".repeat(10000));
+        assertEquals("a", lexer.stream().findFirst().orElseThrow().getText());
+        assertEquals(1, lexer.nextCalls);
+    }
+}
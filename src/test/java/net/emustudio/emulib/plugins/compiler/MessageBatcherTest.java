@@ -0,0 +1,188 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import net.emustudio.emulib.plugins.compiler.CompilerMessage.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MessageBatcherTest {
+    private AbstractCompilerStub compiler;
+    private RecordingListener listener;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        compiler = new AbstractCompilerStub();
+        listener = new RecordingListener();
+        compiler.addCompilerListener(listener);
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSynchronousDeliveryByDefault() {
+        compiler.notifyCompileStart();
+        compiler.notifyWarning(1, 2, "warning");
+        compiler.notifyCompileFinish();
+
+        assertEquals(List.of("start", "message:warning", "finish"), listener.events);
+    }
+
+    @Test
+    public void testMessagesAreDeliveredInBatches() {
+        compiler.setBatchedMessageDelivery(Runnable::run, 3, 0, 0);
+        compiler.notifyCompileStart();
+        for (int i = 0; i < 7; i++) {
+            compiler.notifyWarning(i, 0, "warning " + i);
+        }
+        assertEquals(List.of("start", "batch:3", "batch:3"), listener.events);
+
+        compiler.notifyCompileFinish();
+        assertEquals(List.of("start", "batch:3", "batch:3", "batch:1", "finish"), listener.events);
+        assertEquals(7, listener.messages.size());
+        assertEquals(6, listener.messages.get(6).getLine());
+    }
+
+    @Test
+    public void testAsynchronousDeliveryKeepsOrder() throws Exception {
+        compiler.setBatchedMessageDelivery(executor, 10, 0, 0);
+        for (int run = 0; run < 5; run++) {
+            compiler.notifyCompileStart();
+            for (int i = 0; i < 1000; i++) {
+                compiler.notifyError(i, 0, "error " + i);
+            }
+            compiler.notifyCompileFinish();
+        }
+        listener.awaitFinishes(5);
+
+        assertEquals(5000, listener.messages.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i % 1000, listener.messages.get(i).getLine());
+        }
+        assertEquals("start", listener.events.get(0));
+        assertEquals("finish", listener.events.get(listener.events.size() - 1));
+    }
+
+    @Test
+    public void testRepeatedMessagesAreCapped() {
+        compiler.setBatchedMessageDelivery(Runnable::run, 100, 2, 0);
+        compiler.notifyCompileStart();
+        for (int i = 0; i < 5; i++) {
+            compiler.notifyWarning(i, 0, "same");
+        }
+        compiler.notifyWarning("other");
+        compiler.notifyError("same");
+        compiler.notifyCompileFinish();
+
+        assertEquals(5, listener.messages.size());
+        CompilerMessage summary = listener.messages.get(4);
+        assertEquals(MessageType.TYPE_INFO, summary.getMessageType());
+        assertTrue(summary.getMessage().startsWith("3 "));
+    }
+
+    @Test
+    public void testTotalMessagesAreCappedPerCompilation() {
+        compiler.setBatchedMessageDelivery(Runnable::run, 100, 0, 3);
+        for (int run = 0; run < 2; run++) {
+            compiler.notifyCompileStart();
+            for (int i = 0; i < 10; i++) {
+                compiler.notifyOnMessage(new CompilerMessage(MessageType.TYPE_WARNING, "warning " + i));
+            }
+            compiler.notifyCompileFinish();
+        }
+        assertEquals(8, listener.messages.size());
+        assertEquals("warning 2", listener.messages.get(2).getMessage());
+        assertTrue(listener.messages.get(3).getMessage().startsWith("7 "));
+    }
+
+    @Test
+    public void testSwitchingToSynchronousDeliveryFlushesPendingMessages() {
+        compiler.setBatchedMessageDelivery(Runnable::run, 100, 0, 0);
+        compiler.notifyInfo("pending");
+        compiler.setSynchronousMessageDelivery();
+        compiler.notifyInfo("direct");
+
+        assertEquals(List.of("batch:1", "message:direct"), listener.events);
+    }
+
+    @Test
+    public void testRejectedDeliveryHappensOnCallerThread() {
+        executor.shutdown();
+        compiler.setBatchedMessageDelivery(executor, 100, 0, 0);
+        compiler.notifyCompileStart();
+        compiler.notifyWarning(1, 2, "warning");
+        compiler.notifyCompileFinish();
+
+        assertEquals(List.of("start", "batch:1", "finish"), listener.events);
+        assertTrue(compiler.messagesDelivered().isDone());
+    }
+
+    private static class RecordingListener implements CompilerListener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final List<CompilerMessage> messages = Collections.synchronizedList(new ArrayList<>());
+        private int finishes;
+
+        @Override
+        public void onStart() {
+            events.add("start");
+        }
+
+        @Override
+        public void onMessage(CompilerMessage compilerMessage) {
+            events.add("message:" + compilerMessage.getMessage());
+            messages.add(compilerMessage);
+        }
+
+        @Override
+        public void onMessages(List<CompilerMessage> compilerMessages) {
+            events.add("batch:" + compilerMessages.size());
+            messages.addAll(compilerMessages);
+        }
+
+        @Override
+        public synchronized void onFinish() {
+            events.add("finish");
+            finishes++;
+            notifyAll();
+        }
+
+        synchronized void awaitFinishes(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (finishes < count && System.nanoTime() < deadline) {
+                wait(100);
+            }
+            assertEquals(count, finishes);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class PreprocessorTest {
+    private Path directory;
+    private int lexers;
+    private int passedDirectives;
+    private Preprocessor preprocessor;
+
+    // #include file
+    // #macro name param... = body
+    private final Preprocessor.Syntax syntax = (tokens, index, directives) -> {
+        String directive = tokens.get(index).getText();
+        if (directive.equals("#include")) {
+            directives.include(tokens.get(index + 2).getText());
+            return 3;
+        } else if (directive.equals("#macro")) {
+            String name = tokens.get(index + 2).getText();
+            List<String> parameters = new ArrayList<>();
+            int i = index + 3;
+            for (; !tokens.get(i).getText().equals("="); i++) {
+                if (tokens.get(i).getType() == Token.IDENTIFIER) {
+                    parameters.add(tokens.get(i).getText());
+                }
+            }
+            int bodyStart = i + 2;
+            for (; i < tokens.size() && !tokens.get(i).getText().equals("\n"); i++) {
+            }
+            directives.define(name, parameters, tokens.subList(bodyStart, i));
+            return i + 1 - index;
+        }
+        passedDirectives++;
+        return 0;
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("emulib");
+        preprocessor = new Preprocessor(() -> {
+            lexers++;
+            return new AsmLexer();
+        }, syntax);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testSourceWithoutDirectivesIsUnchanged() throws Exception {
+        assertEquals("mvi a, 5\n#org 100\n", process("mvi a, 5\n#org 100\n"));
+        assertEquals(1, passedDirectives);
+    }
+
+    @Test
+    public void testMacroExpansion() throws Exception {
+        String source = "#macro load r v = mvi r , v\nload a, 5\nload b, c\n";
+        assertEquals("mvi a , 5\nmvi b , c\n", process(source));
+        assertTrue(preprocessor.isDefined("load"));
+    }
+
+    @Test
+    public void testNestedMacros() throws Exception {
+        String source = "#macro zero r = mvi r , 0\n#macro clear = zero a\nclear\n";
+        assertEquals("mvi a , 0\n", process(source));
+    }
+
+    @Test(expected = PreprocessorException.class)
+    public void testRecursiveMacroThrows() throws Exception {
+        process("#macro a = b\n#macro b = a\na\n");
+    }
+
+    @Test(expected = PreprocessorException.class)
+    public void testWrongNumberOfArgumentsThrows() throws Exception {
+        process("#macro load r v = mvi r , v\nload a\n");
+    }
+
+    @Test
+    public void testExpansionsAreMemoized() throws Exception {
+        String source = "#macro m x = #mark x\nm 1\nm 1\nm 2\n";
+        assertEquals("#mark 1\n#mark 1\n#mark 2\n", process(source));
+        assertEquals(2, passedDirectives);
+    }
+
+    @Test
+    public void testMemoizedExpansionUsesTokensOfItsArguments() throws Exception {
+        String source = "#macro m x = #mark x\nm a\nm a\n";
+        List<Token> tokens = preprocessor.process(source, directory.resolve("main.asm"));
+        List<Token> arguments = tokens.stream()
+                .filter(token -> token.getText().equals("a"))
+                .collect(Collectors.toList());
+
+        assertEquals(2, arguments.size());
+        assertEquals(source.indexOf("m a") + 2, arguments.get(0).getOffset());
+        assertEquals(source.lastIndexOf("m a") + 2, arguments.get(1).getOffset());
+        assertEquals(1, passedDirectives);
+    }
+
+    @Test
+    public void testIncludeIsLexedOncePerContent() throws Exception {
+        Files.writeString(directory.resolve("a.inc"), "nop\n");
+        Files.writeString(directory.resolve("b.inc"), "nop\n");
+        Path main = directory.resolve("main.asm");
+        Files.writeString(main, "#include a.inc\n#include b.inc\n#include a.inc\nhlt\n");
+
+        assertEquals("nop\n\nnop\n\nnop\n\nhlt\n", join(preprocessor.process(main)));
+        assertEquals(2, lexers);
+    }
+
+    @Test
+    public void testIncludeDefinesMacros() throws Exception {
+        Files.writeString(directory.resolve("macros.inc"), "#macro halt = hlt\n");
+        assertEquals("\nhlt\n", process("#include macros.inc\nhalt\n"));
+    }
+
+    @Test(expected = PreprocessorException.class)
+    public void testRecursiveIncludeThrows() throws Exception {
+        Files.writeString(directory.resolve("a.inc"), "#include b.inc\n");
+        Files.writeString(directory.resolve("b.inc"), "#include a.inc\n");
+        process("#include a.inc\n");
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        process("#macro halt = hlt\n");
+        preprocessor.reset();
+        assertFalse(preprocessor.isDefined("halt"));
+        assertEquals("halt\n", process("halt\n"));
+    }
+
+    private String process(String source) throws IOException, PreprocessorException {
+        return join(preprocessor.process(source, directory.resolve("main.asm")));
+    }
+
+    private static String join(List<Token> tokens) {
+        return tokens.stream().map(Token::getText).collect(Collectors.joining());
+    }
+
+    // "#word" is a preprocessor token, "," and new line are separators
+    private static class AsmLexer implements LexicalAnalyzer {
+        private String input = "";
+        private int position;
+
+        @Override
+        public Token next() {
+            if (position >= input.length()) {
+                return new WordLexer.SimpleToken(Token.EOF, position, "");
+            }
+            int start = position;
+            char c = input.charAt(position++);
+            int type;
+            if (c == ',' || c == '\n') {
+                type = Token.SEPARATOR;
+            } else if (c == ' ') {
+                while (position < input.length() && input.charAt(position) == ' ') {
+                    position++;
+                }
+                type = Token.WHITESPACE;
+            } else {
+                while (position < input.length() && " ,\n".indexOf(input.charAt(position)) < 0) {
+                    position++;
+                }
+                type = (c == '#') ? Token.PREPROCESSOR : Token.IDENTIFIER;
+            }
+            return new WordLexer.SimpleToken(type, start, input.substring(start, position));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < input.length();
+        }
+
+        @Override
+        public void reset(InputStream input) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void reset(String input) {
+            this.input = input;
+            this.position = 0;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TokenBufferTest {
+
+    @Test
+    public void testAddAndGet() {
+        TokenBuffer buffer = new TokenBuffer("mvi a, 5");
+        assertEquals(0, buffer.add(Token.RESERVED, 0, 3));
+        assertEquals(1, buffer.add(Token.REGISTER, 4, 1));
+
+        assertEquals(2, buffer.size());
+        assertEquals(Token.REGISTER, buffer.getType(1));
+        assertEquals(4, buffer.getOffset(1));
+        assertEquals(1, buffer.getLength(1));
+        assertEquals(5, buffer.getEndOffset(1));
+        assertEquals("mvi", buffer.getText(0));
+    }
+
+    @Test
+    public void testBufferGrows() {
+        String source = "x".repeat(5000);
+        TokenBuffer buffer = new TokenBuffer(source, 0);
+        for (int i = 0; i < source.length(); i++) {
+            buffer.add(Token.IDENTIFIER, i, 1);
+        }
+        assertEquals(5000, buffer.size());
+        assertEquals(4999, buffer.getOffset(4999));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testAddOutOfSourceThrows() {
+        new TokenBuffer("abc").add(Token.IDENTIFIER, 2, 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfRangeThrows() {
+        new TokenBuffer("abc", 16).getType(0);
+    }
+
+    @Test
+    public void testTextEquals() {
+        TokenBuffer buffer = new TokenBuffer("MVI a");
+        buffer.add(Token.RESERVED, 0, 3);
+
+        assertTrue(buffer.textEquals(0, "MVI"));
+        assertFalse(buffer.textEquals(0, "mvi"));
+        assertFalse(buffer.textEquals(0, "MV"));
+        assertTrue(buffer.textEqualsIgnoreCase(0, "mvi"));
+        assertFalse(buffer.textEqualsIgnoreCase(0, "mov"));
+    }
+
+    @Test
+    public void testIndexOf() {
+        TokenBuffer buffer = new TokenBuffer("mvi a, 5");
+        buffer.add(Token.RESERVED, 0, 3);
+        buffer.add(Token.REGISTER, 4, 1);
+        buffer.add(Token.LITERAL, 7, 1);
+
+        assertEquals(0, buffer.indexOf(0));
+        assertEquals(0, buffer.indexOf(2));
+        assertEquals(-1, buffer.indexOf(3));
+        assertEquals(1, buffer.indexOf(4));
+        assertEquals(2, buffer.indexOf(7));
+        assertEquals(-1, buffer.indexOf(8));
+    }
+
+    @Test
+    public void testReset() {
+        TokenBuffer buffer = new TokenBuffer("abc");
+        buffer.add(Token.IDENTIFIER, 0, 3);
+        buffer.reset("de");
+
+        assertEquals(0, buffer.size());
+        assertEquals("de", buffer.getSource());
+    }
+
+    @Test
+    public void testOfLexerAndTokenView() {
+        WordLexer lexer = new WordLexer();
+        lexer.reset("mvi a, 5");
+        TokenBuffer buffer = TokenBuffer.of(lexer, "mvi a, 5");
+
+        assertEquals(5, buffer.size());
+        assertEquals(Token.WHITESPACE, buffer.getType(1));
+        Token token = buffer.getToken(2);
+        assertEquals(Token.IDENTIFIER, token.getType());
+        assertEquals(4, token.getOffset());
+        assertEquals("a,", token.getText());
+    }
+}
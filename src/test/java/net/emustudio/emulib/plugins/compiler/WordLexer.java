@@ -0,0 +1,89 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.compiler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Simple lexer producing identifiers (runs of non-space characters) and whitespace.
+ */
+public class WordLexer implements LexicalAnalyzer {
+    private String input = "";
+    private int position;
+    int nextCalls;
+
+    @Override
+    public Token next() {
+        nextCalls++;
+        if (position >= input.length()) {
+            return new SimpleToken(Token.EOF, position, "");
+        }
+        int start = position;
+        boolean whitespace = Character.isWhitespace(input.charAt(position));
+        while (position < input.length() && Character.isWhitespace(input.charAt(position)) == whitespace) {
+            position++;
+        }
+        return new SimpleToken(whitespace ? Token.WHITESPACE : Token.IDENTIFIER, start, input.substring(start, position));
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < input.length();
+    }
+
+    @Override
+    public void reset(InputStream input) throws IOException {
+        reset(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void reset(String input) {
+        this.input = input;
+        this.position = 0;
+    }
+
+    static class SimpleToken implements Token {
+        private final int type;
+        private final int offset;
+        private final String text;
+
+        SimpleToken(int type, int offset, String text) {
+            this.type = type;
+            this.offset = offset;
+            this.text = text;
+        }
+
+        @Override
+        public int getType() {
+            return type;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+
+        @Override
+        public String getText() {
+            return text;
+        }
+    }
+}
@@ -24,6 +24,8 @@ import net.emustudio.emulib.runtime.ApplicationApi;
 import net.emustudio.emulib.runtime.settings.PluginSettings;
 
 import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
@@ -39,6 +41,7 @@ public class AbstractCPUStub extends AbstractCPU {
 
     private RunState runStateToReturn = RunState.STATE_STOPPED_NORMAL;
     private RuntimeException exceptionToThrow;
+    final List<Integer> changedBreakpoints = new ArrayList<>();
 
     public AbstractCPUStub(long id, ApplicationApi emustudio, PluginSettings settngs) {
         super(id, emustudio, settngs);
@@ -56,6 +59,10 @@ public class AbstractCPUStub extends AbstractCPU {
         this.exceptionToThrow = exceptionToThrow;
     }
 
+    public void publish(int location) {
+        publishInstructionLocation(location);
+    }
+
     @Override
     protected RunState stepInternal() {
         throwIfSet();
@@ -96,6 +103,11 @@ public class AbstractCPUStub extends AbstractCPU {
     @Override
     protected void resetInternal(int startPos) { }
 
+    @Override
+    protected void breakpointChanged(int location) {
+        changedBreakpoints.add(location);
+    }
+
     @Override
     public String getVersion() {
         throw new UnsupportedOperationException();
@@ -26,6 +26,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.locks.LockSupport;
@@ -83,6 +84,15 @@ public class AbstractCPUTest {
         assertFalse(cpu.isBreakpointSet(3));
     }
 
+    @Test
+    public void testBreakpointChangeIsNotified() {
+        cpu.setBreakpoint(3);
+        cpu.setBreakpoint(3);
+        cpu.unsetBreakpoint(3);
+        cpu.unsetBreakpoint(4);
+        assertEquals(List.of(3, 3), cpu.changedBreakpoints);
+    }
+
     @Test
     public void testNotifyChange() {
         CPUListener listener = createCPUListenerMock(RunState.STATE_RUNNING);
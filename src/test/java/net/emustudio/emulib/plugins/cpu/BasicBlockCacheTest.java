@@ -0,0 +1,243 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.plugins.cpu.BasicBlockCache.TranslatedInstruction;
+import net.emustudio.emulib.plugins.cpu.CPU.RunState;
+import net.emustudio.emulib.runtime.io.ByteMemoryStub;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BasicBlockCacheTest {
+    // opcodes of a toy CPU
+    private final static int INC = 0;
+    private final static int JMP = 1; // JMP address
+    private final static int HLT = 2;
+    private final static int STORE = 3; // STORE address, value
+
+    private ByteMemoryStub memory;
+    private ToyCPU cpu;
+    private Set<Integer> breakpoints;
+    private int translations;
+    private Runnable onTranslate = () -> {
+    };
+    private BasicBlockCache<ToyCPU> cache;
+
+    private static class ToyCPU {
+        int pc;
+        int accumulator;
+    }
+
+    @Before
+    public void setUp() {
+        memory = new ByteMemoryStub(1024);
+        cpu = new ToyCPU();
+        breakpoints = new HashSet<>();
+        cache = new BasicBlockCache<>(this::translate, memory, breakpoints::contains, 100);
+    }
+
+    private TranslatedInstruction<ToyCPU> translate(int position) throws InvalidInstructionException {
+        translations++;
+        onTranslate.run();
+        switch (memory.read(position)) {
+            case INC:
+                return new TranslatedInstruction<>(cpu -> {
+                    cpu.accumulator++;
+                    cpu.pc++;
+                    return RunState.STATE_RUNNING;
+                }, 1, false);
+            case JMP: {
+                int target = memory.read(position + 1) & 0xFF;
+                return new TranslatedInstruction<>(cpu -> {
+                    cpu.pc = target;
+                    return RunState.STATE_RUNNING;
+                }, 2, true);
+            }
+            case HLT:
+                return new TranslatedInstruction<>(cpu -> RunState.STATE_STOPPED_NORMAL, 1, true);
+            case STORE: {
+                int address = memory.read(position + 1) & 0xFF;
+                byte value = memory.read(position + 2);
+                return new TranslatedInstruction<>(cpu -> {
+                    memory.write(address, value);
+                    cpu.pc += 3;
+                    return RunState.STATE_RUNNING;
+                }, 3, false);
+            }
+            default:
+                throw new InvalidInstructionException();
+        }
+    }
+
+    private void program(int address, int... bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            memory.write(address + i, (byte) bytes[i]);
+        }
+    }
+
+    private RunState run(int maxBlocks) throws Exception {
+        RunState state = RunState.STATE_RUNNING;
+        for (int i = 0; i < maxBlocks && state == RunState.STATE_RUNNING; i++) {
+            state = cache.execute(cpu, cpu.pc);
+        }
+        return state;
+    }
+
+    @Test
+    public void testBlockEndsWithControlFlowInstruction() throws Exception {
+        program(0, INC, INC, JMP, 10, INC);
+        BasicBlockCache.Block<ToyCPU> block = cache.getBlock(0);
+        assertEquals(0, block.getStartAddress());
+        assertEquals(4, block.getEndAddress());
+        assertEquals(3, block.getInstructionsCount());
+    }
+
+    @Test
+    public void testBlocksAreCached() throws Exception {
+        program(0, INC, INC, JMP, 0);
+        run(10);
+        assertEquals(20, cpu.accumulator);
+        assertEquals(3, translations);
+    }
+
+    @Test
+    public void testExecutionUntilHalt() throws Exception {
+        program(0, INC, JMP, 10);
+        program(10, INC, INC, HLT);
+        assertEquals(RunState.STATE_STOPPED_NORMAL, run(10));
+        assertEquals(3, cpu.accumulator);
+    }
+
+    @Test
+    public void testBlockIsCutBeforeBreakpoint() throws Exception {
+        program(0, INC, INC, INC, HLT);
+        breakpoints.add(2);
+        assertEquals(2, cache.getBlock(0).getEndAddress());
+    }
+
+    @Test
+    public void testInvalidateForNewBreakpoint() throws Exception {
+        program(0, INC, INC, INC, HLT);
+        BasicBlockCache.Block<ToyCPU> block = cache.getBlock(0);
+        breakpoints.add(2);
+        cache.invalidate(2);
+
+        assertFalse(block.isValid());
+        assertEquals(2, cache.getBlock(0).getEndAddress());
+    }
+
+    @Test
+    public void testBlockIsCutAtPageBoundary() throws Exception {
+        int start = BasicBlockCache.PAGE_SIZE - 2;
+        program(start, INC, INC, INC, HLT);
+        assertEquals(BasicBlockCache.PAGE_SIZE, cache.getBlock(start).getEndAddress());
+    }
+
+    @Test
+    public void testBlockIsCutBeforeInvalidInstruction() throws Exception {
+        program(0, INC, INC, 0x7F);
+        assertEquals(2, cache.getBlock(0).getEndAddress());
+    }
+
+    @Test(expected = InvalidInstructionException.class)
+    public void testInvalidFirstInstructionThrows() throws Exception {
+        program(0, 0x7F);
+        cache.getBlock(0);
+    }
+
+    @Test
+    public void testWriteIntoCodeInvalidatesBlock() throws Exception {
+        program(0, INC, INC, HLT);
+        BasicBlockCache.Block<ToyCPU> block = cache.getBlock(0);
+        memory.write(1, (byte) HLT);
+
+        assertFalse(block.isValid());
+        assertEquals(2, cache.getBlock(0).getEndAddress());
+    }
+
+    @Test
+    public void testWriteOutsideOfCodeKeepsBlock() throws Exception {
+        program(0, INC, INC, HLT);
+        BasicBlockCache.Block<ToyCPU> block = cache.getBlock(0);
+        memory.write(100, (byte) 5);
+        assertTrue(block.isValid());
+        assertSame(block, cache.getBlock(0));
+    }
+
+    @Test
+    public void testSelfModifyingBlockStopsAfterModification() throws Exception {
+        // STORE rewrites the following INC to HLT
+        program(0, STORE, 3, HLT, INC, INC, JMP, 0);
+        assertEquals(RunState.STATE_STOPPED_NORMAL, run(10));
+        assertEquals(0, cpu.accumulator);
+    }
+
+    @Test
+    public void testWriteIntoInstructionSpanningPagesInvalidatesBlock() throws Exception {
+        int start = BasicBlockCache.PAGE_SIZE - 1;
+        program(start, JMP, 0);
+        BasicBlockCache.Block<ToyCPU> block = cache.getBlock(start);
+        memory.write(BasicBlockCache.PAGE_SIZE, (byte) 10);
+        assertFalse(block.isValid());
+    }
+
+    @Test
+    public void testInvalidatedPageKeepsTrackOfBlocksSpanningIntoIt() throws Exception {
+        int start = BasicBlockCache.PAGE_SIZE - 2;
+        program(start, STORE, 0, 0);
+        cache.getBlock(start);
+        cache.invalidate(2 * BasicBlockCache.PAGE_SIZE + 5); // drops the page into which the block spans
+
+        BasicBlockCache.Block<ToyCPU> block = cache.getBlock(start);
+        assertEquals(BasicBlockCache.PAGE_SIZE + 1, block.getEndAddress());
+        memory.write(BasicBlockCache.PAGE_SIZE, (byte) 10);
+        assertFalse(block.isValid());
+    }
+
+    @Test
+    public void testBlockTranslatedDuringWriteIsNotCached() throws Exception {
+        program(0, INC, INC, HLT);
+        onTranslate = () -> {
+            onTranslate = () -> {
+            };
+            memory.write(2, (byte) INC); // not covered yet, like a write from another thread
+        };
+        BasicBlockCache.Block<ToyCPU> block = cache.getBlock(0);
+        assertNotSame(block, cache.getBlock(0));
+    }
+
+    @Test
+    public void testMaxBlockInstructions() throws Exception {
+        cache = new BasicBlockCache<>(this::translate, memory, breakpoints::contains, 4);
+        assertEquals(4, cache.getBlock(0).getInstructionsCount());
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        BasicBlockCache.Block<ToyCPU> block = cache.getBlock(0);
+        cache.invalidateAll();
+        assertFalse(block.isValid());
+        assertNotSame(block, cache.getBlock(0));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.runtime.io.ByteMemoryStub;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CachedDecoderTest {
+    private final static int MAX_LENGTH = 3;
+
+    private ByteMemoryStub memory;
+    private CountingDecoder decoder;
+    private CachedDecoder cachedDecoder;
+
+    @Before
+    public void setUp() {
+        memory = new ByteMemoryStub(1024);
+        decoder = new CountingDecoder(memory);
+        cachedDecoder = new CachedDecoder(decoder, memory, MAX_LENGTH);
+    }
+
+    @Test
+    public void testRepeatedDecodingIsCached() throws Exception {
+        memory.write(0x100, (byte) 2);
+        DecodedInstruction first = cachedDecoder.decode(0x100);
+        DecodedInstruction second = cachedDecoder.decode(0x100);
+
+        assertSame(first, second);
+        assertEquals(1, decoder.decodes);
+        assertEquals(2, first.getLength());
+    }
+
+    @Test
+    public void testWriteIntoInstructionInvalidatesIt() throws Exception {
+        memory.write(0x1FF, (byte) 3);
+        assertEquals(3, cachedDecoder.decode(0x1FF).getLength());
+
+        // the last byte of the instruction is on the next page
+        memory.write(0x201, (byte) 7);
+        DecodedInstruction instruction = cachedDecoder.decode(0x1FF);
+        assertEquals(2, decoder.decodes);
+        assertEquals(7, instruction.getImage()[2]);
+    }
+
+    @Test
+    public void testWriteOutsideOfInstructionKeepsIt() throws Exception {
+        memory.write(0x100, (byte) 1);
+        cachedDecoder.decode(0x100);
+        memory.write(0x100 + MAX_LENGTH, (byte) 1);
+        cachedDecoder.decode(0x100);
+        assertEquals(1, decoder.decodes);
+    }
+
+    @Test
+    public void testInvalidateAll() throws Exception {
+        cachedDecoder.decode(0);
+        cachedDecoder.invalidateAll();
+        cachedDecoder.decode(0);
+        assertEquals(2, decoder.decodes);
+    }
+
+    @Test
+    public void testDetachStopsInvalidation() throws Exception {
+        cachedDecoder.detach();
+        memory.write(0, (byte) 2);
+        cachedDecoder.decode(0);
+        memory.write(0, (byte) 3);
+        assertEquals(2, cachedDecoder.decode(0).getLength());
+    }
+
+    @Test
+    public void testCachedInstructionIsIndependentOfReusedInstance() throws Exception {
+        memory.write(0, (byte) 1);
+        memory.write(1, (byte) 2);
+        DecodedInstruction first = cachedDecoder.decode(0);
+        cachedDecoder.decode(1);
+        assertEquals(1, first.get(0));
+    }
+
+    @Test(expected = InvalidInstructionException.class)
+    public void testInvalidInstructionIsNotCached() throws Exception {
+        memory.write(0, (byte) -1);
+        try {
+            cachedDecoder.decode(0);
+        } catch (InvalidInstructionException e) {
+            cachedDecoder.decode(0);
+        }
+    }
+
+    @Test
+    public void testAddressOutOfMemoryIsNotCached() throws Exception {
+        cachedDecoder.decode(2000);
+        cachedDecoder.decode(2000);
+        assertEquals(2, decoder.decodes);
+    }
+
+    // instruction length is given by its first byte (0 means 1); reuses one instruction instance
+    private static class CountingDecoder implements Decoder {
+        private final ByteMemoryStub memory;
+        private final DecodedInstruction instruction = new DecodedInstruction();
+        int decodes;
+
+        CountingDecoder(ByteMemoryStub memory) {
+            this.memory = memory;
+        }
+
+        @Override
+        public DecodedInstruction decode(int memoryPosition) throws InvalidInstructionException {
+            decodes++;
+            if (memoryPosition >= memory.getSize()) {
+                instruction.reset();
+                instruction.setImage(new byte[1]);
+                return instruction;
+            }
+            int length = memory.read(memoryPosition);
+            if (length < 0) {
+                throw new InvalidInstructionException("Invalid instruction");
+            }
+            byte[] image = new byte[Math.max(1, length)];
+            for (int i = 0; i < image.length; i++) {
+                image[i] = memory.read(memoryPosition + i);
+            }
+            instruction.reset();
+            instruction.add(0, "length", length);
+            instruction.setImage(image);
+            return instruction;
+        }
+    }
+}
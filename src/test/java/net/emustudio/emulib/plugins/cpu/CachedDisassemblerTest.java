@@ -0,0 +1,89 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.runtime.io.ByteMemoryStub;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CachedDisassemblerTest {
+    private ByteMemoryStub memory;
+    private CountingDisassembler disassembler;
+    private CachedDisassembler cachedDisassembler;
+
+    @Before
+    public void setUp() {
+        memory = new ByteMemoryStub(1024);
+        disassembler = new CountingDisassembler(memory);
+        cachedDisassembler = new CachedDisassembler(disassembler, memory, 2);
+    }
+
+    @Test
+    public void testRepeatedDisassemblingIsCached() throws Exception {
+        memory.write(10, (byte) 5);
+        assertEquals("5", cachedDisassembler.disassemble(10).getMnemo());
+        assertEquals(12, cachedDisassembler.getNextInstructionPosition(10));
+        cachedDisassembler.disassemble(10);
+        cachedDisassembler.getNextInstructionPosition(10);
+        assertEquals(2, disassembler.calls);
+    }
+
+    @Test
+    public void testSelfModifyingCodeIsDisassembledAgain() throws Exception {
+        memory.write(10, (byte) 5);
+        cachedDisassembler.disassemble(10);
+        memory.write(11, (byte) 6);
+        assertEquals("5 6", cachedDisassembler.disassemble(10).getMnemo());
+    }
+
+    @Test
+    public void testMemorySizeChangeInvalidatesAll() throws Exception {
+        cachedDisassembler.disassemble(10);
+        memory.notifyMemorySizeChanged();
+        cachedDisassembler.disassemble(10);
+        assertEquals(2, disassembler.calls);
+    }
+
+    // all instructions are 2 bytes long
+    private static class CountingDisassembler implements Disassembler {
+        private final ByteMemoryStub memory;
+        int calls;
+
+        CountingDisassembler(ByteMemoryStub memory) {
+            this.memory = memory;
+        }
+
+        @Override
+        public DisassembledInstruction disassemble(int memoryPosition) {
+            calls++;
+            byte first = memory.read(memoryPosition);
+            byte second = memory.read(memoryPosition + 1);
+            String mnemo = (second == 0) ? String.valueOf(first) : first + " " + second;
+            return new DisassembledInstruction(memoryPosition, mnemo, "");
+        }
+
+        @Override
+        public int getNextInstructionPosition(int memoryPosition) {
+            calls++;
+            return memoryPosition + 2;
+        }
+    }
+}
@@ -21,6 +21,9 @@ package net.emustudio.emulib.plugins.cpu;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 public class DecodedInstructionTest {
@@ -94,4 +97,85 @@ public class DecodedInstructionTest {
         assertEquals(1, instruction.getLength());
     }
 
+    @Test
+    public void testSetImageWithLength() {
+        byte[] buffer = new byte[] {6, 7, 8};
+        instruction.setImage(buffer, 2);
+        assertArrayEquals(new byte[] {6, 7}, instruction.getImage());
+        assertEquals(2, instruction.getLength());
+
+        DecodedInstruction copy = instruction.copy();
+        buffer[0] = 9;
+        assertArrayEquals(new byte[] {6, 7}, copy.getImage());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetImageWithTooBigLengthThrows() {
+        instruction.setImage(new byte[] {6}, 2);
+    }
+
+    @Test
+    public void testKeysBeyondKeyCountAreSupported() {
+        instruction = new DecodedInstruction(2);
+        instruction.add(100, "A", 5);
+        instruction.add(50, 0x12, 8);
+        assertEquals(5, instruction.get(100));
+        assertEquals(0x12, instruction.getBitsValue(50));
+        assertEquals(8, instruction.getBitsLength(50));
+        assertFalse(instruction.hasKey(1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeKeyThrows() {
+        instruction.add(-1, "A", 5);
+    }
+
+    @Test
+    public void testResetRemovesAllKeys() {
+        instruction.add(0, "A", 5);
+        instruction.add(1, 3, 8);
+        instruction.setImage(new byte[] {6});
+        instruction.reset();
+
+        assertFalse(instruction.hasKey(0));
+        assertFalse(instruction.hasKey(1));
+        assertNull(instruction.getString(0));
+        assertNull(instruction.getBits(1));
+        assertEquals(-1, instruction.getBitsValue(1));
+        assertTrue(instruction.getKeys().isEmpty());
+        assertNull(instruction.getImage());
+    }
+
+    @Test
+    public void testGetBitsReturnsSameObject() {
+        instruction.add(0, 0x0605, 16);
+        instruction.getBits(0).reverseBytes();
+        assertEquals(0x0506, instruction.getBits(0).bits);
+        assertEquals(0x0506, instruction.getBitsValue(0));
+    }
+
+    @Test
+    public void testForEachKeyInAdditionOrder() {
+        instruction.add(3, "A", 5);
+        instruction.add(1, 0, 8);
+        instruction.add(3, 0, 8);
+
+        List<Integer> keys = new ArrayList<>();
+        instruction.forEachKey(keys::add);
+        assertEquals(List.of(3, 1), keys);
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        instruction.add(0, "A", 5);
+        instruction.add(1, 3, 8);
+        instruction.setImage(new byte[] {6});
+        DecodedInstruction copy = instruction.copy();
+        instruction.reset();
+
+        assertEquals("A", copy.getString(0));
+        assertEquals(5, copy.get(0));
+        assertEquals(3, copy.getBitsValue(1));
+        assertArrayEquals(new byte[] {6}, copy.getImage());
+    }
 }
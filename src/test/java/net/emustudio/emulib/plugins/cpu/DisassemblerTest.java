@@ -0,0 +1,105 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DisassemblerTest {
+    private final static int MEMORY_SIZE = 10;
+
+    // two-cell instructions, invalid at address 4, memory ends at MEMORY_SIZE
+    private final Disassembler disassembler = new Disassembler() {
+        @Override
+        public DisassembledInstruction disassemble(int memoryPosition) throws InvalidInstructionException {
+            checkBounds(memoryPosition);
+            if (memoryPosition == 4) {
+                throw new InvalidInstructionException();
+            }
+            return new DisassembledInstruction(memoryPosition, "I" + memoryPosition, "OP");
+        }
+
+        @Override
+        public int getNextInstructionPosition(int memoryPosition) {
+            checkBounds(memoryPosition);
+            return memoryPosition + 2;
+        }
+
+        private void checkBounds(int memoryPosition) {
+            if (memoryPosition >= MEMORY_SIZE) {
+                throw new IndexOutOfBoundsException();
+            }
+        }
+    };
+
+    @Test
+    public void testDisassembleRangeIntoSink() {
+        List<String> result = new ArrayList<>();
+        int end = disassembler.disassemble(0, 5, (address, nextAddress, instruction) -> {
+            result.add(address + "-" + nextAddress + ":" + ((instruction == null) ? null : instruction.getMnemo()));
+            return true;
+        });
+        assertEquals(List.of("0-2:I0", "2-4:I2", "4-6:null"), result);
+        assertEquals(6, end);
+    }
+
+    @Test
+    public void testSinkCanStopDisassembling() {
+        List<Integer> addresses = new ArrayList<>();
+        int end = disassembler.disassemble(0, 100, (address, nextAddress, instruction) -> {
+            addresses.add(address);
+            return addresses.size() < 2;
+        });
+        assertEquals(List.of(0, 2), addresses);
+        assertEquals(4, end);
+    }
+
+    @Test
+    public void testDisassemblingStopsAtEndOfMemory() {
+        assertEquals(MEMORY_SIZE, disassembler.disassemble(0, 100, (address, nextAddress, instruction) -> true));
+    }
+
+    @Test
+    public void testDisassembleIntoBuffer() {
+        DisassembledInstruction reused = new DisassembledInstruction(0, "x", "y");
+        DisassembledInstruction[] buffer = new DisassembledInstruction[]{reused, null, null};
+
+        assertEquals(3, disassembler.disassemble(2, buffer));
+        assertSame(reused, buffer[0]);
+        assertEquals(2, buffer[0].getAddress());
+        assertEquals("I2", buffer[0].getMnemo());
+        assertEquals(4, buffer[1].getAddress());
+        assertNull(buffer[1].getMnemo());
+        assertEquals("I6", buffer[2].getMnemo());
+    }
+
+    @Test
+    public void testDisassembleIntoBufferAtEndOfMemory() {
+        assertEquals(2, disassembler.disassemble(6, new DisassembledInstruction[5]));
+    }
+
+    @Test
+    public void testDisassembleIntoEmptyBuffer() {
+        assertEquals(0, disassembler.disassemble(0, new DisassembledInstruction[0]));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class GuestProfilerTest {
+
+    @Test
+    public void testCountersArePerAddress() {
+        GuestProfiler profiler = new GuestProfiler(0x100);
+        profiler.instruction(0x10, 4);
+        profiler.instruction(0x10, 4);
+        profiler.instruction(0x11, 7);
+        profiler.instruction(0x1000, 7); // outside memory, ignored
+
+        assertEquals(2, profiler.getCount(0x10));
+        assertEquals(8, profiler.getCycles(0x10));
+        assertEquals(1, profiler.getCount(0x11));
+        assertEquals(7, profiler.getCycles(0x11));
+    }
+
+    @Test
+    public void testHotSpotsAreSortedByCycles() {
+        GuestProfiler profiler = new GuestProfiler(0x100);
+        profiler.instruction(0x01, 4);
+        profiler.instruction(0x02, 10);
+        profiler.instruction(0x03, 2);
+        profiler.instruction(0x03, 2);
+        profiler.instruction(0x04, 4);
+
+        assertEquals(List.of(
+                new GuestProfiler.HotSpot(0x02, 1, 10),
+                new GuestProfiler.HotSpot(0x03, 2, 4),
+                new GuestProfiler.HotSpot(0x01, 1, 4)
+        ), profiler.getHotSpots(3));
+    }
+
+    @Test
+    public void testReset() {
+        GuestProfiler profiler = new GuestProfiler(0x100);
+        profiler.instruction(0x01, 4);
+        profiler.call(0x50);
+        profiler.reset();
+
+        assertEquals(0, profiler.getCount(0x01));
+        assertEquals(0, profiler.getDepth());
+        assertTrue(profiler.getHotSpots(10).isEmpty());
+    }
+
+    @Test
+    public void testFlameGraph() throws Exception {
+        GuestProfiler profiler = new GuestProfiler(0x100);
+        profiler.instruction(0x00, 10); // call 0x50
+        profiler.call(0x50);
+        profiler.instruction(0x50, 5); // call 0x80
+        profiler.call(0x80);
+        profiler.instruction(0x80, 3);
+        profiler.instruction(0x81, 3); // ret
+        profiler.ret();
+        profiler.instruction(0x51, 5); // ret
+        profiler.ret();
+        profiler.instruction(0x01, 10); // call 0x80
+        profiler.call(0x80);
+        profiler.instruction(0x80, 3);
+        profiler.ret();
+
+        StringWriter writer = new StringWriter();
+        profiler.writeFlameGraph(address -> (address == 0x50) ? "print" : null, writer);
+
+        assertEquals(
+                Set.of("main 20", "main;print 10", "main;print;0x0080 6", "main;0x0080 3"),
+                Set.of(writer.toString().split("\n"))
+        );
+    }
+
+    @Test
+    public void testUnbalancedReturnIsIgnored() {
+        GuestProfiler profiler = new GuestProfiler(0x100);
+        profiler.ret();
+        profiler.call(0x10);
+
+        assertEquals(1, profiler.getDepth());
+    }
+
+    @Test
+    public void testDeepRecursionIsCapped() throws Exception {
+        GuestProfiler profiler = new GuestProfiler(0x100);
+        for (int i = 0; i < GuestProfiler.MAX_DEPTH + 10; i++) {
+            profiler.call(0x10);
+        }
+        profiler.instruction(0x10, 1);
+        assertEquals(GuestProfiler.MAX_DEPTH + 10, profiler.getDepth());
+
+        for (int i = 0; i < GuestProfiler.MAX_DEPTH + 10; i++) {
+            profiler.ret();
+        }
+        profiler.instruction(0x00, 1);
+        assertEquals(0, profiler.getDepth());
+
+        StringWriter writer = new StringWriter();
+        profiler.writeFlameGraph(writer);
+        String[] lines = writer.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(Set.of(lines).contains("main 1"));
+    }
+
+    @Test
+    public void testPrintHotSpots() throws Exception {
+        Disassembler disassembler = new Disassembler() {
+            @Override
+            public DisassembledInstruction disassemble(int memoryPosition) {
+                return new DisassembledInstruction(memoryPosition, "nop", "00");
+            }
+
+            @Override
+            public int getNextInstructionPosition(int memoryPosition) {
+                return memoryPosition + 1;
+            }
+        };
+        GuestProfiler profiler = new GuestProfiler(0x100);
+        profiler.instruction(0x20, 3);
+        profiler.instruction(0x21, 1);
+
+        StringWriter writer = new StringWriter();
+        profiler.printHotSpots(1, disassembler, writer);
+
+        String[] lines = writer.toString().split("\n");
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].startsWith("00000020"));
+        assertTrue(lines[0].contains("75.00%"));
+        assertTrue(lines[0].endsWith("nop"));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.runtime.ApplicationApi;
+import net.emustudio.emulib.runtime.settings.PluginSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.junit.Assert.*;
+
+public class SamplingProfilerTest {
+    private AbstractCPUStub cpu;
+    private SamplingProfiler profiler;
+
+    @Before
+    public void setUp() {
+        cpu = new AbstractCPUStub(0, createNiceMock(ApplicationApi.class), createNiceMock(PluginSettings.class));
+        profiler = new SamplingProfiler(cpu, 0x100);
+    }
+
+    @After
+    public void tearDown() {
+        profiler.close();
+        cpu.destroy();
+    }
+
+    @Test
+    public void testNothingIsPublishedInitially() {
+        assertEquals(-1, cpu.getPublishedInstructionLocation());
+    }
+
+    @Test
+    public void testSamplesAreTakenOnlyWhenRunning() {
+        cpu.publish(0x42);
+        profiler.sample();
+        assertEquals(0, profiler.getTotalSamples());
+
+        cpu.reset(0);
+        cpu.execute();
+        profiler.sample();
+        profiler.sample();
+        cpu.pause();
+        profiler.sample();
+
+        assertEquals(2, profiler.getSamples(0x42));
+        assertEquals(2, profiler.getTotalSamples());
+    }
+
+    @Test
+    public void testAttachToRunningCPU() {
+        cpu.reset(0);
+        cpu.execute();
+        cpu.publish(0x42);
+        try (SamplingProfiler attached = new SamplingProfiler(cpu, 0x100)) {
+            attached.sample();
+            assertEquals(1, attached.getSamples(0x42));
+        }
+    }
+
+    @Test
+    public void testHotSpots() {
+        cpu.reset(0);
+        cpu.execute();
+        cpu.publish(0x10);
+        profiler.sample();
+        cpu.publish(0x20);
+        profiler.sample();
+        profiler.sample();
+        cpu.publish(0x1000); // outside memory
+        profiler.sample();
+
+        assertEquals(List.of(
+                new SamplingProfiler.HotSpot(0x20, 2),
+                new SamplingProfiler.HotSpot(0x10, 1)
+        ), profiler.getHotSpots(10));
+        assertEquals(3, profiler.getTotalSamples());
+
+        profiler.reset();
+        assertEquals(0, profiler.getTotalSamples());
+        assertTrue(profiler.getHotSpots(10).isEmpty());
+    }
+
+    @Test
+    public void testPeriodicSampling() throws Exception {
+        cpu.reset(0);
+        cpu.execute();
+        cpu.publish(0x33);
+        profiler.start(100, TimeUnit.MILLISECONDS);
+        profiler.start(1, TimeUnit.MILLISECONDS);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (profiler.getSamples(0x33) < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        profiler.stop();
+        assertTrue(profiler.getSamples(0x33) >= 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidIntervalThrows() {
+        profiler.start(0, TimeUnit.MILLISECONDS);
+    }
+}
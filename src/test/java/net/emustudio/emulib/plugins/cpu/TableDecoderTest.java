@@ -0,0 +1,170 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.runtime.io.ByteMemoryStub;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TableDecoderTest {
+    private final static String I8080_SUBSET = String.join("\n",
+            "# 8080 subset",
+            "table reg B C D E H L M A",
+            "01110110          \"HLT\"",
+            "01dddsss          \"MOV {d:reg},{s:reg}\"",
+            "00ddd110 iiiiiiii \"MVI {d:reg},{i:X2}\"",
+            "11000011 llllllll hhhhhhhh \"JMP {h:X2}{l:X2}\"",
+            "00000000          \"NOP\""
+    );
+
+    private InstructionSet instructionSet;
+    private ByteMemoryStub memory;
+
+    @Before
+    public void setUp() {
+        instructionSet = InstructionSet.parse(I8080_SUBSET);
+        memory = new ByteMemoryStub(16);
+    }
+
+    private void program(int... bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            memory.write(i, (byte) bytes[i]);
+        }
+    }
+
+    @Test
+    public void testDecodeFields() throws Exception {
+        program(0x3E, 0x85); // MVI A,85
+        DecodedInstruction instruction = new TableDecoder(instructionSet, memory).decode(0);
+
+        assertEquals("MVI", instruction.getString(InstructionSet.INSTRUCTION_KEY));
+        assertEquals(2, instruction.get(InstructionSet.INSTRUCTION_KEY));
+        assertEquals(7, instruction.getBitsValue(instructionSet.getFieldKey('d')));
+        assertEquals(3, instruction.getBitsLength(instructionSet.getFieldKey('d')));
+        assertEquals(0x85, instruction.getBitsValue(instructionSet.getFieldKey('i')));
+        assertArrayEquals(new byte[]{0x3E, (byte) 0x85}, instruction.getImage());
+    }
+
+    @Test
+    public void testImageLengthFollowsInstruction() throws Exception {
+        program(0x3E, 0x85, 0x76); // MVI A,85; HLT
+        TableDecoder decoder = new TableDecoder(instructionSet, memory);
+        DecodedInstruction mvi = decoder.decode(0).copy();
+        DecodedInstruction hlt = decoder.decode(2);
+
+        assertEquals(1, hlt.getLength());
+        assertArrayEquals(new byte[]{0x76}, hlt.getImage());
+        assertArrayEquals(new byte[]{0x3E, (byte) 0x85}, mvi.getImage());
+    }
+
+    @Test
+    public void testMoreSpecificPatternWins() throws Exception {
+        program(0x76, 0x78);
+        TableDecoder decoder = new TableDecoder(instructionSet, memory);
+        assertEquals("HLT", decoder.decode(0).getString(InstructionSet.INSTRUCTION_KEY));
+        assertEquals("MOV", decoder.decode(1).getString(InstructionSet.INSTRUCTION_KEY));
+    }
+
+    @Test(expected = InvalidInstructionException.class)
+    public void testInvalidInstructionThrows() throws Exception {
+        program(0xFF);
+        new TableDecoder(instructionSet, memory).decode(0);
+    }
+
+    @Test
+    public void testDisassemble() throws Exception {
+        program(0x78, 0x3E, 0x05, 0xC3, 0x34, 0x12);
+        TableDisassembler disassembler = new TableDisassembler(instructionSet, memory);
+
+        assertEquals("MOV A,B", disassembler.disassemble(0).getMnemo());
+        assertEquals("MVI A,05", disassembler.disassemble(1).getMnemo());
+        DisassembledInstruction jump = disassembler.disassemble(3);
+        assertEquals("JMP 1234", jump.getMnemo());
+        assertEquals("C3 34 12", jump.getOpCode());
+        assertEquals(3, jump.getAddress());
+    }
+
+    @Test
+    public void testDisassembleNegativeTableIndex() throws Exception {
+        instructionSet = InstructionSet.parse(String.join("\n",
+                "table reg B C D E H L M A",
+                "11111110 vvvvvvvv vvvvvvvv vvvvvvvv vvvvvvvv \"LD {v:reg}\""
+        ));
+        program(0xFE, 0xFF, 0xFF, 0xFF, 0xFF);
+        assertEquals("LD ?", new TableDisassembler(instructionSet, memory).disassemble(0).getMnemo());
+    }
+
+    @Test
+    public void testDisassembleRangeInOnePass() {
+        program(0x78, 0x3E, 0x05, 0xFF, 0xC3, 0x34, 0x12);
+        TableDisassembler disassembler = new TableDisassembler(instructionSet, memory);
+
+        List<String> result = new ArrayList<>();
+        int end = disassembler.disassemble(0, 7, (address, nextAddress, instruction) -> {
+            result.add(address + ":" + ((instruction == null) ? null : instruction.getMnemo()));
+            return true;
+        });
+        assertEquals(List.of("0:MOV A,B", "1:MVI A,05", "3:null", "4:JMP 1234"), result);
+        assertEquals(7, end);
+    }
+
+    @Test
+    public void testNextInstructionPosition() {
+        program(0x78, 0x3E, 0x05, 0xC3, 0x34, 0x12, 0xFF);
+        TableDisassembler disassembler = new TableDisassembler(instructionSet, memory);
+
+        assertEquals(1, disassembler.getNextInstructionPosition(0));
+        assertEquals(3, disassembler.getNextInstructionPosition(1));
+        assertEquals(6, disassembler.getNextInstructionPosition(3));
+        assertEquals(7, disassembler.getNextInstructionPosition(6));
+    }
+
+    @Test
+    public void testFieldSpanningBytes() throws Exception {
+        InstructionSet set = InstructionSet.parse("1010aaaa aaaa0000 \"X {a:X2}\"");
+        program(0xAC, 0x30);
+        assertEquals("X C3", new TableDisassembler(set, memory).disassemble(0).getMnemo());
+        assertEquals(0xC3, new TableDecoder(set, memory).decode(0).getBitsValue(set.getFieldKey('a')));
+    }
+
+    @Test
+    public void testMaxInstructionLength() {
+        assertEquals(3, instructionSet.getMaxInstructionLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFieldInFormatThrows() {
+        InstructionSet.parse("0000aaaa \"X {b}\"");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPatternThrows() {
+        InstructionSet.parse("0000aaa \"X\"");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFieldKeyThrows() {
+        instructionSet.getFieldKey('z');
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.plugins.cpu;
+
+import net.emustudio.emulib.runtime.ApplicationApi;
+import net.emustudio.emulib.runtime.settings.PluginSettings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static net.emustudio.emulib.plugins.cpu.CPU.RunState;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("emulib", ".trace");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacityThrows() {
+        new TraceRecorder(0);
+    }
+
+    @Test
+    public void testRecordsAreKeptInOrder() {
+        TraceRecorder recorder = new TraceRecorder(4);
+        recorder.record(0x100, 0x3E, 1, 10);
+        recorder.record(0x101, 0x1234C3, 3, 14);
+
+        List<TraceRecorder.Record> records = recorder.getRecords();
+        assertEquals(2, recorder.size());
+        assertEquals(List.of(
+                new TraceRecorder.Record(10, 0x100, 1, 0x3E),
+                new TraceRecorder.Record(14, 0x101, 3, 0x1234C3)
+        ), records);
+        assertArrayEquals(new byte[]{(byte) 0xC3, 0x34, 0x12}, records.get(1).getOpcode());
+    }
+
+    @Test
+    public void testRingBufferKeepsLastRecords() {
+        TraceRecorder recorder = new TraceRecorder(3);
+        for (int i = 0; i < 7; i++) {
+            recorder.record(i, i, 1, i);
+        }
+
+        assertEquals(3, recorder.size());
+        assertEquals(7, recorder.getTotalCount());
+        List<TraceRecorder.Record> records = recorder.getRecords();
+        assertEquals(4, records.get(0).getPc());
+        assertEquals(6, records.get(2).getPc());
+    }
+
+    @Test
+    public void testClear() {
+        TraceRecorder recorder = new TraceRecorder(3);
+        recorder.record(1, 1, 1, 1);
+        recorder.clear();
+
+        assertEquals(0, recorder.size());
+        assertTrue(recorder.getRecords().isEmpty());
+    }
+
+    @Test
+    public void testDumpAndReadWrappedBuffer() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(5);
+        for (int i = 0; i < 8; i++) {
+            recorder.record(0x200 + i, 0xAA00 + i, 2, 100L * i);
+        }
+        recorder.dump(file);
+
+        assertEquals(16 + 5 * TraceRecorder.RECORD_SIZE, Files.size(file));
+        assertEquals(recorder.getRecords(), TraceRecorder.read(file));
+    }
+
+    @Test
+    public void testDumpEmptyBuffer() throws Exception {
+        new TraceRecorder(5).dump(file);
+
+        assertTrue(TraceRecorder.read(file).isEmpty());
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testReadInvalidFileThrows() throws Exception {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        TraceRecorder.read(file);
+    }
+
+    @Test
+    public void testDumpOnErrorStop() throws Exception {
+        Files.delete(file);
+        TraceRecorder recorder = new TraceRecorder(5, file);
+        recorder.record(0x10, 0x76, 1, 3);
+
+        recorder.cpuStopped(RunState.STATE_STOPPED_NORMAL);
+        assertFalse(Files.exists(file));
+
+        recorder.cpuStopped(RunState.STATE_STOPPED_BAD_INSTR);
+        assertEquals(recorder.getRecords(), TraceRecorder.read(file));
+    }
+
+    @Test
+    public void testPrint() throws Exception {
+        Disassembler disassembler = new Disassembler() {
+            @Override
+            public DisassembledInstruction disassemble(int memoryPosition) throws InvalidInstructionException {
+                if (memoryPosition == 0x11) {
+                    throw new InvalidInstructionException();
+                }
+                return new DisassembledInstruction(memoryPosition, "hlt", "76");
+            }
+
+            @Override
+            public int getNextInstructionPosition(int memoryPosition) {
+                return memoryPosition + 1;
+            }
+        };
+        List<TraceRecorder.Record> records = List.of(
+                new TraceRecorder.Record(3, 0x10, 1, 0x76),
+                new TraceRecorder.Record(4, 0x11, 2, 0xFFED)
+        );
+        StringWriter writer = new StringWriter();
+        TraceRecorder.print(records, disassembler, writer);
+
+        String[] lines = writer.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("00000010  76"));
+        assertTrue(lines[0].endsWith("hlt"));
+        assertTrue(lines[1].contains("ED FF"));
+        assertTrue(lines[1].endsWith("[invalid]"));
+    }
+
+    @Test
+    public void testSteppingAndPausingDoNotDump() throws Exception {
+        Files.delete(file);
+        AbstractCPUStub cpu = new AbstractCPUStub(
+                0, createNiceMock(ApplicationApi.class), createNiceMock(PluginSettings.class)
+        );
+        try {
+            cpu.setTraceRecorder(new TraceRecorder(5, file));
+            cpu.reset(0);
+            cpu.setRunStateToReturn(RunState.STATE_STOPPED_BREAK);
+            cpu.step();
+            cpu.step();
+            cpu.execute();
+            assertTrue(cpu.wasRunCalled());
+            cpu.pause();
+
+            assertEquals(RunState.STATE_STOPPED_BREAK, cpu.getRunState());
+            assertFalse(Files.exists(file));
+        } finally {
+            cpu.destroy();
+        }
+    }
+
+    @Test
+    public void testRunEndingOnBreakpointDumps() throws Exception {
+        Files.delete(file);
+        AbstractCPUStub cpu = new AbstractCPUStub(
+                0, createNiceMock(ApplicationApi.class), createNiceMock(PluginSettings.class)
+        );
+        try {
+            cpu.setTraceRecorder(new TraceRecorder(5, file));
+            cpu.reset(0);
+            cpu.setRunStateToReturn(RunState.STATE_STOPPED_BREAK);
+            cpu.execute();
+            assertTrue(cpu.wasRunCalled());
+            cpu.stopSpontaneously();
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!Files.exists(file) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.exists(file));
+        } finally {
+            cpu.destroy();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.interaction.debugger;
+
+import net.emustudio.emulib.plugins.cpu.CPU;
+import net.emustudio.emulib.runtime.io.ByteMemoryStub;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CachedDebuggerColumnTest {
+    private ByteMemoryStub memory;
+    private CountingColumn column;
+
+    private class CountingColumn implements DebuggerColumn<String> {
+        final List<Integer> computed = new ArrayList<>();
+
+        @Override
+        public Class<String> getClassType() {
+            return String.class;
+        }
+
+        @Override
+        public String getTitle() {
+            return "counting";
+        }
+
+        @Override
+        public boolean isEditable() {
+            return true;
+        }
+
+        @Override
+        public void setValue(int location, Object value) {
+            memory.write(location, Byte.parseByte((String) value));
+        }
+
+        @Override
+        public String getValue(int location) {
+            computed.add(location);
+            return (location == 100) ? null : String.valueOf(memory.read(location));
+        }
+    }
+
+    @Before
+    public void setUp() {
+        memory = new ByteMemoryStub(1024);
+        column = new CountingColumn();
+    }
+
+    @Test
+    public void testValuesAreCached() {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(column, memory, 3);
+        memory.write(5, (byte) 7);
+        assertEquals("7", cached.getValue(5));
+        assertEquals("7", cached.getValue(5));
+        assertEquals(List.of(5), column.computed);
+    }
+
+    @Test
+    public void testNullValuesAreCached() {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(column, memory, 3);
+        assertNull(cached.getValue(100));
+        assertNull(cached.getValue(100));
+        assertEquals(List.of(100), column.computed);
+    }
+
+    @Test
+    public void testMemoryWriteInvalidatesInstructionsReachingItsPage() {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(column, memory, 3);
+        for (int i = 250; i < 260; i++) {
+            cached.getValue(i);
+        }
+        column.computed.clear();
+        memory.write(600, (byte) 1);
+        memory.write(300, (byte) 1);
+        for (int i = 250; i < 260; i++) {
+            cached.getValue(i);
+        }
+        assertEquals(List.of(254, 255, 256, 257, 258, 259), column.computed);
+    }
+
+    @Test
+    public void testSetValueInvalidatesLocation() throws Exception {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(column, memory, 1);
+        memory.setMemoryNotificationsEnabled(false);
+        cached.getValue(5);
+        cached.setValue(5, "9");
+        assertEquals("9", cached.getValue(5));
+    }
+
+    @Test
+    public void testLeavingRunningStateInvalidatesAll() {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(column, memory, 1);
+        cached.runStateChanged(CPU.RunState.STATE_RUNNING);
+        memory.setMemoryNotificationsEnabled(false);
+        cached.getValue(5);
+        memory.write(5, (byte) 3);
+        cached.runStateChanged(CPU.RunState.STATE_STOPPED_BREAK);
+        assertEquals("3", cached.getValue(5));
+    }
+
+    @Test
+    public void testStepRecomputesOnlyRowsOnWrittenPages() {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(column, memory, 3);
+        cached.runStateChanged(CPU.RunState.STATE_STOPPED_BREAK);
+        for (int i = 0; i < 10; i++) {
+            cached.getValue(i);
+            cached.getValue(500 + i);
+        }
+        column.computed.clear();
+
+        // step writing into memory
+        memory.write(505, (byte) 1);
+        cached.runStateChanged(CPU.RunState.STATE_STOPPED_BREAK);
+        for (int i = 0; i < 10; i++) {
+            cached.getValue(i);
+            cached.getValue(500 + i);
+        }
+        assertEquals(List.of(500, 501, 502, 503, 504, 505, 506, 507, 508, 509), column.computed);
+    }
+
+    @Test
+    public void testNextRowsArePrefetched() {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(
+                column, memory, 2, location -> location + 2, 3, Runnable::run);
+        cached.getValue(10);
+        assertEquals(List.of(10, 12, 14, 16), column.computed);
+
+        cached.getValue(12);
+        cached.getValue(16);
+        assertEquals(4, column.computed.size());
+    }
+
+    @Test
+    public void testPrefetchingStopsAtEndOfMemory() {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(column, memory, 1, location -> {
+            if (location + 1 >= memory.getSize()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return location + 1;
+        }, 10, Runnable::run);
+        cached.getValue(memory.getSize() - 2);
+        assertEquals(2, column.computed.size());
+    }
+
+    @Test
+    public void testDelegatesColumnProperties() {
+        CachedDebuggerColumn<String> cached = new CachedDebuggerColumn<>(column, memory, 1);
+        assertEquals(String.class, cached.getClassType());
+        assertEquals("counting", cached.getTitle());
+        assertTrue(cached.isEditable());
+        assertEquals(-1, cached.getDefaultWidth());
+    }
+}
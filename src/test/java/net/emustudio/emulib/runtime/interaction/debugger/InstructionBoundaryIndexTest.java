@@ -0,0 +1,123 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.interaction.debugger;
+
+import net.emustudio.emulib.plugins.cpu.DisassembledInstruction;
+import net.emustudio.emulib.plugins.cpu.Disassembler;
+import net.emustudio.emulib.runtime.io.ByteMemoryStub;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InstructionBoundaryIndexTest {
+    private final static int PAGE = InstructionBoundaryIndex.PAGE_SIZE;
+
+    private ByteMemoryStub memory;
+    private InstructionBoundaryIndex index;
+    private int disassembled;
+
+    @Before
+    public void setUp() {
+        memory = new ByteMemoryStub(4 * PAGE);
+        // instruction length is given by its first byte (0 means 1)
+        Disassembler disassembler = new Disassembler() {
+            @Override
+            public DisassembledInstruction disassemble(int memoryPosition) {
+                return new DisassembledInstruction(memoryPosition, "", "");
+            }
+
+            @Override
+            public int getNextInstructionPosition(int memoryPosition) {
+                disassembled++;
+                return memoryPosition + Math.max(1, memory.read(memoryPosition));
+            }
+        };
+        index = new InstructionBoundaryIndex(disassembler, memory);
+    }
+
+    @Test
+    public void testNextAndPrevious() {
+        memory.write(0, (byte) 3);
+        memory.write(3, (byte) 2);
+
+        assertTrue(index.isBoundary(0));
+        assertFalse(index.isBoundary(1));
+        assertEquals(3, index.next(0));
+        assertEquals(5, index.next(3));
+        assertEquals(3, index.previous(5));
+        assertEquals(0, index.previous(3));
+        assertEquals(0, index.previous(2));
+        assertEquals(-1, index.previous(0));
+    }
+
+    @Test
+    public void testInstructionSpanningPages() {
+        memory.write(PAGE - 1, (byte) 3);
+        assertTrue(index.isBoundary(PAGE - 1));
+        assertFalse(index.isBoundary(PAGE));
+        assertEquals(PAGE + 2, index.next(PAGE - 1));
+        assertEquals(PAGE - 1, index.previous(PAGE + 2));
+    }
+
+    @Test
+    public void testEndOfMemory() {
+        assertEquals(-1, index.next(4 * PAGE - 1));
+        assertEquals(4 * PAGE - 1, index.previous(4 * PAGE));
+    }
+
+    @Test
+    public void testPagesAreIndexedOnce() {
+        for (int i = 0; i < 100; i++) {
+            index.previous(PAGE - 1);
+            index.next(0);
+        }
+        assertEquals(PAGE, disassembled);
+    }
+
+    @Test
+    public void testWriteInvalidatesPage() {
+        assertTrue(index.isBoundary(11));
+        memory.write(10, (byte) 2);
+        assertFalse(index.isBoundary(11));
+        assertEquals(12, index.next(10));
+    }
+
+    @Test
+    public void testChangedCarryReindexesNextPage() {
+        index.isBoundary(PAGE);
+        index.isBoundary(PAGE + 1);
+        memory.write(PAGE - 1, (byte) 2);
+        assertFalse(index.isBoundary(PAGE));
+        assertTrue(index.isBoundary(PAGE + 1));
+    }
+
+    @Test
+    public void testAnchor() {
+        memory.write(0, (byte) 3);
+        memory.write(1, (byte) 3);
+        assertFalse(index.isBoundary(1));
+
+        index.anchor(1);
+        assertTrue(index.isBoundary(0));
+        assertTrue(index.isBoundary(1));
+        assertFalse(index.isBoundary(3));
+        assertEquals(4, index.next(1));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.memory.AbstractMemoryContext;
+
+import java.util.Arrays;
+
+public class ByteMemoryStub extends AbstractMemoryContext<Byte> {
+    final byte[] memory;
+    int bulkWrites;
+
+    public ByteMemoryStub(int size) {
+        this.memory = new byte[size];
+    }
+
+    @Override
+    public Byte read(int memoryPosition) {
+        return memory[memoryPosition];
+    }
+
+    @Override
+    public Byte[] read(int memoryPosition, int count) {
+        Byte[] result = new Byte[Math.min(count, memory.length - memoryPosition)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = memory[memoryPosition + i];
+        }
+        return result;
+    }
+
+    @Override
+    public void write(int memoryPosition, Byte value) {
+        memory[memoryPosition] = value;
+        notifyMemoryChanged(memoryPosition);
+    }
+
+    @Override
+    public void write(int memoryPosition, Byte[] values, int count) {
+        bulkWrites++;
+        for (int i = 0; i < count; i++) {
+            memory[memoryPosition + i] = values[i];
+            notifyMemoryChanged(memoryPosition + i);
+        }
+    }
+
+    @Override
+    public Class<Byte> getDataType() {
+        return Byte.class;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(memory, (byte) 0);
+    }
+
+    @Override
+    public int getSize() {
+        return memory.length;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.device.DeviceContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DeviceInputRecorderTest {
+    private final AtomicLong cycles = new AtomicLong();
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("emulib", ".input");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        DeviceContextStub<Byte> keyboard = new DeviceContextStub<>(Byte.class);
+        DeviceContextStub<Integer> timer = new DeviceContextStub<>(Integer.class);
+        List<Object> recorded = new ArrayList<>();
+
+        try (DeviceInputRecorder recorder = new DeviceInputRecorder(file, cycles::get)) {
+            DeviceContext<Byte> recordedKeyboard = recorder.record(0, keyboard);
+            DeviceContext<Integer> recordedTimer = recorder.record(1, timer);
+            for (int i = 0; i < 10000; i++) {
+                cycles.addAndGet(i % 7);
+                keyboard.next = (byte) i;
+                timer.next = i * 1000;
+                recorded.add(recordedKeyboard.readData());
+                if (i % 3 == 0) {
+                    recorded.add(recordedTimer.readData());
+                }
+            }
+        }
+
+        cycles.set(0);
+        keyboard.next = null;
+        keyboard.reads = 0;
+        timer.next = null;
+        List<Object> replayed = new ArrayList<>();
+        try (DeviceInputReplayer replayer = new DeviceInputReplayer(file, cycles::get)) {
+            DeviceContext<Byte> replayedKeyboard = replayer.replay(0, keyboard);
+            DeviceContext<Integer> replayedTimer = replayer.replay(1, timer);
+            for (int i = 0; i < 10000; i++) {
+                cycles.addAndGet(i % 7);
+                replayed.add(replayedKeyboard.readData());
+                if (i % 3 == 0) {
+                    replayed.add(replayedTimer.readData());
+                }
+            }
+            assertTrue(replayer.isFinished());
+        }
+        assertEquals(recorded, replayed);
+        assertEquals(0, keyboard.reads);
+    }
+
+    @Test
+    public void testWritesArePassedToDevice() throws Exception {
+        DeviceContextStub<Byte> device = new DeviceContextStub<>(Byte.class);
+        try (DeviceInputRecorder recorder = new DeviceInputRecorder(file, cycles::get)) {
+            recorder.record(0, device).writeData((byte) 5);
+        }
+        assertEquals(Byte.valueOf((byte) 5), device.written);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReplayAtDifferentCycleThrows() throws Exception {
+        DeviceContextStub<Byte> device = new DeviceContextStub<>(Byte.class);
+        device.next = (byte) 1;
+        try (DeviceInputRecorder recorder = new DeviceInputRecorder(file, cycles::get)) {
+            cycles.set(100);
+            recorder.record(0, device).readData();
+        }
+        try (DeviceInputReplayer replayer = new DeviceInputReplayer(file, cycles::get)) {
+            cycles.set(101);
+            replayer.replay(0, device).readData();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReplayOfDifferentContextThrows() throws Exception {
+        DeviceContextStub<Byte> device = new DeviceContextStub<>(Byte.class);
+        device.next = (byte) 1;
+        try (DeviceInputRecorder recorder = new DeviceInputRecorder(file, cycles::get)) {
+            recorder.record(0, device).readData();
+            recorder.record(1, device);
+        }
+        try (DeviceInputReplayer replayer = new DeviceInputReplayer(file, cycles::get)) {
+            replayer.replay(1, device).readData();
+        }
+    }
+
+    @Test
+    public void testReplayOfDifferentDataTypeKeepsPosition() throws Exception {
+        DeviceContextStub<Byte> device = new DeviceContextStub<>(Byte.class);
+        device.next = (byte) 7;
+        try (DeviceInputRecorder recorder = new DeviceInputRecorder(file, cycles::get)) {
+            recorder.record(0, device).readData();
+        }
+        try (DeviceInputReplayer replayer = new DeviceInputReplayer(file, cycles::get)) {
+            try {
+                replayer.replay(0, new DeviceContextStub<>(Integer.class)).readData();
+                fail("Exception expected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals(Byte.valueOf((byte) 7), replayer.replay(0, device).readData());
+            assertTrue(replayer.isFinished());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReplayBeyondLogThrows() throws Exception {
+        DeviceContextStub<Byte> device = new DeviceContextStub<>(Byte.class);
+        try (DeviceInputRecorder recorder = new DeviceInputRecorder(file, cycles::get)) {
+            recorder.record(0, device);
+        }
+        try (DeviceInputReplayer replayer = new DeviceInputReplayer(file, cycles::get)) {
+            assertTrue(replayer.isFinished());
+            replayer.replay(0, device).readData();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateContextIdThrows() throws Exception {
+        DeviceContextStub<Byte> device = new DeviceContextStub<>(Byte.class);
+        try (DeviceInputRecorder recorder = new DeviceInputRecorder(file, cycles::get)) {
+            recorder.record(0, device);
+            recorder.record(0, device);
+        }
+    }
+
+    @Test
+    public void testLogIsCompact() throws Exception {
+        DeviceContextStub<Byte> device = new DeviceContextStub<>(Byte.class);
+        device.next = (byte) 1;
+        try (DeviceInputRecorder recorder = new DeviceInputRecorder(file, cycles::get)) {
+            DeviceContext<Byte> recorded = recorder.record(0, device);
+            for (int i = 0; i < 1000; i++) {
+                cycles.addAndGet(10);
+                recorded.readData();
+            }
+        }
+        assertTrue(Files.size(file) <= DeviceInputLog.HEADER_SIZE + 2 + 3 * 1000);
+    }
+
+    private static class DeviceContextStub<T> implements DeviceContext<T> {
+        private final Class<T> dataType;
+        T next;
+        T written;
+        int reads;
+
+        DeviceContextStub(Class<T> dataType) {
+            this.dataType = dataType;
+        }
+
+        @Override
+        public T readData() {
+            reads++;
+            return next;
+        }
+
+        @Override
+        public void writeData(T value) {
+            written = value;
+        }
+
+        @Override
+        public Class<T> getDataType() {
+            return dataType;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ELFTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("emulib", ".elf");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testGenerateAndParse() throws Exception {
+        ProgramImage image = new ProgramImage(List.of(
+                new ProgramImage.Segment(0x100, new byte[]{1, 2, 3}),
+                new ProgramImage.Segment(0x8000, new byte[]{(byte) 0xC3, 0, 1})
+        ), 0x8000);
+
+        ELF.generate(image, file);
+        assertEquals(image, ELF.parse(file));
+    }
+
+    @Test
+    public void testParseBigEndian64BitWithBss() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64 + 56 + 2).order(ByteOrder.BIG_ENDIAN);
+        buffer.put(new byte[]{0x7F, 'E', 'L', 'F', 2, 2, 1});
+        buffer.position(16);
+        buffer.putShort((short) 2).putShort((short) 0).putInt(1);
+        buffer.putLong(0x200); // e_entry
+        buffer.putLong(64); // e_phoff
+        buffer.putLong(0).putInt(0).putShort((short) 64);
+        buffer.putShort((short) 56).putShort((short) 1);
+        buffer.position(64);
+        buffer.putInt(1).putInt(7); // PT_LOAD, flags
+        buffer.putLong(120); // p_offset
+        buffer.putLong(0x9999); // p_vaddr
+        buffer.putLong(0x200); // p_paddr
+        buffer.putLong(2); // p_filesz
+        buffer.putLong(4); // p_memsz
+        buffer.putLong(1);
+        buffer.put((byte) 0xAA).put((byte) 0xBB);
+        Files.write(file.toPath(), buffer.array());
+
+        ProgramImage image = ELF.parse(file);
+        assertEquals(0x200, image.getStartAddress());
+        assertEquals(List.of(new ProgramImage.Segment(0x200, new byte[]{(byte) 0xAA, (byte) 0xBB, 0, 0})),
+                image.getSegments());
+    }
+
+    @Test(expected = IOException.class)
+    public void testHugeSegmentMemorySizeThrows() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(52 + 32).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[]{0x7F, 'E', 'L', 'F', 1, 1, 1});
+        buffer.position(16);
+        buffer.putShort((short) 2).putShort((short) 0).putInt(1);
+        buffer.putInt(0); // e_entry
+        buffer.putInt(52); // e_phoff
+        buffer.putInt(0).putInt(0).putShort((short) 52);
+        buffer.putShort((short) 32).putShort((short) 1);
+        buffer.position(52);
+        buffer.putInt(1); // PT_LOAD
+        buffer.putInt(84); // p_offset
+        buffer.putInt(0); // p_vaddr
+        buffer.putInt(0); // p_paddr
+        buffer.putInt(0); // p_filesz
+        buffer.putInt(0x7FFFFFF0); // p_memsz
+        Files.write(file.toPath(), buffer.array());
+
+        ELF.parse(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotElfThrows() throws Exception {
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        ELF.parse(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedElfThrows() throws Exception {
+        Files.write(file.toPath(), new byte[]{0x7F, 'E', 'L', 'F', 1, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2, 0});
+        ELF.parse(file);
+    }
+}
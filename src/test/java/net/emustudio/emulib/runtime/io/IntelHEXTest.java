@@ -24,11 +24,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
 
@@ -275,4 +278,90 @@ public class IntelHEXTest {
         Map<Integer, Byte> codeTable = hexFile.getCode();
         assertEquals((byte)codeTable.get(programStart), mc.read(programStart).byteValue());
     }
+
+    @Test
+    public void testToProgramImage() {
+        hexFile.setNextAddress(4);
+        hexFile.add("0102");
+        hexFile.setNextAddress(10);
+        hexFile.add("03");
+
+        ProgramImage image = hexFile.toProgramImage();
+        assertEquals(4, image.getStartAddress());
+        assertEquals(List.of(
+                new ProgramImage.Segment(4, new byte[]{1, 2}),
+                new ProgramImage.Segment(10, new byte[]{3})
+        ), image.getSegments());
+    }
+
+    @Test
+    public void testAddProgramImage() {
+        hexFile.add(new ProgramImage(List.of(new ProgramImage.Segment(2, new byte[]{5, 6}))));
+
+        assertEquals(5, (byte)hexFile.getCode().get(2));
+        assertEquals(6, (byte)hexFile.getCode().get(3));
+    }
+
+    @Test
+    public void testParseBytesAbove7F() throws Exception {
+        File file = File.createTempFile("emulib", ".hex");
+        try {
+            Files.writeString(file.toPath(), ":02000000FF807F\n:00000001FF\n");
+            hexFile = IntelHEX.parse(file);
+        } finally {
+            file.delete();
+        }
+        assertEquals((byte) 0xFF, (byte)hexFile.getCode().get(0));
+        assertEquals((byte) 0x80, (byte)hexFile.getCode().get(1));
+    }
+
+    @Test
+    public void testParallelParsingSmallFile() throws Exception {
+        File file = toFile(VALID_HEX_FILE);
+        assertEquals(IntelHEX.parse(file).toProgramImage(), IntelHEX.parseParallel(file));
+    }
+
+    @Test
+    public void testParallelParsingIsSameAsSequential() throws Exception {
+        Random random = new Random(1234);
+        File file = File.createTempFile("emulib", ".hex");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try (Writer writer = Files.newBufferedWriter(file.toPath())) {
+            writer.write("; big file\n");
+            for (int line = 0; line < 30000; line++) {
+                int address = random.nextInt(0x10000);
+                StringBuilder data = new StringBuilder();
+                for (int i = 0; i < 16; i++) {
+                    data.append(String.format("%02X", random.nextInt(256)));
+                }
+                writer.write(String.format(":10%04X00%s00\n", address, data));
+                if (line % 1000 == 0) {
+                    writer.write("   ; comment\n");
+                }
+            }
+            writer.write(":00000001FF\n");
+            writer.flush();
+
+            assertTrue(file.length() > 1024 * 1024);
+            assertEquals(IntelHEX.parse(file).toProgramImage(), IntelHEX.parseParallel(file, pool));
+        } finally {
+            pool.shutdown();
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testParallelParsingInvalidFile() throws Exception {
+        File file = File.createTempFile("emulib", ".hex");
+        try (Writer writer = Files.newBufferedWriter(file.toPath())) {
+            for (int line = 0; line < 40000; line++) {
+                writer.write(":10000000000102030405060708090A0B0C0D0E0F00\n");
+            }
+            writer.write(":10000002000102030405060708090A0B0C0D0E0F00\n");
+            writer.flush();
+            IntelHEX.parseParallel(file, ForkJoinPool.commonPool());
+        } finally {
+            file.delete();
+        }
+    }
 }
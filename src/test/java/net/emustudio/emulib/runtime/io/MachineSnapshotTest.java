@@ -0,0 +1,244 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import net.emustudio.emulib.plugins.Plugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MachineSnapshotTest {
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("emulib", ".snapshot");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testSaveAndLoadPlugins() throws Exception {
+        byte[] cpuState = new byte[]{1, 2, 3};
+        byte[] deviceState = new byte[200 * 1024];
+        new Random(1).nextBytes(deviceState);
+
+        Map<String, Plugin> plugins = new LinkedHashMap<>();
+        plugins.put("cpu", new PluginStub(cpuState, 3));
+        plugins.put("device", new PluginStub(deviceState, 1));
+        MachineSnapshot.save(plugins, file);
+
+        PluginStub cpu = new PluginStub(null, 3);
+        PluginStub device = new PluginStub(null, 1);
+        Map<String, Plugin> loaded = new LinkedHashMap<>();
+        loaded.put("device", device);
+        loaded.put("cpu", cpu);
+        MachineSnapshot.load(loaded, file);
+
+        assertArrayEquals(cpuState, cpu.state);
+        assertEquals(3, cpu.loadedVersion);
+        assertArrayEquals(deviceState, device.state);
+        assertEquals(1, device.loadedVersion);
+    }
+
+    @Test
+    public void testUnreadStateIsSkipped() throws Exception {
+        Map<String, Plugin> plugins = new LinkedHashMap<>();
+        plugins.put("a", new PluginStub(new byte[]{1, 2, 3, 4}, 1));
+        plugins.put("b", new PluginStub(new byte[]{5, 6}, 1));
+        MachineSnapshot.save(plugins, file);
+
+        PluginStub a = new PluginStub(null, 1);
+        a.readLimit = 1;
+        PluginStub b = new PluginStub(null, 1);
+        MachineSnapshot.load(Map.of("a", a, "b", b), file);
+
+        assertArrayEquals(new byte[]{1}, a.state);
+        assertArrayEquals(new byte[]{5, 6}, b.state);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSavePluginWithoutSnapshotSupportThrows() throws Exception {
+        PluginStub plugin = new PluginStub(new byte[0], 1);
+        plugin.snapshotSupported = false;
+        MachineSnapshot.save(Map.of("a", plugin), file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadUnknownPluginThrows() throws Exception {
+        MachineSnapshot.save(Map.of("a", new PluginStub(new byte[]{1}, 1)), file);
+        MachineSnapshot.load(Map.of("b", new PluginStub(null, 1)), file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadInvalidFileThrows() throws Exception {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+        MachineSnapshot.load(Map.of(), file);
+    }
+
+    @Test
+    public void testSnapshotIsNotSupportedByDefault() {
+        Plugin plugin = new PluginStub(null, 1) {
+            @Override
+            public boolean isSnapshotSupported() {
+                return false;
+            }
+        };
+        assertFalse(plugin.isSnapshotSupported());
+    }
+
+    @Test
+    public void testMemoryPluginUsesMemoryDump() throws Exception {
+        ByteMemoryStub memory = new ByteMemoryStub(1024 * 1024);
+        memory.memory[0x12345] = 0x42;
+        MemoryPluginStub plugin = new MemoryPluginStub(memory);
+        MachineSnapshot.save(Map.of("memory", plugin), file);
+        assertTrue(Files.size(file) < 16 * 1024);
+
+        ByteMemoryStub loadedMemory = new ByteMemoryStub(1024 * 1024);
+        MachineSnapshot.load(Map.of("memory", new MemoryPluginStub(loadedMemory)), file);
+        assertArrayEquals(memory.memory, loadedMemory.memory);
+    }
+
+    private static class PluginStub implements Plugin {
+        byte[] state;
+        final int version;
+        int loadedVersion;
+        int readLimit = Integer.MAX_VALUE;
+        boolean snapshotSupported = true;
+
+        PluginStub(byte[] state, int version) {
+            this.state = state;
+            this.version = version;
+        }
+
+        @Override
+        public boolean isSnapshotSupported() {
+            return snapshotSupported;
+        }
+
+        @Override
+        public int getSnapshotVersion() {
+            return version;
+        }
+
+        @Override
+        public void saveSnapshot(WritableByteChannel channel) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(4 + state.length);
+            buffer.putInt(state.length).put(state).flip();
+            // write in small pieces to exercise framing
+            while (buffer.hasRemaining()) {
+                ByteBuffer piece = buffer.slice();
+                piece.limit(Math.min(piece.remaining(), 1000));
+                buffer.position(buffer.position() + channel.write(piece));
+            }
+        }
+
+        @Override
+        public void loadSnapshot(ReadableByteChannel channel, int version) throws IOException {
+            loadedVersion = version;
+            ByteBuffer length = ByteBuffer.allocate(4);
+            ChannelIO.readFully(channel, length);
+            ByteBuffer buffer = ByteBuffer.allocate(Math.min(readLimit, length.getInt(0)));
+            ChannelIO.readFully(channel, buffer);
+            state = buffer.array();
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public void showSettings(JFrame parent) {
+        }
+
+        @Override
+        public boolean isShowSettingsSupported() {
+            return false;
+        }
+
+        @Override
+        public String getTitle() {
+            return "stub";
+        }
+
+        @Override
+        public String getVersion() {
+            return "1";
+        }
+
+        @Override
+        public String getCopyright() {
+            return "";
+        }
+
+        @Override
+        public String getDescription() {
+            return "";
+        }
+
+        @Override
+        public boolean isAutomationSupported() {
+            return false;
+        }
+    }
+
+    private static class MemoryPluginStub extends PluginStub {
+        private final ByteMemoryStub memory;
+
+        MemoryPluginStub(ByteMemoryStub memory) {
+            super(null, 1);
+            this.memory = memory;
+        }
+
+        @Override
+        public void saveSnapshot(WritableByteChannel channel) throws IOException {
+            MemoryDump.save(memory, channel, MemoryDump.Compression.DEFLATE);
+        }
+
+        @Override
+        public void loadSnapshot(ReadableByteChannel channel, int version) throws IOException {
+            MemoryDump.load(memory, channel);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MemoryDumpTest {
+    private final static int MEMORY_SIZE = 16 * 1024 * 1024;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = Files.createTempFile("emulib", ".dump");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    private ByteMemoryStub createSparseMemory() {
+        ByteMemoryStub memory = new ByteMemoryStub(MEMORY_SIZE);
+        Random random = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            memory.memory[0x1000 + i] = (byte) random.nextInt();
+        }
+        memory.memory[MEMORY_SIZE - 1] = 0x55;
+        return memory;
+    }
+
+    @Test
+    public void testSaveAndLoadUncompressed() throws Exception {
+        ByteMemoryStub memory = createSparseMemory();
+        MemoryDump.save(memory, file, MemoryDump.Compression.NONE);
+
+        ByteMemoryStub loaded = new ByteMemoryStub(MEMORY_SIZE);
+        loaded.memory[5] = 1;
+        MemoryDump.load(loaded, file);
+        assertArrayEquals(memory.memory, loaded.memory);
+    }
+
+    @Test
+    public void testSaveAndLoadCompressed() throws Exception {
+        ByteMemoryStub memory = createSparseMemory();
+        MemoryDump.save(memory, file, MemoryDump.Compression.DEFLATE);
+
+        ByteMemoryStub loaded = new ByteMemoryStub(MEMORY_SIZE);
+        MemoryDump.load(loaded, file);
+        assertArrayEquals(memory.memory, loaded.memory);
+    }
+
+    @Test
+    public void testZeroPagesAreSkipped() throws Exception {
+        MemoryDump.save(createSparseMemory(), file, MemoryDump.Compression.NONE);
+        // 3 non-zero pages
+        assertTrue(Files.size(file) < 4 * MemoryDump.PAGE_SIZE);
+    }
+
+    @Test
+    public void testSizeNotDivisibleByPageSize() throws Exception {
+        ByteMemoryStub memory = new ByteMemoryStub(MemoryDump.PAGE_SIZE + 3);
+        memory.memory[MemoryDump.PAGE_SIZE + 2] = 7;
+        MemoryDump.save(memory, file, MemoryDump.Compression.DEFLATE);
+
+        ByteMemoryStub loaded = new ByteMemoryStub(MemoryDump.PAGE_SIZE + 3);
+        MemoryDump.load(loaded, file);
+        assertArrayEquals(memory.memory, loaded.memory);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedPageIsDetected() throws Exception {
+        ByteMemoryStub memory = new ByteMemoryStub(MemoryDump.PAGE_SIZE);
+        memory.memory[10] = 1;
+        MemoryDump.save(memory, file, MemoryDump.Compression.NONE);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{2}), 16 + 12 + 10);
+        }
+        MemoryDump.load(new ByteMemoryStub(MemoryDump.PAGE_SIZE), file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadIntoSmallerMemoryThrows() throws Exception {
+        MemoryDump.save(new ByteMemoryStub(100), file, MemoryDump.Compression.NONE);
+        MemoryDump.load(new ByteMemoryStub(99), file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadInvalidFileThrows() throws Exception {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+        MemoryDump.load(new ByteMemoryStub(100), file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadHugePageSizeThrows() throws Exception {
+        MemoryDump.save(new ByteMemoryStub(100), file, MemoryDump.Compression.NONE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE), 12);
+        }
+        MemoryDump.load(new ByteMemoryStub(100), file);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MotorolaSRecordTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("emulib", ".s19");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testParseS19() throws Exception {
+        Files.writeString(file.toPath(), "S00600004844521B\n" +
+                "S1130000285F245F2212226A000424290008237C2A\n" +
+                "\n" +
+                "S5030001FB\n" +
+                "S9030010EC\n");
+
+        ProgramImage image = MotorolaSRecord.parse(file);
+        assertEquals(0x10, image.getStartAddress());
+        assertEquals(1, image.getSegments().size());
+        assertEquals(0, image.getSegments().get(0).getAddress());
+        assertEquals(16, image.getSegments().get(0).getLength());
+        assertEquals(0x28, image.getSegments().get(0).getData()[0]);
+        assertEquals(0x7C, image.getSegments().get(0).getData()[15]);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidChecksumThrows() throws Exception {
+        Files.writeString(file.toPath(), "S1130000285F245F2212226A000424290008237C2B\n");
+        MotorolaSRecord.parse(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidByteCountThrows() throws Exception {
+        Files.writeString(file.toPath(), "S1140000285F245F2212226A000424290008237C2A\n");
+        MotorolaSRecord.parse(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidRecordThrows() throws Exception {
+        Files.writeString(file.toPath(), ":00000001FF\n");
+        MotorolaSRecord.parse(file);
+    }
+
+    @Test
+    public void testGenerateAndParse() throws Exception {
+        byte[] data = new byte[40];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        ProgramImage image = new ProgramImage(List.of(
+                new ProgramImage.Segment(0x1000, data),
+                new ProgramImage.Segment(0x20000, new byte[]{(byte) 0xFF})
+        ), 0x1000);
+
+        MotorolaSRecord.generate(image, file);
+        assertEquals(image, MotorolaSRecord.parse(file));
+    }
+
+    @Test
+    public void testGenerateUsesS19ForSmallAddresses() throws Exception {
+        StringWriter writer = new StringWriter();
+        MotorolaSRecord.generate(new ProgramImage(List.of(new ProgramImage.Segment(0, new byte[]{1}))), writer);
+        assertEquals("S0030000FC\nS104000001FA\nS5030001FB\nS9030000FC\n", writer.toString());
+    }
+}
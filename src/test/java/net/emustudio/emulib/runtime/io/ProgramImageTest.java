@@ -0,0 +1,93 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProgramImageTest {
+
+    @Test
+    public void testEmptyImage() {
+        ProgramImage image = new ProgramImage(List.of());
+        assertTrue(image.isEmpty());
+        assertEquals(0, image.getStartAddress());
+        assertEquals(0, image.getSize());
+    }
+
+    @Test
+    public void testSegmentsAreSorted() {
+        ProgramImage image = new ProgramImage(List.of(
+                new ProgramImage.Segment(10, new byte[]{3}),
+                new ProgramImage.Segment(0, new byte[]{1, 2})
+        ));
+        assertEquals(2, image.getSegments().size());
+        assertEquals(0, image.getSegments().get(0).getAddress());
+        assertEquals(10, image.getSegments().get(1).getAddress());
+        assertEquals(0, image.getStartAddress());
+        assertEquals(3, image.getSize());
+    }
+
+    @Test
+    public void testAdjacentSegmentsAreMerged() {
+        ProgramImage image = new ProgramImage(List.of(
+                new ProgramImage.Segment(2, new byte[]{3, 4}),
+                new ProgramImage.Segment(0, new byte[]{1, 2})
+        ), 1);
+        assertEquals(List.of(new ProgramImage.Segment(0, new byte[]{1, 2, 3, 4})), image.getSegments());
+        assertEquals(1, image.getStartAddress());
+    }
+
+    @Test
+    public void testLaterSegmentOverwritesEarlier() {
+        ProgramImage image = new ProgramImage(List.of(
+                new ProgramImage.Segment(0, new byte[]{1, 1, 1, 1}),
+                new ProgramImage.Segment(1, new byte[]{2, 2}),
+                new ProgramImage.Segment(3, new byte[]{3, 3})
+        ));
+        assertEquals(List.of(new ProgramImage.Segment(0, new byte[]{1, 2, 2, 3, 3})), image.getSegments());
+    }
+
+    @Test
+    public void testEmptySegmentsAreIgnored() {
+        ProgramImage image = new ProgramImage(List.of(new ProgramImage.Segment(5, new byte[0])));
+        assertTrue(image.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSegmentAddressThrows() {
+        new ProgramImage.Segment(-1, new byte[1]);
+    }
+
+    @Test
+    public void testLoadIntoMemoryUsesBulkWrites() {
+        ProgramImage image = new ProgramImage(List.of(
+                new ProgramImage.Segment(1, new byte[]{1, 2, 3}),
+                new ProgramImage.Segment(10, new byte[]{(byte) 0xFF})
+        ));
+        ByteMemoryStub memory = new ByteMemoryStub(16);
+        image.loadIntoMemory(memory, b -> b);
+
+        assertArrayEquals(new byte[]{0, 1, 2, 3, 0, 0, 0, 0, 0, 0, (byte) 0xFF, 0, 0, 0, 0, 0}, memory.memory);
+        assertEquals(2, memory.bulkWrites);
+    }
+}
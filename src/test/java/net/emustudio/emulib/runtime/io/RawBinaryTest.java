@@ -0,0 +1,77 @@
+/*
+ * This file is part of emuLib.
+ *
+ * Copyright (C) 2006-2023  Peter Jakubčo
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package net.emustudio.emulib.runtime.io;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RawBinaryTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("emulib", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        Files.write(file.toPath(), new byte[]{1, 2, (byte) 0x80});
+
+        ProgramImage image = RawBinary.parse(file, 0x100);
+        assertEquals(0x100, image.getStartAddress());
+        assertEquals(List.of(new ProgramImage.Segment(0x100, new byte[]{1, 2, (byte) 0x80})), image.getSegments());
+    }
+
+    @Test
+    public void testParseEmptyFile() throws Exception {
+        assertTrue(RawBinary.parse(file, 0).isEmpty());
+    }
+
+    @Test
+    public void testLoadIntoMemory() throws Exception {
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        ByteMemoryStub memory = new ByteMemoryStub(8);
+
+        assertEquals(4, RawBinary.loadIntoMemory(file, 4, memory, b -> b));
+        assertArrayEquals(new byte[]{0, 0, 0, 0, 1, 2, 3, 0}, memory.memory);
+        assertEquals(1, memory.bulkWrites);
+    }
+
+    @Test
+    public void testGenerateFillsGapsWithZeroes() throws Exception {
+        ProgramImage image = new ProgramImage(List.of(
+                new ProgramImage.Segment(2, new byte[]{1, 2}),
+                new ProgramImage.Segment(6, new byte[]{3})
+        ));
+        RawBinary.generate(image, file);
+        assertArrayEquals(new byte[]{1, 2, 0, 0, 3}, Files.readAllBytes(file.toPath()));
+    }
+}